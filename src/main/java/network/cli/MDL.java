@@ -6,12 +6,22 @@ import network.core.GraphIO;
 import network.core.SiGraph;
 import network.core.Util;
 import network.extendedmapequation.CPMap;
+import network.extendedmapequation.CPMapEvaluator;
+import network.extendedmapequation.Stationary;
 import network.optimization.CPM;
+import network.optimization.CPMParameters;
 import network.optimization.CPMapParameters;
+import network.utils.IdMap;
+import network.utils.WorkerPool;
 import org.apache.commons.cli.*;
 
 import java.io.File;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Detection and evaluation based on extended Map Equation to Signed networks
@@ -38,6 +48,28 @@ public class MDL extends AbstractOperation{
     public static final String RANDOM_SEED = "seed";
     public static final String RANDOM_SEED_DEFAULT = "-1";
 
+    public static final String REFINE_METHOD = "refine-method";
+    public static final String REFINE_METHOD_DEFAULT = "recursive";
+
+    public static final String LOCAL_MOVING = "move";
+    public static final String LOCAL_MOVING_DEFAULT = "serial";
+
+    public static final String WARM_START = "warm-start";
+
+    public static final String AITKEN = "aitken";
+
+    public static final String STATIONARY_TOLERANCE = "stationary-tolerance";
+    public static final String STATIONARY_TOLERANCE_DEFAULT = "1e-10";
+
+    public static final String STATIONARY_NORM = "stationary-norm";
+    public static final String STATIONARY_NORM_DEFAULT = "l2";
+
+    public static final String STATIONARY_ITERATIONS = "stationary-iterations";
+    public static final String STATIONARY_ITERATIONS_DEFAULT = "10000";
+
+    public static final String SEARCH = "search";
+    public static final String SEARCH_DEFAULT = "bracket";
+
     private static final int PARTITION_NONE = 0;
     private static final int PARTITION_ONE = 1;
     private static final int PARTITION_MANY = 2;
@@ -88,6 +120,33 @@ public class MDL extends AbstractOperation{
             int threadCount = Integer.parseInt(line.getOptionValue(THREAD_COUNT, THREAD_COUNT_DEFAULT));
             int randomSeed = Integer.parseInt(line.getOptionValue(RANDOM_SEED, RANDOM_SEED_DEFAULT));
             boolean isDirected = line.hasOption(OperationCenter.DIRECTED);
+            String refineMethodName = line.getOptionValue(REFINE_METHOD, REFINE_METHOD_DEFAULT);
+            int refineMethod = Arrays.asList(CPMParameters.REFINE_NAMES).indexOf(refineMethodName);
+            if(refineMethod < 0){
+                throw new ParseException("Unknown refinement method '" + refineMethodName + "'");
+            }
+            String localMovingName = line.getOptionValue(LOCAL_MOVING, LOCAL_MOVING_DEFAULT);
+            int localMoving = Arrays.asList(CPMParameters.MOVE_NAMES).indexOf(localMovingName);
+            if(localMoving < 0){
+                throw new ParseException("Unknown local moving mode '" + localMovingName + "'");
+            }
+            String searchName = line.getOptionValue(SEARCH, SEARCH_DEFAULT);
+            int search = Arrays.asList(CPMapParameters.SEARCH_NAMES).indexOf(searchName);
+            if(search < 0){
+                throw new ParseException("Unknown resolution search '" + searchName + "'");
+            }
+            String stationaryNormName = line.getOptionValue(STATIONARY_NORM, STATIONARY_NORM_DEFAULT);
+            int stationaryNorm = Arrays.asList(Stationary.NORM_NAMES).indexOf(stationaryNormName);
+            if(stationaryNorm < 0){
+                throw new ParseException("Unknown stationary norm '" + stationaryNormName + "'");
+            }
+            double stationaryTolerance = Double.parseDouble(
+                    line.getOptionValue(STATIONARY_TOLERANCE, STATIONARY_TOLERANCE_DEFAULT));
+            int stationaryIterations = Integer.parseInt(
+                    line.getOptionValue(STATIONARY_ITERATIONS, STATIONARY_ITERATIONS_DEFAULT));
+            if(stationaryTolerance < 0 || stationaryIterations < 1){
+                throw new ParseException("Stationary tolerance must be >= 0, and iterations > 0");
+            }
 
             float teleport = Float.parseFloat(line.getOptionValue(TELEPORT, TELEPORT_DEFAULT));
             float specificResolution = Float.parseFloat(line.getOptionValue(
@@ -103,44 +162,42 @@ public class MDL extends AbstractOperation{
                     line.getOptionValue(RESOLUTION_ACCURACY, RESOLUTION_ACCURACY_DEFAULT));
 
             // Read the graph and construct the signed multi-graph
-            Graph graph = GraphIO.readGraph(inputGraph, !isDirected);
+            Graph graph = GraphIO.readGraph(inputGraph, !isDirected, threadCount);
             SiGraph siGraph = new SiGraph(graph);
 
-            // Prepare the detector/evaluator and the given parameters
-            CPMap cpmap = new CPMap();
-            CPMapParameters parameters = new CPMapParameters(
-                    teleport, false, false,
-                    resolutionAccuracy, resolutionStart, resolutionEnd,
-                    refineCount, threadCount, randomSeed);
-
-            // Respond to user requested mode either evaluation or detection accordingly
-            int[] detectedPartition = null;
-            if(partitionMode != PARTITION_NONE){ // partition evaluation (no detection)
-                String[][] evaluations = new String[partitionFiles.length][2];
-                DecimalFormat decimalFormat = new DecimalFormat("#.00000");
-                for(int p = 0 ; p < evaluations.length ; p++){
-                    int[] partition = GraphIO.readPartition(
-                            partitionFiles[p].getAbsolutePath(), graph.getToNormal()[0]);
-                    double mdl = cpmap.evaluate(graph, partition, parameters);
-                    evaluations[p][0] = partitionFiles[p].getName();
-                    evaluations[p][1] = decimalFormat.format(mdl);
-                    Shared.log(evaluations[p][0] + "\t" + evaluations[p][1]);
-                }
-                GraphIO.writeEvaluation(evaluations, output);
-            } else if (specificResolution >= 0) { // community detection at a specific resolution
-                Shared.log("Resolution: " + specificResolution);
-                CPM detector = (CPM) new CPM().setParams(parameters)
-                        .setThreadCount(threadCount);
-                detectedPartition = detector.detect(siGraph);
-                GraphIO.writePartition(siGraph, detectedPartition, output);
-                // Evaluate the detected partition too, if verbose is on
-                if(Shared.isVerbose()){
-                    Shared.log("Calculating MDL (this is skipped when verbose is off)");
-                    Shared.log("MDL: " + cpmap.evaluate(graph, detectedPartition, parameters));
+            // Worker threads shared by all parallel steps of the session
+            try(WorkerPool workerPool = new WorkerPool(threadCount)) {
+                // Prepare the detector/evaluator and the given parameters
+                CPMap cpmap = new CPMap();
+                CPMapParameters parameters = new CPMapParameters(
+                        teleport, false, false,
+                        resolutionAccuracy, resolutionStart, resolutionEnd,
+                        refineCount, threadCount, randomSeed);
+                parameters.setLocalMoving(localMoving).setRefineMethod(refineMethod);
+                parameters.setWarmStart(line.hasOption(WARM_START)).setSearch(search).setWorkerPool(workerPool);
+                parameters.setAitken(line.hasOption(AITKEN)).setStationaryTolerance(stationaryTolerance)
+                        .setStationaryNorm(stationaryNorm).setStationaryMaxIterations(stationaryIterations);
+
+                // Respond to user requested mode either evaluation or detection accordingly
+                int[] detectedPartition = null;
+                if(partitionMode != PARTITION_NONE){ // partition evaluation (no detection)
+                    String[][] evaluations = evaluate(partitionFiles, graph, parameters, workerPool);
+                    GraphIO.writeEvaluation(evaluations, output);
+                } else if (specificResolution >= 0) { // community detection at a specific resolution
+                    Shared.log("Resolution: " + specificResolution);
+                    CPM detector = (CPM) new CPM().setParams(parameters)
+                            .setThreadCount(threadCount).setWorkerPool(workerPool);
+                    detectedPartition = detector.detect(siGraph);
+                    GraphIO.writePartition(siGraph, detectedPartition, output);
+                    // Evaluate the detected partition too, if verbose is on
+                    if(Shared.isVerbose()){
+                        Shared.log("Calculating MDL (this is skipped when verbose is off)");
+                        Shared.log("MDL: " + cpmap.evaluate(graph, detectedPartition, parameters));
+                    }
+                }else{ // community detection on a range of resolutions
+                    detectedPartition = cpmap.detect(graph, parameters);
+                    GraphIO.writePartition(siGraph, detectedPartition, output);
                 }
-            }else{ // community detection on a range of resolutions
-                detectedPartition = cpmap.detect(graph, parameters);
-                GraphIO.writePartition(siGraph, detectedPartition, output);
             }
             double duration = (System.currentTimeMillis() - startTime) / 1000;
             Shared.log("Finished in " + duration + " seconds");
@@ -153,6 +210,101 @@ public class MDL extends AbstractOperation{
         }
     }
 
+    /**
+     * Read and evaluate the partitions concurrently on the workers, in blocks of consecutive partitions
+     * whose stationary distributions are iterated together, at most twice the number of workers
+     * blocks are read but not evaluated yet
+     * @param partitionFiles
+     * @param graph
+     * @param parameters
+     * @param workerPool
+     * @return (file name, description length) per partition in the order of files
+     * @throws Exception
+     */
+    static String[][] evaluate(File[] partitionFiles, Graph graph, CPMapParameters parameters,
+                                       WorkerPool workerPool) throws Exception {
+        String[][] evaluations = new String[partitionFiles.length][2];
+        DecimalFormat decimalFormat = new DecimalFormat("#.00000");
+        CPMapEvaluator evaluator = new CPMapEvaluator(graph);
+        IdMap toNormal = graph.getToNormal()[0];
+        // Threads are shared among the partitions, instead of the multiplications of one partition
+        CPMapParameters partitionParameters = parameters.clone();
+        if(partitionFiles.length > 1) partitionParameters.threadCount = 1;
+        // Blocks are small enough to keep all the workers busy
+        int threadCount = workerPool.getThreadCount();
+        int blockSize = Math.max(1, Math.min(CPMapEvaluator.MAX_BLOCK_SIZE,
+                (partitionFiles.length + threadCount - 1) / threadCount));
+        int blockCount = (partitionFiles.length + blockSize - 1) / blockSize;
+        int inFlightCount = 2 * threadCount;
+        List<Future<double[]>> futures = new ArrayList<>(blockCount);
+        int submitCount = 0;
+        for(int b = 0 ; b < blockCount ; b++){
+            while(submitCount < blockCount && submitCount < b + inFlightCount){
+                int from = submitCount * blockSize;
+                int to = Math.min(partitionFiles.length, from + blockSize);
+                futures.add(workerPool.submit(() -> evaluate(partitionFiles, from, to,
+                        evaluator, toNormal, partitionParameters)));
+                submitCount++;
+            }
+            int from = b * blockSize;
+            int to = Math.min(partitionFiles.length, from + blockSize);
+            double[] mdl;
+            try {
+                mdl = futures.get(b).get();
+            } catch (ExecutionException e) {
+                // errors of the workers are wrapped in runtime exceptions
+                Throwable cause = e;
+                String fileName = partitionFiles[from].getName()
+                        + (to - from > 1 ? " - " + partitionFiles[to - 1].getName() : "");
+                while(cause.getCause() != null){
+                    cause = cause.getCause();
+                    if(cause instanceof PartitionException) fileName = ((PartitionException) cause).fileName;
+                }
+                throw new Exception(fileName + ": " + cause.getMessage(), cause);
+            }
+            futures.set(b, null);
+            for(int p = from ; p < to ; p++){
+                evaluations[p][0] = partitionFiles[p].getName();
+                evaluations[p][1] = decimalFormat.format(mdl[p - from]);
+                Shared.log(evaluations[p][0] + "\t" + evaluations[p][1]);
+            }
+        }
+        return evaluations;
+    }
+
+    /**
+     * Read and evaluate the partitions of files in [from, to) together
+     * @return description length per partition
+     * @throws Exception
+     */
+    private static double[] evaluate(File[] partitionFiles, int from, int to, CPMapEvaluator evaluator,
+                                     IdMap toNormal, CPMapParameters parameters) throws Exception {
+        int[][] partitions = new int[to - from][];
+        for(int p = from ; p < to ; p++){
+            try {
+                partitions[p - from] = GraphIO.readPartition(partitionFiles[p].getAbsolutePath(), toNormal);
+            } catch (Exception e) {
+                throw new PartitionException(partitionFiles[p].getName(), e);
+            }
+        }
+        return partitions.length == 1 ? new double[]{evaluator.evaluate(partitions[0], parameters)}
+                : evaluator.evaluate(partitions, parameters);
+    }
+
+    /**
+     * Error of reading a partition file of a block
+     */
+    private static class PartitionException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private String fileName;
+
+        private PartitionException(String fileName, Throwable cause){
+            super(cause);
+            this.fileName = fileName;
+        }
+    }
+
     /**
      * Return the list of available argument objects to be passed to the program
      * @return
@@ -182,6 +334,13 @@ public class MDL extends AbstractOperation{
                         + "Rosvall-Bergstrom method. Leads to a more reliable detection."
                         + " Default value is " + REFINE_COUNT_DEFAULT)
                 .hasArg().argName("refineCount").type(Float.class).build();
+        Option refineMethod = Option.builder()
+                .longOpt(REFINE_METHOD)
+                .desc("Refinement method: " + String.join(", ", CPMParameters.REFINE_NAMES)
+                        + ". 'leiden' refines groups into connected sub-groups before each folding"
+                        + " and repeats the detection " + REFINE_COUNT + " times from the last partition"
+                        + ". Default value is " + REFINE_METHOD_DEFAULT)
+                .hasArg().argName("method").build();
         Option threadCount = Option.builder()
                 .longOpt(THREAD_COUNT)
                 .desc("Number of threads used for parallel computations. Default value is "
@@ -192,13 +351,58 @@ public class MDL extends AbstractOperation{
                 .desc("Integer random seed for reproducibility (deterministic results). Default value is "
                         + RANDOM_SEED_DEFAULT)
                 .hasArg().argName("randomSeed").type(Integer.class).build();
+        Option localMoving = Option.builder()
+                .longOpt(LOCAL_MOVING)
+                .desc("Local moving of nodes: " + String.join(", ", CPMParameters.MOVE_NAMES)
+                        + ". 'async' moves nodes of a graph concurrently on multiple threads"
+                        + ", 'colored' does so deterministically for a given seed whatever the thread count"
+                        + ", 'queue' only re-visits the nodes whose neighborhood has changed"
+                        + ". Default value is " + LOCAL_MOVING_DEFAULT)
+                .hasArg().argName("mode").build();
+        Option warmStart = Option.builder()
+                .longOpt(WARM_START)
+                .desc("Start the detection of each resolution from the partition of the nearest"
+                        + " evaluated resolution instead of singletons, and its stationary distribution"
+                        + " from the nearest distribution, for a faster resolution search")
+                .build();
+        Option aitken = Option.builder()
+                .longOpt(AITKEN)
+                .desc("Accelerate the stationary distribution iterations by Aitken extrapolation")
+                .build();
+        Option stationaryTolerance = Option.builder()
+                .longOpt(STATIONARY_TOLERANCE)
+                .desc("Stationary distribution iterations stop when the distance of two consecutive"
+                        + " distributions is not more than this value. Default value is "
+                        + STATIONARY_TOLERANCE_DEFAULT)
+                .hasArg().argName("tolerance").type(Double.class).build();
+        Option stationaryNorm = Option.builder()
+                .longOpt(STATIONARY_NORM)
+                .desc("Norm of the distance of two consecutive stationary distributions: "
+                        + String.join(", ", Stationary.NORM_NAMES)
+                        + ". Default value is " + STATIONARY_NORM_DEFAULT)
+                .hasArg().argName("norm").build();
+        Option stationaryIterations = Option.builder()
+                .longOpt(STATIONARY_ITERATIONS)
+                .desc("Maximum number of stationary distribution iterations, a distribution not converged"
+                        + " by then is reported in the verbose log. Default value is "
+                        + STATIONARY_ITERATIONS_DEFAULT)
+                .hasArg().argName("iterations").type(Integer.class).build();
+        Option search = Option.builder()
+                .longOpt(SEARCH)
+                .desc("Resolution search strategy: " + String.join(", ", CPMapParameters.SEARCH_NAMES)
+                        + ". 'golden' needs fewer evaluations assuming a single best resolution in the interval"
+                        + ", 'log-scan' scans the interval in log-scale then refines around the best resolution"
+                        + ". Default value is " + SEARCH_DEFAULT)
+                .hasArg().argName("strategy").build();
         Option help = Option.builder(OperationCenter.HELP)
                 .longOpt("help")
                 .desc("List of options for community detection and evaluation").build();
         Options options = OperationCenter.getSharedOptions();
         options.addOption(resolution).addOption(interval)
                 .addOption(accuracy).addOption(threadCount)
-                .addOption(refineCount).addOption(randomSeed)
+                .addOption(refineCount).addOption(refineMethod).addOption(randomSeed).addOption(localMoving)
+                .addOption(warmStart).addOption(search).addOption(aitken)
+                .addOption(stationaryTolerance).addOption(stationaryNorm).addOption(stationaryIterations)
                 .addOption(help).addOption(teleport);
         return options;
     }
@@ -8,6 +8,7 @@ import network.core.ListMatrix;
 import org.apache.commons.cli.*;
 
 import java.io.File;
+import java.io.IOException;
 
 public class PreProcess extends AbstractOperation{
 
@@ -17,6 +18,8 @@ public class PreProcess extends AbstractOperation{
     public static final String OUTPUT_PARTITION = "p"; // output the partition of cc or lcc
     public static final String OUTPUT_GRAPH = "n"; // output the graph[s] of cc or lcc
     public static final String OUTPUT_PREFIX = "output-prefix"; // output files prefix
+    public static final String TO_BINARY = "to-binary"; // output the graph as a binary file
+    public static final String BINARY_FILE = "graph.bin";
 
     @Override
     public void parseOptions(String[] args) {
@@ -38,12 +41,15 @@ public class PreProcess extends AbstractOperation{
                 throw new ParseException(OperationCenter.ERR_OUTPUT_DIRECTORY);
             }
             String[] filter = line.getOptionValues(FILTER);
-            float lowerBound = filter[0] != null ? Float.parseFloat(filter[0]) : Float.NEGATIVE_INFINITY;
-            float upperBound = filter[1] != null ? Float.parseFloat(filter[1]) : Float.POSITIVE_INFINITY;
+            float lowerBound = filter != null && filter[0] != null ?
+                    Float.parseFloat(filter[0]) : Float.NEGATIVE_INFINITY;
+            float upperBound = filter != null && filter[1] != null ?
+                    Float.parseFloat(filter[1]) : Float.POSITIVE_INFINITY;
             boolean outputCCs = line.hasOption(CONNECTED_COMPONENTS);
             boolean outputLargestCC = line.hasOption(LARGEST_CC);
             boolean outputPartition = line.hasOption(OUTPUT_PARTITION);
             boolean outputGraph = line.hasOption(OUTPUT_GRAPH);
+            boolean outputBinary = line.hasOption(TO_BINARY);
             boolean isDirected = line.hasOption(OperationCenter.DIRECTED);
             String outputPrefix = line.getOptionValue(OUTPUT_PREFIX, "");
             Shared.setVerbose(line.hasOption(OperationCenter.VERBOSE));
@@ -60,6 +66,15 @@ public class PreProcess extends AbstractOperation{
             if(lowerBound > Float.NEGATIVE_INFINITY || upperBound < Float.POSITIVE_INFINITY){
                 graph = graph.filter(lowerBound, upperBound);
             }
+            // Write the normalized sorted graph for fast loading by later operations
+            if(outputBinary){
+                try {
+                    GraphIO.writeBinaryGraph(graph, output + outputPrefix + BINARY_FILE);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+            }
             ConnectedComponents connectedComponents = new ConnectedComponents(graph).find();
             // Extract the connected components
             if(outputCCs){
@@ -118,13 +133,16 @@ public class PreProcess extends AbstractOperation{
                 .longOpt("output-partition").desc("output the partitions").build();
         Option outputGraph = Option.builder(OUTPUT_GRAPH)
                 .longOpt("output-graph").desc("output the graph[s] of components").build();
+        Option toBinary = Option.builder()
+                .longOpt(TO_BINARY).desc("output the (filtered) graph as " + BINARY_FILE
+                        + " binary file, which is loaded faster than edge lists as an input graph").build();
         Option help = Option.builder(OperationCenter.HELP)
                 .longOpt("help")
                 .desc("List of options for graph pre-processing").build();
         Options options = OperationCenter.getSharedOptions();
         options.addOption(outputPrefix).addOption(filter).addOption(connectedComponents)
                 .addOption(largestCC).addOption(outputPartition).addOption(outputGraph)
-                .addOption(help);
+                .addOption(toBinary).addOption(help);
         return options;
     }
 
@@ -1,6 +1,6 @@
 package network.core;
 
-import cern.colt.map.OpenIntIntHashMap;
+import network.utils.IdMap;
 
 abstract public class AbstractMatrix {
     /**
@@ -12,7 +12,7 @@ abstract public class AbstractMatrix {
     public AbstractMatrix[] decompose(int[] partition){
         return null;
     }
-    public SparseMatrix[] decompose(int[] partition, OpenIntIntHashMap[] mapToNormal){return null;}
+    public SparseMatrix[] decompose(int[] partition, IdMap[] mapToNormal){return null;}
     public AbstractMatrix fold(int[] partition){
         return null;
     }
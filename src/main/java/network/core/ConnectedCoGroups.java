@@ -19,7 +19,7 @@ public class ConnectedCoGroups extends ConnectedComponents {
      * Neighbor nodes are considered connected if reside in the same group
      * @param nodeId
      * @param neighborId id of neighbor node
-     * @param neighborIndex index of neighbor in the sparse array of nodeId
+     * @param neighborIndex index of neighbor in the sparse arrays of graph
      * @return
      */
     @Override
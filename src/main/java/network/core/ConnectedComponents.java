@@ -62,16 +62,18 @@ public class ConnectedComponents {
     }
 
     private void markNeighbors(int nodeId){
-        int[] neighbors = graph.getColumns(nodeId);
+        int[] neighbors = graph.getSparseColumns();
+        int start = graph.getRowStart(nodeId);
+        int end = graph.getRowEnd(nodeId);
         int componentId = components[nodeId];
         /*
          * Data structure for keeping track of visited neighbors, and cleaning visits
          * for breadth first marking
          */
-        int[] neighborQueue = new int[neighbors.length];
+        int[] neighborQueue = new int[end - start];
         int queueHead = 0;
         // Mark neighbors
-        for(int neighborIndex = 0 ; neighborIndex < neighbors.length ; neighborIndex++){
+        for(int neighborIndex = start ; neighborIndex < end ; neighborIndex++){
             int neighborId = neighbors[neighborIndex];
             if(components[neighborId] == -1 && isConnected(nodeId, neighborId, neighborIndex)){
                 components[neighborId] = componentId;
@@ -88,7 +90,7 @@ public class ConnectedComponents {
      * Connectedness can be specified here, other than having a link in between
      * @param nodeId
      * @param neighborId id of neighbor node
-     * @param neighborIndex index of neighbor in the sparse array of nodeId
+     * @param neighborIndex index of neighbor in the sparse arrays of graph
      */
     protected boolean isConnected(int nodeId, int neighborId, int neighborIndex){
         return true;
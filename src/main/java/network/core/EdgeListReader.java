@@ -0,0 +1,434 @@
+package network.core;
+
+import cern.colt.list.FloatArrayList;
+import cern.colt.list.IntArrayList;
+import network.utils.MultiRunnable;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Parses edge list lines of "sourceId targetId" or "sourceId targetId weight" format
+ * directly from raw bytes into primitive lists,
+ * empty lines and lines starting with a non-numeric token (comments) are skipped,
+ * large files can be memory-mapped and parsed as line-aligned chunks in parallel
+ */
+public class EdgeListReader implements Runnable {
+
+    /**
+     * Default number of bytes read from file per call
+     */
+    public static final int BUFFER_SIZE = 1 << 22;
+
+    /**
+     * Weight of edges given as "sourceId targetId"
+     */
+    public static final float DEFAULT_WEIGHT = 1;
+
+    /**
+     * Maximum number of bytes mapped per chunk in parallel reading
+     */
+    public static final int MAX_CHUNK_SIZE = 1 << 30;
+
+    /**
+     * Maximum number of tokens a line is checked for
+     */
+    private static final int MAX_TOKENS = 4;
+
+    /**
+     * Powers of ten exactly representable as double
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private IntArrayList rows;
+    private IntArrayList columns;
+    private FloatArrayList values;
+
+    /**
+     * Number of lines parsed so far, used for error reporting
+     */
+    private int lineCount;
+
+    /**
+     * Start and end (exclusive) position of tokens of the current line
+     */
+    private int[] tokenStarts = new int[MAX_TOKENS];
+    private int[] tokenEnds = new int[MAX_TOKENS];
+
+    /**
+     * Mapped chunk of file to be parsed when run as a parallel worker
+     */
+    private ByteBuffer chunk;
+
+    /**
+     * Error raised during parsing of the chunk
+     */
+    private Exception error;
+
+    public EdgeListReader(){
+        this(1024);
+    }
+
+    /**
+     * @param initialCapacity expected number of edges
+     */
+    public EdgeListReader(int initialCapacity){
+        rows = new IntArrayList(initialCapacity);
+        columns = new IntArrayList(initialCapacity);
+        values = new FloatArrayList(initialCapacity);
+    }
+
+    /**
+     * Read all edges of the file
+     * @param address
+     * @return
+     * @throws Exception
+     */
+    public EdgeListReader read(String address) throws Exception{
+        try(FileChannel channel = FileChannel.open(Paths.get(address), StandardOpenOption.READ)){
+            ByteBuffer buffer = ByteBuffer.allocate(
+                    (int) Math.max(1, Math.min(BUFFER_SIZE, channel.size())));
+            boolean isEnd = false;
+            while(!isEnd){
+                isEnd = channel.read(buffer) < 0;
+                buffer.flip();
+                // parse the complete lines, the partial last line is kept for the next read
+                int end = isEnd ? buffer.limit() : lastLineEnd(buffer);
+                parse(buffer, 0, end);
+                buffer.position(end);
+                buffer.compact();
+                if(!isEnd && end == 0 && !buffer.hasRemaining()){
+                    // a single line does not fit into the buffer
+                    ByteBuffer larger = ByteBuffer.allocate(2 * buffer.capacity());
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Read all edges of the file by parsing its line-aligned chunks in parallel,
+     * edges are kept in the same order as {@link #read(String)}
+     * @param address
+     * @param threadCount
+     * @return
+     * @throws Exception
+     */
+    public EdgeListReader read(String address, int threadCount) throws Exception{
+        if(threadCount <= 1){
+            return read(address);
+        }
+        EdgeListReader[] readers;
+        try(FileChannel channel = FileChannel.open(Paths.get(address), StandardOpenOption.READ)){
+            long size = channel.size();
+            int chunkCount = (int) Math.max(threadCount, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+            // Move the even chunk boundaries forward to the start of next line
+            long[] boundaries = new long[chunkCount + 1];
+            boundaries[chunkCount] = size;
+            for(int c = 1 ; c < chunkCount ; c++){
+                long position = Math.max(boundaries[c - 1], size / chunkCount * c);
+                boundaries[c] = nextLineStart(channel, position, size);
+            }
+            // Each thread parses a sequence of chunks, one reader per chunk
+            readers = new EdgeListReader[chunkCount];
+            MultiRunnable[] workers = new MultiRunnable[threadCount];
+            for(int t = 0 ; t < threadCount ; t++){
+                workers[t] = new MultiRunnable();
+            }
+            for(int c = 0 ; c < chunkCount ; c++){
+                long chunkSize = boundaries[c + 1] - boundaries[c];
+                readers[c] = new EdgeListReader((int) Math.max(1024, chunkSize / 16));
+                if(chunkSize > 0){
+                    readers[c].chunk = channel.map(FileChannel.MapMode.READ_ONLY, boundaries[c], chunkSize);
+                    workers[c % threadCount].add(readers[c]);
+                }
+            }
+            Thread[] threads = new Thread[threadCount];
+            for(int t = 0 ; t < threadCount ; t++){
+                threads[t] = new Thread(workers[t], "EdgeListReader " + t);
+                threads[t].start();
+            }
+            for(Thread thread : threads){
+                thread.join();
+            }
+        }
+        // Line number of a chunk error is relative to the chunk,
+        // so the file is read serially to report the error line
+        for(EdgeListReader reader : readers){
+            if(reader.error != null){
+                return read(address);
+            }
+        }
+        // Concatenate the edges of chunks in order, based on prefix sum of their sizes
+        int[] offsets = new int[readers.length + 1];
+        for(int c = 0 ; c < readers.length ; c++){
+            offsets[c + 1] = offsets[c] + readers[c].getEdgeCount();
+        }
+        int[] allRows = new int[offsets[readers.length]];
+        int[] allColumns = new int[allRows.length];
+        float[] allValues = new float[allRows.length];
+        for(int c = 0 ; c < readers.length ; c++){
+            int count = readers[c].getEdgeCount();
+            System.arraycopy(readers[c].rows.elements(), 0, allRows, offsets[c], count);
+            System.arraycopy(readers[c].columns.elements(), 0, allColumns, offsets[c], count);
+            System.arraycopy(readers[c].values.elements(), 0, allValues, offsets[c], count);
+            lineCount += readers[c].lineCount;
+            readers[c] = null; // release the chunk edges
+        }
+        rows = new IntArrayList(allRows);
+        columns = new IntArrayList(allColumns);
+        values = new FloatArrayList(allValues);
+        return this;
+    }
+
+    /**
+     * Parse the mapped chunk as a parallel worker
+     */
+    @Override
+    public void run() {
+        try {
+            parse(chunk, 0, chunk.limit());
+        } catch (Exception exp) {
+            error = exp;
+        }
+        chunk = null;
+    }
+
+    /**
+     * Parse the lines placed in [start, end) of the buffer
+     * @param buffer
+     * @param start position of the first byte of a line
+     * @param end position after the last byte to parse
+     * @return
+     * @throws Exception
+     */
+    public EdgeListReader parse(ByteBuffer buffer, int start, int end) throws Exception{
+        int lineStart = start;
+        while(lineStart < end){
+            int lineEnd = lineStart;
+            while(lineEnd < end && buffer.get(lineEnd) != '\n'){
+                lineEnd++;
+            }
+            lineCount++;
+            parseLine(buffer, lineStart, lineEnd);
+            lineStart = lineEnd + 1;
+        }
+        return this;
+    }
+
+    /**
+     * Parse one line and add its edge if any
+     * @param buffer
+     * @param start
+     * @param end
+     * @throws Exception
+     */
+    private void parseLine(ByteBuffer buffer, int start, int end) throws Exception{
+        int tokenCount = 0;
+        int p = skipSpaces(buffer, start, end);
+        while(p < end && tokenCount < MAX_TOKENS){
+            tokenStarts[tokenCount] = p;
+            while(p < end && !isSpace(buffer.get(p))){
+                p++;
+            }
+            tokenEnds[tokenCount++] = p;
+            p = skipSpaces(buffer, p, end);
+        }
+        if(tokenCount == 0 || !isNumber(buffer, tokenStarts[0], tokenEnds[0])){
+            return; // line is ignored as it may contain comments
+        }
+        if(tokenCount != 2 && tokenCount != 3){
+            throw lineError();
+        }
+        rows.add(parseInt(buffer, tokenStarts[0], tokenEnds[0]));
+        columns.add(parseInt(buffer, tokenStarts[1], tokenEnds[1]));
+        values.add(tokenCount == 3 ?
+                parseFloat(buffer, tokenStarts[2], tokenEnds[2]) : DEFAULT_WEIGHT);
+    }
+
+    /**
+     * Parse an integer token
+     * @param buffer
+     * @param start
+     * @param end
+     * @return
+     * @throws Exception
+     */
+    private int parseInt(ByteBuffer buffer, int start, int end) throws Exception{
+        boolean isNegative = buffer.get(start) == '-';
+        int p = isNegative || buffer.get(start) == '+' ? start + 1 : start;
+        if(p == end){
+            throw lineError();
+        }
+        long value = 0;
+        for(; p < end ; p++){
+            int digit = buffer.get(p) - '0';
+            if(digit < 0 || digit > 9){
+                throw lineError();
+            }
+            value = 10 * value + digit;
+            if(value > Integer.MAX_VALUE + 1L){
+                throw lineError();
+            }
+        }
+        value = isNegative ? -value : value;
+        if(value > Integer.MAX_VALUE){
+            throw lineError();
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parse a decimal token with optional fraction and exponent,
+     * tokens that are not exactly computable from their digits are parsed by Float.parseFloat
+     * @param buffer
+     * @param start
+     * @param end
+     * @return
+     * @throws Exception
+     */
+    private float parseFloat(ByteBuffer buffer, int start, int end) throws Exception{
+        boolean isNegative = buffer.get(start) == '-';
+        int p = isNegative || buffer.get(start) == '+' ? start + 1 : start;
+        long mantissa = 0;
+        int digitCount = 0; // significant digits gathered in mantissa
+        int exponent = 0;
+        boolean hasDigit = false;
+        boolean isExact = true;
+        for(boolean isFraction = false ; p < end ; p++){
+            byte character = buffer.get(p);
+            if(character >= '0' && character <= '9'){
+                hasDigit = true;
+                if(mantissa == 0 && character == '0'){
+                    if(isFraction) exponent--; // leading zeros are not significant
+                    continue;
+                }
+                if(digitCount < 15){ // 15 digits are exactly representable as double
+                    mantissa = 10 * mantissa + (character - '0');
+                    digitCount++;
+                    if(isFraction) exponent--;
+                }else{
+                    isExact = false;
+                    break;
+                }
+            }else if(character == '.' && !isFraction){
+                isFraction = true;
+            }else if((character == 'e' || character == 'E') && hasDigit){
+                int exponentStart = p + 1;
+                if(exponentStart < end && buffer.get(exponentStart) == '+'){
+                    exponentStart++;
+                }
+                exponent += parseInt(buffer, exponentStart, end);
+                p = end;
+                break;
+            }else{
+                isExact = false;
+                break;
+            }
+        }
+        if(isExact && hasDigit && Math.abs(exponent) < POWERS_OF_TEN.length){
+            double value = exponent < 0 ?
+                    mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return (float) (isNegative ? -value : value);
+        }
+        try{
+            byte[] token = new byte[end - start];
+            for(int t = 0 ; t < token.length ; t++){
+                token[t] = buffer.get(start + t);
+            }
+            return Float.parseFloat(new String(token, StandardCharsets.US_ASCII));
+        }catch (NumberFormatException exp){
+            throw lineError();
+        }
+    }
+
+    /**
+     * Whether the token starts like a number: optional sign, then a digit or '.'
+     */
+    private static boolean isNumber(ByteBuffer buffer, int start, int end){
+        byte character = buffer.get(start);
+        if((character == '-' || character == '+') && start + 1 < end){
+            character = buffer.get(start + 1);
+        }
+        return (character >= '0' && character <= '9') || character == '.';
+    }
+
+    private static boolean isSpace(byte character){
+        return character == ' ' || character == '\t' || character == '\r';
+    }
+
+    private static int skipSpaces(ByteBuffer buffer, int start, int end){
+        while(start < end && isSpace(buffer.get(start))){
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * Position of the first line starting at or after the given position of file
+     */
+    private static long nextLineStart(FileChannel channel, long position, long size) throws Exception{
+        if(position <= 0) return 0;
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        // position is a line start if the previous byte ends a line
+        for(long p = position - 1 ; p < size ; ){
+            buffer.clear();
+            int read = channel.read(buffer, p);
+            if(read <= 0) break;
+            for(int i = 0 ; i < read ; i++){
+                if(buffer.get(i) == '\n'){
+                    return p + i + 1;
+                }
+            }
+            p += read;
+        }
+        return size;
+    }
+
+    /**
+     * Position after the last '\n' of the buffer, 0 if there is no complete line
+     */
+    private static int lastLineEnd(ByteBuffer buffer){
+        for(int p = buffer.limit() - 1 ; p >= 0 ; p--){
+            if(buffer.get(p) == '\n'){
+                return p + 1;
+            }
+        }
+        return 0;
+    }
+
+    private Exception lineError(){
+        return new Exception("Error at line " + lineCount
+                + ". Each line must contain 'sourceId targetId' " +
+                "or 'sourceId targetId weight'");
+    }
+
+    /**
+     * Get the list of parsed edges
+     * @param isIdShared
+     * @return
+     */
+    public ListMatrix getListMatrix(boolean isIdShared){
+        rows.trimToSize();
+        columns.trimToSize();
+        values.trimToSize();
+        return new ListMatrix().init(rows.elements(), columns.elements(), values.elements(), isIdShared);
+    }
+
+    public int getEdgeCount(){
+        return rows.size();
+    }
+
+    public int getLineCount(){
+        return lineCount;
+    }
+}
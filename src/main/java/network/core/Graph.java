@@ -1,6 +1,6 @@
 package network.core;
 
-import cern.colt.map.OpenIntIntHashMap;
+import network.utils.IdMap;
 
 import java.util.Arrays;
 
@@ -40,7 +40,7 @@ public class Graph extends SparseMatrix {
      * @return
      */
     @Override
-    public Graph[] decompose(int[] partition, OpenIntIntHashMap[] mapToNormal){
+    public Graph[] decompose(int[] partition, IdMap[] mapToNormal){
         SparseMatrix[] sparseMatrices = super.decompose(partition, mapToNormal);
         Graph[] subGraphs = new Graph[sparseMatrices.length];
         // Convert array types
@@ -79,7 +79,7 @@ public class Graph extends SparseMatrix {
      */
     @Override
     public Graph fold(int[] partition){
-        Graph folded = new Graph(super.fold(partition));
+        Graph folded = (Graph) new Graph(super.fold(partition)).releaseList();
         if (attributes == null) {
             return folded; // no attributes to aggregate
         }
@@ -101,7 +101,7 @@ public class Graph extends SparseMatrix {
         float[][] attributes = new float[nodeIdRange][attributeCount];
         // Aggregate attribute of nodes into their group node
         // Assumption: superNodes are normalized version of their groupIds in partition
-        OpenIntIntHashMap partToFolded = foldedGraph.getToNormal()[ROW];
+        IdMap partToFolded = foldedGraph.getToNormal()[ROW];
         for(int nodeId = 0 ; nodeId < partition.length ; nodeId++){
             int foldedNodeId = partToFolded.get(partition[nodeId]);
             for(int attr = 0 ; attr < attributeCount ; attr++){
@@ -115,27 +115,28 @@ public class Graph extends SparseMatrix {
      * @return
      */
     public Graph getTransitionProbability(){
-        float[][] probabilities = new float[sparseValues.length][];
-        for(int nodeId = 0 ; nodeId < sparseValues.length ; nodeId++){
-            int[] neighbors = columnIndices[nodeId];
-            probabilities[nodeId] = new float[neighbors.length];
+        float[] probabilities = new float[sparseValues.length];
+        for(int nodeId = 0 ; nodeId < rowOffsets.length - 1 ; nodeId++){
+            int start = rowOffsets[nodeId], end = rowOffsets[nodeId + 1];
             float totalOutLink = 0;
-            for(int n = 0 ; n < neighbors.length ; n++){
-                float value = sparseValues[nodeId][n];
+            for(int p = start ; p < end ; p++){
+                float value = sparseValues[p];
                 if(value > 0) {
                     totalOutLink += value;
                 }
             }
-            for(int n = 0 ; n < neighbors.length ; n++){
-                float value = sparseValues[nodeId][n];
+            for(int p = start ; p < end ; p++){
+                float value = sparseValues[p];
                 if(value > 0) {
-                    probabilities[nodeId][n] = value / totalOutLink;
+                    probabilities[p] = value / totalOutLink;
                 }else if(value < 0){
-                    probabilities[nodeId][n] = 0;
+                    probabilities[p] = 0;
                 }
             }
         }
-        Graph tGraph = clone();
+        // share the sparse rows of graph, and keep the probabilities only in sparse values
+        Graph tGraph = new Graph(this);
+        tGraph.releaseList();
         tGraph.sparseValues = probabilities;
         return tGraph;
     }
@@ -149,6 +150,7 @@ public class Graph extends SparseMatrix {
      */
     public Graph filter(float lowerBound, float upperBound){
         Graph graph = new Graph(super.filter(lowerBound, upperBound));
+        graph.releaseList();
         graph.setAttributes(cloneAttributes());
         return graph;
     }
@@ -170,7 +172,7 @@ public class Graph extends SparseMatrix {
     }
 
     public int getEdgeCount(){
-        return isEmpty() ? 0 : getRows().length;
+        return isEmpty() ? 0 : getCellCount();
     }
 
     public Graph setAttributes(float[][] attributes) {
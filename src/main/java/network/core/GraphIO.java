@@ -1,25 +1,83 @@
 package network.core;
 
-import cern.colt.map.OpenIntIntHashMap;
+import network.utils.IdMap;
 import network.Shared;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Scanner;
 import java.util.StringTokenizer;
 
 public class GraphIO {
 
+    /**
+     * Files larger than this number of bytes are read in parallel chunks
+     */
+    public static final long PARALLEL_READ_THRESHOLD = 1 << 26;
+
+    /**
+     * First bytes of a binary graph file ("SIGB")
+     */
+    public static final int BINARY_MAGIC = 0x53494742;
+
+    /**
+     * Version of the binary graph layout, incremented on any layout change
+     */
+    public static final int BINARY_VERSION = 1;
+
+    /**
+     * Flags of binary graph header
+     */
+    public static final int BINARY_SYMMETRIC = 1;
+    public static final int BINARY_UNIQUE = 2;
+
+    /**
+     * Bytes of binary header: magic, version, flags, node count, edge count
+     */
+    private static final int BINARY_HEADER_SIZE = 5 * 4;
+
+    /**
+     * Maximum number of bytes mapped at once when loading a binary graph
+     */
+    private static final int BINARY_MAP_SIZE = 1 << 30;
 
     public static Graph readGraph(String address, boolean symmetric) throws Exception{
-        ListMatrix listMatrix = readListMatrix(address, symmetric);
+        return readGraph(address, symmetric, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Read the graph, files larger than {@link #PARALLEL_READ_THRESHOLD} are read in parallel
+     * @param address
+     * @param symmetric
+     * @param threadCount
+     * @return
+     * @throws Exception
+     */
+    public static Graph readGraph(String address, boolean symmetric, int threadCount) throws Exception{
+        if(isBinaryGraph(address)){
+            Graph graph = readBinaryGraph(address);
+            if(symmetric && !isBinarySymmetric(address)){
+                // binary graph has been written without symmetrization
+                return (Graph) new Graph(graph.symmetrize().sort().normalizeKeepRawIds(false))
+                        .releaseList();
+            }
+            return graph;
+        }
+        ListMatrix listMatrix = readListMatrix(address, symmetric, threadCount);
         // Normalizing without sorting causes [3, 1, 2] to be mapped to [0, 1, 2]
         // But after sorting: [1, 2, 3] -> [0, 1, 2] easier to track and test
-        return (Graph) new Graph(listMatrix.sort().normalize());
+        // Sorted cells are kept once in sparse rows of the graph
+        return (Graph) new Graph(listMatrix.sort(true, ListMatrix.MODE_NOT_CLONE, threadCount)
+                .normalize()).releaseList();
     }
 
     /**
@@ -28,44 +86,194 @@ public class GraphIO {
      * @return
      */
     public static ListMatrix readListMatrix(String address, boolean symmetric) throws Exception{
-        FileInputStream fis = new FileInputStream(address);
-        Scanner scanner = new Scanner(fis);
-        ArrayList<Integer> inputRows = new ArrayList<>();
-        ArrayList<Integer> inputColumns = new ArrayList<>();
-        ArrayList<Float> inputValues = new ArrayList<>();
-        int lineCount = 0;
-        while(scanner.hasNextLine()){
-            String line = scanner.nextLine();
-            lineCount++;
-            StringTokenizer tkn = new StringTokenizer(line," \t");
-            int tokenCount = tkn.countTokens();
-            if (tokenCount == 2) {
-                inputRows.add(Integer.parseInt(tkn.nextToken()));
-                inputColumns.add(Integer.parseInt(tkn.nextToken()));
-            } else if (tokenCount == 3) {
-                inputRows.add(Integer.parseInt(tkn.nextToken()));
-                inputColumns.add(Integer.parseInt(tkn.nextToken()));
-                inputValues.add(Float.parseFloat(tkn.nextToken()));
-            }else if(Util.isNumber(tkn.nextToken())){
-                throw new Exception("Error at line " + lineCount
-                        + ". Each line must contain 'sourceId targetId' " +
-                        "or 'sourceId targetId weight'");
-            }
-            // Otherwise line is ignored as it may contain comments
-        }
-        int[] rows = new int[inputRows.size()];
-        int[] columns = new int[inputRows.size()];
-        float[] values = new float[inputRows.size()];
-        for(int p = 0 ; p < rows.length ; p++){
-            rows[p] = inputRows.get(p);
-            columns[p] = inputColumns.get(p);
-            values[p] = inputValues.get(p);
-        }
-        ListMatrix listMatrix = new ListMatrix().init(rows, columns, values, true);
-        Shared.log(inputRows.size() + " links have been read");
+        return readListMatrix(address, symmetric, 1);
+    }
+
+    /**
+     * Read edge list with "row column  value" format in each line,
+     * files larger than {@link #PARALLEL_READ_THRESHOLD} are memory-mapped and read in parallel
+     * @param address
+     * @param symmetric
+     * @param threadCount
+     * @return
+     * @throws Exception
+     */
+    public static ListMatrix readListMatrix(String address, boolean symmetric, int threadCount)
+            throws Exception{
+        long startTime = System.currentTimeMillis();
+        EdgeListReader reader = new EdgeListReader();
+        if(threadCount > 1 && new File(address).length() > PARALLEL_READ_THRESHOLD){
+            reader.read(address, threadCount);
+        }else{
+            reader.read(address);
+        }
+        ListMatrix listMatrix = reader.getListMatrix(true);
+        double seconds = Math.max(System.currentTimeMillis() - startTime, 1) / 1000.0;
+        Shared.log(reader.getEdgeCount() + " links have been read in " + seconds + " sec ("
+                + (long) (reader.getEdgeCount() / seconds) + " links/sec)");
         return symmetric ? listMatrix.symmetrize() : listMatrix;
     }
 
+    /**
+     * Whether the file starts with the binary graph header
+     * @param address
+     * @return
+     * @throws IOException
+     */
+    public static boolean isBinaryGraph(String address) throws IOException{
+        try(FileChannel channel = FileChannel.open(Paths.get(address), StandardOpenOption.READ)){
+            if(channel.size() < BINARY_HEADER_SIZE) return false;
+            ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            return header.getInt(0) == BINARY_MAGIC;
+        }
+    }
+
+    /**
+     * Whether the binary graph has been symmetrized before being written
+     * @param address
+     * @return
+     * @throws IOException
+     */
+    private static boolean isBinarySymmetric(String address) throws IOException{
+        try(FileChannel channel = FileChannel.open(Paths.get(address), StandardOpenOption.READ)){
+            ByteBuffer header = ByteBuffer.allocate(BINARY_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            return (header.getInt(8) & BINARY_SYMMETRIC) != 0;
+        }
+    }
+
+    /**
+     * Load a graph written by {@link #writeBinaryGraph(Graph, String, boolean)}
+     * directly into sparse rows by memory mapping, no sort or normalization is required
+     * @param address
+     * @return
+     * @throws Exception
+     */
+    public static Graph readBinaryGraph(String address) throws Exception{
+        long startTime = System.currentTimeMillis();
+        Graph graph;
+        try(FileChannel channel = FileChannel.open(Paths.get(address), StandardOpenOption.READ)){
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BINARY_HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if(header.getInt() != BINARY_MAGIC){
+                throw new Exception(address + " is not a binary graph");
+            }
+            int version = header.getInt();
+            if(version != BINARY_VERSION){
+                throw new Exception("Binary graph version " + version
+                        + " is not supported, expected version " + BINARY_VERSION);
+            }
+            int flags = header.getInt();
+            int nodeCount = header.getInt();
+            int edgeCount = header.getInt();
+            long position = BINARY_HEADER_SIZE;
+            int[] toRaw = new int[nodeCount];
+            position = mapInts(channel, position, toRaw);
+            int[] rowOffsets = new int[nodeCount + 1];
+            position = mapInts(channel, position, rowOffsets);
+            int[] columns = new int[edgeCount];
+            position = mapInts(channel, position, columns);
+            float[] values = new float[edgeCount];
+            position = mapFloats(channel, position, values);
+            if(position != channel.size() || rowOffsets[nodeCount] != edgeCount){
+                throw new Exception(address + " is not a complete binary graph");
+            }
+            graph = (Graph) new Graph().init(rowOffsets, columns, values, toRaw,
+                    (flags & BINARY_UNIQUE) != 0);
+            graph.setSymmetric((flags & BINARY_SYMMETRIC) != 0);
+        }
+        double seconds = Math.max(System.currentTimeMillis() - startTime, 1) / 1000.0;
+        Shared.log(graph.getEdgeCount() + " links have been loaded from binary graph in "
+                + seconds + " sec");
+        return graph;
+    }
+
+    /**
+     * Write the sparse rows and raw ids of a normalized graph
+     * as a binary file loadable by {@link #readBinaryGraph(String)},
+     * all numbers are little-endian: header (magic, version, flags, node count N, edge count E),
+     * toRaw[N], rowOffsets[N + 1], columns[E], values[E]
+     * @param graph normalized graph, its symmetric flag is kept for the loaded graph
+     * @param address
+     * @throws IOException
+     */
+    public static void writeBinaryGraph(Graph graph, String address) throws IOException{
+        int[] rowOffsets = graph.isEmpty() ? new int[1] : graph.getRowOffsets();
+        int[] columns = graph.isEmpty() ? new int[0] : graph.getSparseColumns();
+        float[] values = graph.isEmpty() ? new float[0] : graph.getSparseValues();
+        // Node ids are counted by the sparse rows, not by the raw ids kept after a filter,
+        // ids only seen as columns (no out-links) get empty rows
+        int nodeCount = rowOffsets.length - 1;
+        for(int column : columns){
+            nodeCount = Math.max(nodeCount, column + 1);
+        }
+        if(nodeCount + 1 > rowOffsets.length){
+            int rowIdRange = rowOffsets.length;
+            rowOffsets = Arrays.copyOf(rowOffsets, nodeCount + 1);
+            Arrays.fill(rowOffsets, rowIdRange, nodeCount + 1, rowOffsets[rowIdRange - 1]);
+        }
+        int[] toRaw = graph.isEmpty() ? new int[0] : Arrays.copyOf(graph.getToRaw()[ListMatrix.ROW], nodeCount);
+        boolean isSymmetric = graph.isSymmetric();
+        int flags = (isSymmetric ? BINARY_SYMMETRIC : 0) | (graph.isUnique() ? BINARY_UNIQUE : 0);
+        try(FileChannel channel = FileChannel.open(Paths.get(address), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer buffer = ByteBuffer.allocateDirect(EdgeListReader.BUFFER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(BINARY_MAGIC).putInt(BINARY_VERSION).putInt(flags)
+                    .putInt(nodeCount).putInt(columns.length);
+            for(int[] array : new int[][]{toRaw, rowOffsets, columns}){
+                for(int value : array){
+                    if(!buffer.hasRemaining()) flush(channel, buffer);
+                    buffer.putInt(value);
+                }
+            }
+            for(float value : values){
+                if(!buffer.hasRemaining()) flush(channel, buffer);
+                buffer.putFloat(value);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException{
+        buffer.flip();
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Fill the array with ints mapped from the given position of file
+     * @return position after the array
+     */
+    private static long mapInts(FileChannel channel, long position, int[] array) throws IOException{
+        for(int offset = 0 ; offset < array.length ; ){
+            int length = Math.min(array.length - offset, BINARY_MAP_SIZE / 4);
+            channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * length)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(array, offset, length);
+            offset += length;
+            position += 4L * length;
+        }
+        return position;
+    }
+
+    /**
+     * Fill the array with floats mapped from the given position of file
+     * @return position after the array
+     */
+    private static long mapFloats(FileChannel channel, long position, float[] array) throws IOException{
+        for(int offset = 0 ; offset < array.length ; ){
+            int length = Math.min(array.length - offset, BINARY_MAP_SIZE / 4);
+            channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * length)
+                    .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(array, offset, length);
+            offset += length;
+            position += 4L * length;
+        }
+        return position;
+    }
+
     /**
      * Read a node group assignment based on the normalization map
      * to normalize node ids appropriate for the corresponding nodes of a graph
@@ -74,27 +282,27 @@ public class GraphIO {
      * @return
      * @throws Exception
      */
-    public static int[] readPartition(String address, OpenIntIntHashMap toNormal) throws Exception{
+    public static int[] readPartition(String address, IdMap toNormal) throws Exception{
         int[] partition = Util.initArray(toNormal.size(), -1);
-        FileInputStream fis = new FileInputStream(address);
-        Scanner scanner = new Scanner(fis);
         int lineCount = 0, assigmentCount = 0;
-        while(scanner.hasNextLine()){
-            String line = scanner.nextLine();
-            lineCount++;
-            StringTokenizer tkn = new StringTokenizer(line," \t");
-            int tokenCount = tkn.countTokens();
-            if (tokenCount == 2) {
-                int nodeId = toNormal.get(Integer.parseInt(tkn.nextToken()));
-                int partitionId = Integer.parseInt(tkn.nextToken());
-                if(partition[nodeId] != -1){
-                    throw new Exception("Second group assignment at line " + lineCount);
+        try(Scanner scanner = new Scanner(new FileInputStream(address))){
+            while(scanner.hasNextLine()){
+                String line = scanner.nextLine();
+                lineCount++;
+                StringTokenizer tkn = new StringTokenizer(line," \t");
+                int tokenCount = tkn.countTokens();
+                if (tokenCount == 2) {
+                    int nodeId = toNormal.get(Integer.parseInt(tkn.nextToken()));
+                    int partitionId = Integer.parseInt(tkn.nextToken());
+                    if(partition[nodeId] != -1){
+                        throw new Exception("Second group assignment at line " + lineCount);
+                    }
+                    partition[nodeId] = partitionId;
+                    assigmentCount++;
+                } else if(Util.isNumber(tkn.nextToken())){
+                    throw new Exception("Error at line " + lineCount
+                            + ". Each line must contain 'nodeId groupId'");
                 }
-                partition[nodeId] = partitionId;
-                assigmentCount++;
-            } else if(Util.isNumber(tkn.nextToken())){
-                throw new Exception("Error at line " + lineCount
-                        + ". Each line must contain 'nodeId groupId'");
             }
         }
         if(assigmentCount != partition.length){
@@ -1,12 +1,9 @@
 package network.core;
 
-import cern.colt.list.IntArrayList;
-import network.utils.QuickSort;
-import cern.colt.map.OpenIntIntHashMap;
-
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import network.utils.IdMap;
+import network.utils.LongFloatHashMap;
+import network.utils.LongHashSet;
+import network.utils.RadixSort;
 
 public class ListMatrix extends AbstractMatrix {
 
@@ -24,7 +21,7 @@ public class ListMatrix extends AbstractMatrix {
      * Maps raw id to normalized id
      * maps[0] is for rows and maps[1] is for columns
      */
-    protected OpenIntIntHashMap[] toNormal;
+    protected IdMap[] toNormal;
     /**
      * Maps normalized id to a raw id
      * toRaw[0] is for rows and toRow[1] is for columns
@@ -61,6 +58,12 @@ public class ListMatrix extends AbstractMatrix {
      */
     private boolean isNormalized;
 
+    /**
+     * If value(a, b) = value(b, a) for all cells, e.g. after {@link #symmetrize()},
+     * kept by the operations that preserve the mirror of each cell (sort, normalize, fold, filter, ...)
+     */
+    private boolean isSymmetric;
+
     private int minRowId;
     private int maxRowId;
 
@@ -122,6 +125,7 @@ public class ListMatrix extends AbstractMatrix {
         this.isSorted = list.isSorted;
         this.isUnique = list.isUnique;
         this.sortMode = list.sortMode;
+        this.isSymmetric = list.isSymmetric;
         return this;
     }
     /**
@@ -202,6 +206,39 @@ public class ListMatrix extends AbstractMatrix {
         return init(rowsList, columnsList, valuesList, isIdShared);
     }
 
+    /**
+     * Initialize with compressed sparse rows, zero values are not included
+     * @param rowOffsets cells of row r are placed in [rowOffsets[r], rowOffsets[r + 1])
+     * @param columnIndices column index per cell
+     * @param values value per cell
+     * @return
+     */
+    public ListMatrix init(int[] rowOffsets, int[] columnIndices, float[] values,
+                           boolean isIdShared, boolean isNormalized){
+        int nonZeroCount = 0;
+        for(float value : values){
+            if(value != 0.0){
+                nonZeroCount++;
+            }
+        }
+        int[] rowsList = new int[nonZeroCount];
+        int[] columnsList = new int[nonZeroCount];
+        float[] valuesList = new float[nonZeroCount];
+        int insertAt = 0;
+        for(int r = 0 ; r < rowOffsets.length - 1 ; r++){
+            for(int p = rowOffsets[r] ; p < rowOffsets[r + 1] ; p++){
+                float value = values[p];
+                if(value != 0.0){
+                    rowsList[insertAt] = r;
+                    columnsList[insertAt] = columnIndices[p];
+                    valuesList[insertAt] = value;
+                    insertAt++;
+                }
+            }
+        }
+        return init(rowsList, columnsList, valuesList, isIdShared);
+    }
+
     /**
      * Return a ListMatrix sorted first by row id and then by column id,
      * with optional removal of duplicate (row, column)s
@@ -210,70 +247,83 @@ public class ListMatrix extends AbstractMatrix {
      * @return
      */
     public ListMatrix sort(boolean isIdAscending, int sortMode){
-        // first sort the rows, then sort columns per row
-        QuickSort qSort = new QuickSort(getRows()).sort(!isIdAscending);
-        int[] indices = qSort.getIndices();
-        qSort.setValues(columns); // now coninue sorting indices based on column values
-        // sort columns per row
-        // traverse the sorted rows to sort the columns per row
+        return sort(isIdAscending, sortMode, 1);
+    }
+
+    /**
+     * Return a ListMatrix sorted first by row id and then by column id,
+     * with optional removal of duplicate (row, column)s,
+     * (row, column)s are radix sorted as one key, and duplicates keep their original order
+     * @param isIdAscending
+     * @param sortMode remove duplicates or not clone the list matrix
+     * @param threadCount number of threads used for sorting large lists
+     * @return
+     */
+    public ListMatrix sort(boolean isIdAscending, int sortMode, int threadCount){
+        boolean clone = sortMode == MODE_CLONE;
+        if(getCellCount() == 0){
+            ListMatrix listMatrix = clone ? clone() : this;
+            return listMatrix.setStatus(true, true, isNormalized(), isIdAscending, sortMode);
+        }
+        int[] rows = getRows();
+        int[] columns = getColumns();
+        float[] values = getValues();
+        // key = (row - minRow, column - minColumn) as unsigned 32 bit halves,
+        // complement of the key reverses the order for descending sort
+        long minRow = Util.min(rows);
+        long minColumn = Util.min(columns);
+        long[] keys = new long[rows.length];
+        for(int p = 0 ; p < rows.length ; p++){
+            long key = ((rows[p] - minRow) << 32) | (columns[p] - minColumn);
+            keys[p] = isIdAscending ? key : ~key;
+        }
+        RadixSort radixSort = new RadixSort(keys).sort(threadCount);
+        keys = radixSort.getKeys();
+        int[] indices = radixSort.getIndices();
         int duplication = 0;
-        for(int start = 0, currentRowId = rows[indices[start]], p = 1; p < rows.length + 1; p++){
-            boolean isRowChanged = p == rows.length || currentRowId != rows[indices[p]];
-            if(isRowChanged){
-                // sort columns of currentRowId that has just been traversed
-                qSort.sort(start, p - 1, !isIdAscending);
-                // check for duplicated (row, column) among currently sorted pairs
-                for(int check = start + 1 ; check < p ; check++){
-                    if(columns[indices[check]] == columns[indices[check - 1]]){
-                        duplication++;
-                    }
-                }
-                start = p;
-                currentRowId = p < rows.length ? rows[indices[p]] : -1;
+        for(int p = 1 ; p < keys.length ; p++){
+            if(keys[p] == keys[p - 1]){
+                duplication++;
             }
         }
         boolean isUnique = duplication == 0;
-        boolean clone = sortMode == MODE_CLONE;
-
-        // Permute the order of lists based on the sorted indices
-        int[] rows = qSort.permute(clone ? getRows().clone() : getRows());
-        int[] columns = qSort.permute(clone ? getColumns().clone() : getColumns());
-        float[] values = qSort.permute(clone ? getValues().clone() : getValues());
-
-        if(isUnique || (sortMode & MODE_REMOVE_DUPLICATE) == 0){
-            if(clone){
-                ListMatrix listMatrix = new ListMatrix().init(rows, columns, values, isIdShared())
-                        .setStatus(true, isUnique, isNormalized(), isIdAscending, sortMode);
-                return listMatrix;
-            }else{
-                setStatus(true, isUnique, isNormalized(), isIdAscending, sortMode);
-                return this;
-            }
-        }
-        // remove/aggregate the duplicated pair
-        int uniqueCount = rows.length - duplication;
-        int[] uRows = new int[uniqueCount];
-        int[] uColumns = new int[uniqueCount];
-        float[] uValues = new float[uniqueCount];
-        int uniqueIndex = 0;
-        for(int p = 0 ; p < rows.length ; p++){
-            int row = rows[p];
-            int column = columns[p];
-            if(p > 0 && row == rows[p - 1] && column == columns[p - 1]){
-                if(sortMode == MODE_AGGREGATE_DUPLICATE){
+        boolean removeDuplicate = !isUnique && (sortMode & MODE_REMOVE_DUPLICATE) != 0;
+        boolean aggregate = sortMode == MODE_AGGREGATE_DUPLICATE;
+        // Gather the sorted cells, duplicates are skipped or aggregated in the same pass
+        int cellCount = removeDuplicate ? rows.length - duplication : rows.length;
+        int[] sRows = new int[cellCount];
+        int[] sColumns = new int[cellCount];
+        float[] sValues = new float[cellCount];
+        int insertAt = 0;
+        for(int p = 0 ; p < keys.length ; p++){
+            if(removeDuplicate && p > 0 && keys[p] == keys[p - 1]){
+                if(aggregate){
                     // aggregate the duplicate value with corresponding values
-                    uValues[uniqueIndex - 1] += values[p];
+                    sValues[insertAt - 1] += values[indices[p]];
                 }
                 continue; // pair is a duplicate
             }
-            uRows[uniqueIndex] = rows[p];
-            uColumns[uniqueIndex] = columns[p];
-            uValues[uniqueIndex] = values[p];
-            uniqueIndex++;
+            long key = isIdAscending ? keys[p] : ~keys[p];
+            sRows[insertAt] = (int) ((key >>> 32) + minRow);
+            sColumns[insertAt] = (int) ((key & 0xFFFFFFFFL) + minColumn);
+            sValues[insertAt] = values[indices[p]];
+            insertAt++;
         }
-        ListMatrix listMatrix = new ListMatrix().init(uRows, uColumns, uValues, isIdShared())
-                .setStatus(true, true, isNormalized(), isIdAscending(), getSortMode());
-        return listMatrix;
+        if(removeDuplicate){
+            return new ListMatrix().init(sRows, sColumns, sValues, isIdShared())
+                    .setStatus(true, true, isNormalized(), isIdAscending, sortMode)
+                    .setSymmetric(isSymmetric());
+        }
+        if(clone){
+            return new ListMatrix().init(sRows, sColumns, sValues, isIdShared())
+                    .setStatus(true, isUnique, isNormalized(), isIdAscending, sortMode)
+                    .setSymmetric(isSymmetric());
+        }
+        // Same cells in sorted order, so id statistics do not change
+        setRows(sRows);
+        setColumns(sColumns);
+        setValues(sValues);
+        return setStatus(true, isUnique, isNormalized(), isIdAscending, sortMode);
     }
 
     /**
@@ -283,19 +333,21 @@ public class ListMatrix extends AbstractMatrix {
      * @param clone
      * @return
      */
-    public ListMatrix normalize(OpenIntIntHashMap[] mapToNormal, int[][] mapToRaw, boolean clone){
+    public ListMatrix normalize(IdMap[] mapToNormal, int[][] mapToRaw, boolean clone){
         if(isEmpty()) return clone ? clone() : this;
-        int[] rows = clone ? new int[getRows().length] : getRows();
-        int[] columns = clone ? new int[getColumns().length] : getColumns();
+        int[] rawRows = getRows();
+        int[] rawColumns = getColumns();
+        int[] rows = clone ? new int[rawRows.length] : rawRows;
+        int[] columns = clone ? new int[rawColumns.length] : rawColumns;
         // Create normalization data structure
-        OpenIntIntHashMap[] toNormal = new OpenIntIntHashMap[2];// for rows and columns
+        IdMap[] toNormal = new IdMap[2];// for rows and columns
         if(mapToNormal == null) {
             if(isIdShared()) {
-                toNormal[ROW] = Util.normalizeIds(getRows(), getColumns());
-                toNormal[COL] = (OpenIntIntHashMap) toNormal[ROW].clone();
+                toNormal[ROW] = Util.normalizeIds(rawRows, rawColumns);
+                toNormal[COL] = toNormal[ROW].clone();
             }else{
-                toNormal[ROW] = Util.normalizeIds(getRows());
-                toNormal[COL] = Util.normalizeIds(getColumns());
+                toNormal[ROW] = Util.normalizeIds(rawRows);
+                toNormal[COL] = Util.normalizeIds(rawColumns);
             }
         }else{
             // cloning maps is generally heavy, do it when change is required
@@ -305,7 +357,7 @@ public class ListMatrix extends AbstractMatrix {
         int maxRowId = Integer.MIN_VALUE;
         // Change row ids from raw to normal
         for(int rowId, p = 0 ; p < rows.length ; p++){
-            rows[p] = rowId = toNormal[ROW].get(getRows()[p]);
+            rows[p] = rowId = toNormal[ROW].get(rawRows[p]);
             if(rowId < minRowId){
                 minRowId = rowId;
             }
@@ -317,7 +369,7 @@ public class ListMatrix extends AbstractMatrix {
         int minColumnId = Integer.MAX_VALUE;
         int maxColumnId = Integer.MIN_VALUE;
         for(int columnId, p = 0 ; p < columns.length ; p++){
-            columns[p] = columnId = toNormal[COL].get(getColumns()[p]);
+            columns[p] = columnId = toNormal[COL].get(rawColumns[p]);
             if(columnId < minColumnId){
                 minColumnId = columnId;
             }
@@ -344,9 +396,9 @@ public class ListMatrix extends AbstractMatrix {
         for(int dim = 0 ; dim < 2 ; dim++){
             final int[] toRawDim = toRaw[dim];
             int maxId = dim == ROW ? maxRowId : maxColumnId;
-            IntArrayList rawIds = toNormal[dim].keys();
-            for(int rawId, i = 0 ; i < rawIds.size() ; i++){
-                rawId = rawIds.get(i);
+            int[] rawIds = toNormal[dim].keys();
+            for(int rawId, i = 0 ; i < rawIds.length ; i++){
+                rawId = rawIds[i];
                 // check if the extracted (raw, normal) pair is present in the list
                 // because toNormal may contain maps out of this graph's scope
                 int normalId = toNormal[dim].get(rawId);
@@ -360,7 +412,8 @@ public class ListMatrix extends AbstractMatrix {
         if(clone){
             return new ListMatrix().init(rows, columns, getValues().clone(), isIdShared())
                     .setMaps(toNormal, toRaw)
-                    .setStatus(isSorted(), isUnique(), true, isIdAscending(), getSortMode());
+                    .setStatus(isSorted(), isUnique(), true, isIdAscending(), getSortMode())
+                    .setSymmetric(isSymmetric());
         }else{
             // Change (min, max) value of row and column ids to normalized values
             this.minRowId = minRowId;
@@ -379,7 +432,7 @@ public class ListMatrix extends AbstractMatrix {
      * @param clone
      * @return
      */
-    public ListMatrix normalizeKeepRawIds(OpenIntIntHashMap[] mapToNormal, boolean clone){
+    public ListMatrix normalizeKeepRawIds(IdMap[] mapToNormal, boolean clone){
         if(isEmpty()) return clone ? new ListMatrix() : this;
         int[][] oldRawIds = getToRaw();
         ListMatrix normalizedList = normalize(mapToNormal, null, clone);
@@ -391,9 +444,7 @@ public class ListMatrix extends AbstractMatrix {
         // thus: 3 <-oldToNormal- 20 <-oldRawId- 3 -toNormal-> 0 -newRawId -> 3
         // We want to map new normalized id 0 <-> 20 instead of 0 <-> 3
         int[][] newRawIds = normalizedList.getToRaw(); // this is always new (no reference)
-        OpenIntIntHashMap[] newNormalIds = new OpenIntIntHashMap[2];
-        newNormalIds[ROW] = new OpenIntIntHashMap(newRawIds[ROW].length);
-        newNormalIds[COL] = new OpenIntIntHashMap(newRawIds[COL].length);
+        IdMap[] newNormalIds = new IdMap[2];
         for(int dim = 0 ; dim < 2 ; dim++){
             int minId = dim == ROW ? normalizedList.getMinRowId() : normalizedList.getMinColumnId();
             int maxId = dim == ROW ? normalizedList.getMaxRowId() : normalizedList.getMaxColumnId();
@@ -401,8 +452,8 @@ public class ListMatrix extends AbstractMatrix {
                 int oldNormalizedId = newRawIds[dim][normalizedId];
                 int oldRawId = oldRawIds[dim][oldNormalizedId];
                 newRawIds[dim][normalizedId] = oldRawId;
-                newNormalIds[dim].put(oldRawId, normalizedId);
             }
+            newNormalIds[dim] = Util.inverse(newRawIds[dim], minId, maxId + 1);
         }
         normalizedList.setToNormal(newNormalIds);
         return normalizedList;
@@ -430,6 +481,8 @@ public class ListMatrix extends AbstractMatrix {
             }
             return null;
         }
+        int[] rows = getRows();
+        int[] columns = getColumns();
         int[] uRows = clone ? new int[rows.length] : rows;
         int[] uColumns = clone ? new int[columns.length] : columns;
         for(int p = 0 ; p < rows.length ; p++){
@@ -438,7 +491,8 @@ public class ListMatrix extends AbstractMatrix {
         }
         ListMatrix unNormalizedList = clone ? new ListMatrix() : this;
         if(clone){
-            unNormalizedList.init(uRows, uColumns, getValues().clone(), isIdShared());
+            unNormalizedList.init(uRows, uColumns, getValues().clone(), isIdShared())
+                    .setSymmetric(isSymmetric());
         }else{
             setMaps(null, null); // remove the normalization maps
         }
@@ -454,18 +508,17 @@ public class ListMatrix extends AbstractMatrix {
      */
     public ListMatrix transpose(boolean clone){
         if(isEmpty()) return clone ? clone() : this;
-        int[] tRows = clone ? new int[rows.length] : columns;
-        int[] tColumns = clone ? new int[rows.length] : rows;
         ListMatrix transposedList;
         if(clone) {
-            for (int p = 0; p < rows.length; p++) {
-                tRows[p] = columns[p];
-                tColumns[p] = rows[p];
-            }
+            int[] tRows = new int[getCellCount()];
+            int[] tColumns = new int[tRows.length];
+            transposeCells(tRows, tColumns);
             transposedList = new ListMatrix(this)
-                    .init(tRows, tColumns, getValues().clone(), isIdShared());
+                    .init(tRows, tColumns, getCellValues().clone(), isIdShared());
         }else{
             transposedList = this;
+            int[] tRows = getColumns();
+            int[] tColumns = getRows();
             rows = tRows;
             columns = tColumns;
             int rowCountTemp = getRowCount();
@@ -474,9 +527,9 @@ public class ListMatrix extends AbstractMatrix {
         }
         // swap maps and toRaw id maps between row and column
         if(isNormalized()){
-            OpenIntIntHashMap toNormalRowTemp = getToNormal()[ROW];
+            IdMap toNormalRowTemp = getToNormal()[ROW];
             int[] toRawRowTemp = getToRaw()[ROW];
-            transposedList.toNormal = new OpenIntIntHashMap[2];
+            transposedList.toNormal = new IdMap[2];
             transposedList.toRaw = new int[2][];
             transposedList.toNormal[ROW] = getToNormal()[COL];
             transposedList.toNormal[COL] = toNormalRowTemp;
@@ -487,6 +540,20 @@ public class ListMatrix extends AbstractMatrix {
         return transposedList;
     }
 
+    /**
+     * Fill in the transposed (row, column) of each cell, in the order of {@link #getValues()}
+     * @param tRows receives the column of each cell
+     * @param tColumns receives the row of each cell
+     */
+    protected void transposeCells(int[] tRows, int[] tColumns){
+        int[] rows = getRows();
+        int[] columns = getColumns();
+        for (int p = 0; p < rows.length; p++) {
+            tRows[p] = columns[p];
+            tColumns[p] = rows[p];
+        }
+    }
+
     /**
      * Decompose the list into K lists partitioned by the input,
      * negative partitions are regarded as discarding the corresponding row or column,
@@ -498,15 +565,11 @@ public class ListMatrix extends AbstractMatrix {
     public ListMatrix[] decompose(int[] partition){
         if(isEmpty()) return new ListMatrix[0];
         PartitionStatistics statistics = Statistics.partition(partition, this);
-        int[] allRows = getRows();
-        int[] allColumns = getColumns();
-        float[] allValues = getValues();
         int groupCount = statistics.groupCount;
         // Instantiate lists per dimension per partitions
         int[][] rows = new int[groupCount][];
         int[][] columns = new int[groupCount][];
         float[][] values = new float[groupCount][];
-        int[] occupied = new int[groupCount]; // No. pairs occupying positions per partitions
         for(int graphId = 0 ; graphId < groupCount ; graphId++){
             int nodeCount = statistics.size[graphId];
             if(nodeCount > 0) { // a matrix may have zero occupied cell
@@ -517,18 +580,7 @@ public class ListMatrix extends AbstractMatrix {
             }
         }
         // Fill in lists with row column indices
-        for(int p = 0 ; p < allRows.length ; p++){
-            int row = allRows[p];
-            int column = allColumns[p];
-            int groupId = partition[row];
-            if(groupId >= 0 && groupId == partition[column]){
-                int pos = occupied[groupId];
-                rows[groupId][pos] = row;
-                columns[groupId][pos] = column;
-                values[groupId][pos] = allValues[p];
-                occupied[groupId]++;
-            }
-        }
+        decomposeCells(partition, rows, columns, values);
         /*
             Decomposition of a sorted/unique/ascending list remains sorted/unique/ascending
             Parents' toRaw/maps mapping is shared with subGraphs, they must be cloned
@@ -539,11 +591,39 @@ public class ListMatrix extends AbstractMatrix {
         for(int pr = 0 ; pr < rows.length ; pr++){
             lists[pr] = new ListMatrix().init(rows[pr], columns[pr], values[pr], isIdShared())
                     .setStatus(isSorted(), isUnique(), false, isIdAscending(), getSortMode())
+                    .setSymmetric(isSymmetric())
                     .setMaps(getToNormal(), getToRaw());
         }
         return lists;
     }
 
+    /**
+     * Place each cell inside the list of its partition,
+     * cells between two partitions or with a discarded row/column are skipped
+     * @param partition partitions[i] = k means placing i-th row in list k
+     * @param rows rows[k] receives the row ids of partition k
+     * @param columns columns[k] receives the column ids of partition k
+     * @param values values[k] receives the values of partition k
+     */
+    protected void decomposeCells(int[] partition, int[][] rows, int[][] columns, float[][] values){
+        int[] allRows = getRows();
+        int[] allColumns = getColumns();
+        float[] allValues = getValues();
+        int[] occupied = new int[rows.length]; // No. pairs occupying positions per partitions
+        for(int p = 0 ; p < allRows.length ; p++){
+            int row = allRows[p];
+            int column = allColumns[p];
+            int groupId = partition[row];
+            if(groupId >= 0 && groupId == partition[column]){
+                int pos = occupied[groupId];
+                rows[groupId][pos] = row;
+                columns[groupId][pos] = column;
+                values[groupId][pos] = allValues[p];
+                occupied[groupId]++;
+            }
+        }
+    }
+
     /**
      * Fold the rows/columns and their pairs inside each partition,
      * Values are aggregated inside a partition or between two partitions,
@@ -554,21 +634,18 @@ public class ListMatrix extends AbstractMatrix {
     @Override
     public ListMatrix fold(int[] partition) {
         if(isEmpty()) return new ListMatrix();
-        int[] allRows = getRows();
-        int[] allColumns = getColumns();
-        float[] allValues = getValues();
         // Number of pairs with no discarded row/column
         PartitionStatistics statistics = Statistics.partition(partition, this);
         int groupCount = statistics.groupCount;
-        int validPairs = allRows.length - statistics.discardedCellCount;
-        OpenIntIntHashMap partToFolded = Util.normalizeIds(partition);
+        int validPairs = getCellCount() - statistics.discardedCellCount;
+        IdMap partToFolded = Util.normalizeIds(partition);
 
         int estimatedPairs = (int) (validPairs * (double) groupCount / partition.length);// edge count * K/N
-        HashMap<Long, Float> pairs = new HashMap<Long, Float>(estimatedPairs);
+        LongFloatHashMap pairs = new LongFloatHashMap(estimatedPairs);
         // raw ids to normalized row/column ids (group ids)
-        OpenIntIntHashMap[] toNormal = new OpenIntIntHashMap[2];
+        IdMap[] toNormal = new IdMap[2];
         toNormal[ROW] = partToFolded;
-        toNormal[COL] = (OpenIntIntHashMap) partToFolded.clone();
+        toNormal[COL] = partToFolded.clone();
         // maps id of row/columns to their raw (unNormalized) group id
         int[][] toRaw = new int[2][];
         toRaw[ROW] = new int[groupCount];
@@ -581,6 +658,42 @@ public class ListMatrix extends AbstractMatrix {
             toRaw[COL][normalId] = partitionId;
         }
         // aggregate link values
+        foldCells(partition, partToFolded, groupCount, pairs);
+
+        // Set aggregated links based on folded groups into simple arrays,
+        // ordered by unique id which is ordered by row then column
+        float[] pairValues = pairs.values();
+        RadixSort radixSort = new RadixSort(pairs.keys()).sort();
+        long[] keys = radixSort.getKeys();
+        int[] indices = radixSort.getIndices();
+        final int[] rows = new int[keys.length];
+        final int[] columns = new int[keys.length];
+        final float[] values = new float[keys.length];
+        for(int p = 0 ; p < keys.length ; p++){
+            long uniqueId = keys[p];
+            rows[p] = (int) (uniqueId / groupCount);
+            columns[p] = (int) (uniqueId % groupCount);
+            values[p] = pairValues[indices[p]];
+        }
+        ListMatrix foldedMatrix = new ListMatrix().init(rows, columns, values, isIdShared())
+                .setMaps(toNormal, toRaw)
+                .setStatus(true, true, true, true, MODE_NOT_CLONE)
+                .setSymmetric(isSymmetric()); // (a, b) and (b, a) are aggregated into mirror cells
+        return foldedMatrix;
+    }
+
+    /**
+     * Aggregate the value of cells per (row group, column group) pair
+     * @param partition partitions[i] = k means placing i-th row and column in group k
+     * @param partToFolded maps group id to folded id 0...K-1
+     * @param groupCount number of groups K
+     * @param pairs receives the aggregated value per (K * folded row + folded column)
+     */
+    protected void foldCells(int[] partition, IdMap partToFolded, int groupCount,
+                             LongFloatHashMap pairs){
+        int[] allRows = getRows();
+        int[] allColumns = getColumns();
+        float[] allValues = getValues();
         for(int p = 0 ; p < allRows.length ; p++){
             int rowPartId = partition[allRows[p]];
             int columnPartId = partition[allColumns[p]];
@@ -590,27 +703,8 @@ public class ListMatrix extends AbstractMatrix {
             int rowId = partToFolded.get(rowPartId);
             int columnId = partToFolded.get(columnPartId);
             long uniqueId = (long) groupCount * rowId + columnId;
-            pairs.merge(uniqueId, allValues[p], Float::sum);
-        }
-
-        // Set aggregated links based on folded groups into simple arrays
-        final int[] rows = new int[pairs.size()];
-        final int[] columns = new int[pairs.size()];
-        final float[] values = new float[pairs.size()];
-        Iterator<Map.Entry<Long, Float>> keys = pairs.entrySet().iterator();
-        int insertAt = 0;
-        while(keys.hasNext()){
-            Map.Entry<Long, Float> entry = keys.next();
-            long uniqueId = entry.getKey();
-            rows[insertAt] = (int) Math.floor((double) uniqueId / groupCount);
-            columns[insertAt] = (int)(uniqueId % groupCount);
-            values[insertAt] = pairs.get(uniqueId);
-            insertAt++;
+            pairs.add(uniqueId, allValues[p]);
         }
-        ListMatrix foldedMatrix = new ListMatrix().init(rows, columns, values, isIdShared())
-                .setMaps(toNormal, toRaw)
-                .setStatus(false, true, true, isIdAscending(), MODE_NOT_CLONE);
-        return foldedMatrix;
     }
 
     /**
@@ -621,6 +715,7 @@ public class ListMatrix extends AbstractMatrix {
      */
     public ListMatrix filter(float lowerBound, float upperBound){
         if(isEmpty()) return clone();
+        float[] values = getCellValues();
         int count = 0; // number of valid cells
         for(int p =0 ; p < values.length ; p++){
             if(values[p] > lowerBound && values[p] < upperBound){
@@ -630,6 +725,28 @@ public class ListMatrix extends AbstractMatrix {
         int[] subRows = new int[count];
         int[] subColumns = new int[count];
         float[] subValues = new float[count];
+        filterCells(lowerBound, upperBound, subRows, subColumns, subValues);
+        ListMatrix subList = new ListMatrix().init(subRows, subColumns, subValues, isIdShared())
+                .setStatus(isSorted(), isUnique(), isNormalized(), isIdAscending(), getSortMode())
+                .setSymmetric(isSymmetric());
+        subList.toNormal = getToNormal() == null ? null : getToNormal().clone();
+        subList.toRaw = getToRaw() == null ? null : getToRaw().clone();
+        return subList;
+    }
+
+    /**
+     * Fill in the cells with values between the given interval, in the order of {@link #getValues()}
+     * @param lowerBound cells strictly larger than this value
+     * @param upperBound cells strictly smaller than this value
+     * @param subRows receives the row of each valid cell
+     * @param subColumns receives the column of each valid cell
+     * @param subValues receives the value of each valid cell
+     */
+    protected void filterCells(float lowerBound, float upperBound,
+                               int[] subRows, int[] subColumns, float[] subValues){
+        int[] rows = getRows();
+        int[] columns = getColumns();
+        float[] values = getValues();
         int insertAt = 0;
         for(int p = 0 ; p < values.length ; p++){
             if(values[p] > lowerBound && values[p] < upperBound){
@@ -639,11 +756,20 @@ public class ListMatrix extends AbstractMatrix {
                 insertAt++;
             }
         }
-        ListMatrix subList = new ListMatrix().init(subRows, subColumns, subValues, isIdShared())
-                .setStatus(isSorted(), isUnique(), isNormalized(), isIdAscending(), getSortMode());
-        subList.toNormal = getToNormal() == null ? null : getToNormal().clone();
-        subList.toRaw = getToRaw() == null ? null : getToRaw().clone();
-        return subList;
+    }
+
+    /**
+     * Set the id statistics of a matrix with normalized ids 0...N-1 shared by rows and columns,
+     * used when cells are not given as a list
+     * @param nodeCount number of ids N
+     * @return
+     */
+    protected ListMatrix initSharedIds(int nodeCount){
+        this.isIdShared = true;
+        this.rowCount = this.columnCount = nodeCount;
+        this.minRowId = this.minColumnId = 0;
+        this.maxRowId = this.maxColumnId = nodeCount - 1;
+        return this;
     }
 
     protected ListMatrix setStatus(boolean isSorted, boolean isUnique
@@ -656,27 +782,37 @@ public class ListMatrix extends AbstractMatrix {
         return this;
     }
 
+    /**
+     * Mark the matrix as symmetric, when value(a, b) = value(b, a) is known to hold
+     * @param isSymmetric
+     * @return
+     */
+    public ListMatrix setSymmetric(boolean isSymmetric){
+        this.isSymmetric = isSymmetric;
+        return this;
+    }
+
     /**
      * Cells are added or removed to have value(a, b) = value(b, a)
      * @return
      */
     public ListMatrix symmetrize(){
-        if(isEmpty()) return clone();
-        HashMap<Long, Boolean> visitedCell = new HashMap<Long, Boolean>(rows.length);
-        int idRange = Util.max(rows, columns) + 1;
+        if(isEmpty()) return clone().setSymmetric(true);
+        int[] rows = getRows();
+        int[] columns = getColumns();
+        float[] values = getValues();
+        LongHashSet visitedCell = new LongHashSet(2 * rows.length);
         int cellCount = 0;
         int diagonalCount = 0;
         for(int p = 0 ; p < rows.length ; p++){
-            long uniqueId = idRange * rows[p] + columns[p];
-            if(!visitedCell.containsKey(uniqueId)){ // find both the cell and its mirror
-                visitedCell.put(uniqueId, true);
+            long uniqueId = cellId(rows[p], columns[p]);
+            if(visitedCell.add(uniqueId)){ // find both the cell and its mirror
                 cellCount++;
                 if(rows[p] == columns[p]){
                     diagonalCount++;
                     continue;
                 }
-                long mirrorUniqueId = idRange * columns[p] + rows[p];
-                visitedCell.put(mirrorUniqueId, true);
+                visitedCell.add(cellId(columns[p], rows[p]));
             }
         }
         visitedCell.clear();
@@ -687,8 +823,8 @@ public class ListMatrix extends AbstractMatrix {
         float[] symValues = new float[symCellCount];
         int insertAt = 0;
         for(int p = 0 ; p < rows.length ; p++){
-            long uniqueId = idRange * rows[p] + columns[p];
-            if(!visitedCell.containsKey(uniqueId)){
+            long uniqueId = cellId(rows[p], columns[p]);
+            if(visitedCell.add(uniqueId)){
                 symRows[insertAt] = rows[p];
                 symColumns[insertAt] = columns[p];
                 symValues[insertAt] = values[p];
@@ -698,20 +834,29 @@ public class ListMatrix extends AbstractMatrix {
                 symColumns[insertAt] = rows[p];
                 symValues[insertAt] = values[p];
                 insertAt++;
-                // Mark as visited
-                long mirrorUniqueId = idRange * columns[p] + rows[p];
-                visitedCell.put(uniqueId, true);
-                visitedCell.put(mirrorUniqueId, true);
+                // Mark the mirror as visited
+                visitedCell.add(cellId(columns[p], rows[p]));
             }
         }
         // This operation breaks id sort but guarantees uniqueness of cells, and ids are not changed
         ListMatrix symmetric = new ListMatrix()
                 .init(symRows, symColumns, symValues, isIdShared())
                 .setStatus(false, true, isNormalized(), false, getSortMode())
+                .setSymmetric(true)
                 .setMaps(getToNormal(), getToRaw());
         return symmetric;
     }
 
+    /**
+     * Unique 64 bit id of a (row, column) cell for any pair of int ids
+     * @param row
+     * @param column
+     * @return
+     */
+    private static long cellId(int row, int column){
+        return ((long) row << 32) | (column & 0xFFFFFFFFL);
+    }
+
     /**
      * Default sort as ascending and not cloning
      * @return
@@ -776,16 +921,19 @@ public class ListMatrix extends AbstractMatrix {
         // Deep copy id normalize de-normalize maps
         if(listMatrix.toRaw == null) return listMatrix;
         listMatrix.toRaw = new int[2][];
-        listMatrix.toNormal = new OpenIntIntHashMap[2];
+        listMatrix.toNormal = new IdMap[2];
         for(int dim = 0 ; dim < 2 ; dim++){
             listMatrix.toRaw[dim] = toRaw[dim].clone();
-            listMatrix.toNormal[dim] = (OpenIntIntHashMap) toNormal[dim].clone();
+            listMatrix.toNormal[dim] = toNormal[dim].clone();
         }
         return listMatrix;
     }
 
     @Override
     public String toString() {
+        int[] rows = getRows();
+        int[] columns = getColumns();
+        float[] values = getValues();
         StringBuilder string = new StringBuilder("[");
         for(int p = 0; p < rows.length ; p++){
             string.append("(" + rows[p] + " " + columns[p] + " " + values[p] + ")");
@@ -802,11 +950,11 @@ public class ListMatrix extends AbstractMatrix {
         this.toRaw = toRaw;
     }
 
-    public void setToNormal(OpenIntIntHashMap[] toNormal) {
+    public void setToNormal(IdMap[] toNormal) {
         this.toNormal = toNormal;
     }
 
-    public ListMatrix setMaps(OpenIntIntHashMap[] toNormal, int[][] toRaw){
+    public ListMatrix setMaps(IdMap[] toNormal, int[][] toRaw){
         this.toNormal = toNormal;
         this.toRaw = toRaw;
         return this;
@@ -822,7 +970,15 @@ public class ListMatrix extends AbstractMatrix {
      * @return
      */
     public boolean isEmpty(){
-        return  getRows() == null || getRowCount() <= 0;
+        return  rows == null || getRowCount() <= 0;
+    }
+
+    /**
+     * Number of (row, column, value) cells
+     * @return
+     */
+    public int getCellCount(){
+        return rows == null ? 0 : rows.length;
     }
 
     public int[] getRows() {
@@ -837,6 +993,15 @@ public class ListMatrix extends AbstractMatrix {
         return values;
     }
 
+    /**
+     * Value of each cell in the order of (row, column, value) list,
+     * without rebuilding the list if it has been released
+     * @return
+     */
+    protected float[] getCellValues() {
+        return values;
+    }
+
     public ListMatrix setRows(int[] rows) {
         this.rows = rows;
         return this;
@@ -879,6 +1044,10 @@ public class ListMatrix extends AbstractMatrix {
         return isIdShared;
     }
 
+    public boolean isSymmetric() {
+        return isSymmetric;
+    }
+
     public boolean isIdAscending() {
         return isIdAscending;
     }
@@ -887,7 +1056,7 @@ public class ListMatrix extends AbstractMatrix {
         return sortMode;
     }
 
-    public OpenIntIntHashMap[] getToNormal() {
+    public IdMap[] getToNormal() {
         return toNormal;
     }
 
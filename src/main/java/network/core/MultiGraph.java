@@ -1,6 +1,6 @@
 package network.core;
 
-import cern.colt.map.OpenIntIntHashMap;
+import network.utils.IdMap;
 
 import java.util.*;
 
@@ -157,9 +157,9 @@ public class MultiGraph extends Graph {
             ids[index++] = graph.getColumns();
         }
         // Normalize ids
-        OpenIntIntHashMap[] mapToNormal = new OpenIntIntHashMap[2];
+        IdMap[] mapToNormal = new IdMap[2];
         mapToNormal[ROW] = Util.normalizeIds(ids);
-        mapToNormal[COL] = (OpenIntIntHashMap) mapToNormal[ROW].clone();
+        mapToNormal[COL] = mapToNormal[ROW].clone();
         // Reconstruct the type graphs based on normalized lists
         ArrayList<Graph> newGraphs = new ArrayList<>(graphs.size());
         iterator = graphs.entrySet().iterator();
@@ -195,9 +195,9 @@ public class MultiGraph extends Graph {
             ids[index++] = graph.getColumns();
         }
         // Normalize ids
-        OpenIntIntHashMap[] mapToNormal = new OpenIntIntHashMap[2];
+        IdMap[] mapToNormal = new IdMap[2];
         mapToNormal[ROW] = Util.normalizeIds(ids);
-        mapToNormal[COL] = (OpenIntIntHashMap) mapToNormal[ROW].clone();
+        mapToNormal[COL] = mapToNormal[ROW].clone();
         // Reconstruct the type graphs based on normalized lists
         ArrayList<Graph> newGraphs = new ArrayList<>(graphs.size());
         iterator = graphs.entrySet().iterator();
@@ -247,6 +247,17 @@ public class MultiGraph extends Graph {
         return clone;
     }
 
+    /**
+     * Return true if all type graphs are symmetric
+     */
+    @Override
+    public boolean isSymmetric(){
+        for(Graph graph : graphs.values()){
+            if(graph != null && !graph.isEmpty() && !graph.isSymmetric()) return false;
+        }
+        return true;
+    }
+
     /**
      * Return true if at least one sub-graph has edge
      */
@@ -1,6 +1,6 @@
 package network.core;
 
-import cern.colt.map.OpenIntIntHashMap;
+import network.utils.IdMap;
 
 /**
  * Holder of normalization maps data structure,
@@ -8,14 +8,14 @@ import cern.colt.map.OpenIntIntHashMap;
  */
 public class NormalizeMap {
 
-    public OpenIntIntHashMap map;
+    public IdMap map;
     public int maxNormalId;
 
     public NormalizeMap(){
         this.maxNormalId = -1;
     }
 
-    public NormalizeMap(OpenIntIntHashMap map, int maxNormalId){
+    public NormalizeMap(IdMap map, int maxNormalId){
         this.map = map;
         this.maxNormalId = maxNormalId;
     }
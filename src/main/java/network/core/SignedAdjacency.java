@@ -0,0 +1,172 @@
+package network.core;
+
+import static network.core.SiGraph.NEGATIVE;
+import static network.core.SiGraph.POSITIVE;
+
+/**
+ * Out-neighbors followed by in-neighbors of each node of a signed multi-graph in one contiguous array,
+ * positive and negative links are merged and the sign of a link is carried by its value,
+ * so the whole neighborhood of a node is traversed with a single sequential scan,
+ * for a symmetric graph in-links equal out-links, so only out-links are kept
+ */
+public class SignedAdjacency {
+
+    /**
+     * Links of node n are placed in [offsets[n], offsets[n + 1])
+     */
+    private int[] offsets;
+
+    /**
+     * Out-links of node n are in [offsets[n], inStarts[n]), in-links in [inStarts[n], offsets[n + 1])
+     */
+    private int[] inStarts;
+
+    /**
+     * If true, in-links are not stored and each out-link is also an in-link
+     */
+    private boolean isSymmetric;
+
+    /**
+     * Neighbor id and signed value of links
+     */
+    private int[] neighbors;
+    private float[] values;
+
+    /**
+     * Build the adjacency from positive and negative graphs of the multi-graph,
+     * positive links of a node are placed before its negative links per direction,
+     * in-links of a symmetric graph are skipped as they mirror the out-links
+     * @param graph
+     */
+    public SignedAdjacency(MultiGraph graph){
+        int nodeCount = graph.getNodeMaxId() + 1;
+        isSymmetric = graph.isSymmetric();
+        Graph[] signGraphs = new Graph[2];
+        signGraphs[POSITIVE] = graph.getGraph(POSITIVE);
+        signGraphs[NEGATIVE] = graph.getGraph(NEGATIVE);
+        // Number of out-links and in-links per node
+        int[] outCount = new int[nodeCount];
+        int[] inCount = new int[nodeCount];
+        for(Graph signGraph : signGraphs){
+            if(signGraph == null || signGraph.isEmpty()) continue;
+            int[] rowOffsets = signGraph.getRowOffsets();
+            int[] columns = signGraph.getSparseColumns();
+            for(int row = 0 ; row < rowOffsets.length - 1 ; row++){
+                outCount[row] += rowOffsets[row + 1] - rowOffsets[row];
+                if(isSymmetric) continue;
+                for(int p = rowOffsets[row] ; p < rowOffsets[row + 1] ; p++){
+                    inCount[columns[p]]++;
+                }
+            }
+        }
+        offsets = new int[nodeCount + 1];
+        inStarts = new int[nodeCount];
+        for(int node = 0 ; node < nodeCount ; node++){
+            inStarts[node] = offsets[node] + outCount[node];
+            offsets[node + 1] = inStarts[node] + inCount[node];
+        }
+        neighbors = new int[offsets[nodeCount]];
+        values = new float[offsets[nodeCount]];
+        // Next insert position of out-links and in-links per node
+        int[] outInsert = outCount;
+        int[] inInsert = inCount;
+        System.arraycopy(offsets, 0, outInsert, 0, nodeCount);
+        System.arraycopy(inStarts, 0, inInsert, 0, nodeCount);
+        for(Graph signGraph : signGraphs){
+            if(signGraph == null || signGraph.isEmpty()) continue;
+            int[] rowOffsets = signGraph.getRowOffsets();
+            int[] columns = signGraph.getSparseColumns();
+            float[] linkValues = signGraph.getSparseValues();
+            for(int row = 0 ; row < rowOffsets.length - 1 ; row++){
+                for(int p = rowOffsets[row] ; p < rowOffsets[row + 1] ; p++){
+                    int outAt = outInsert[row]++;
+                    neighbors[outAt] = columns[p];
+                    values[outAt] = linkValues[p];
+                }
+            }
+        }
+        if(isSymmetric) return;
+        // In-links are filled after all out-links to keep them ordered by sign then by neighbor id
+        for(Graph signGraph : signGraphs){
+            if(signGraph == null || signGraph.isEmpty()) continue;
+            int[] rowOffsets = signGraph.getRowOffsets();
+            int[] columns = signGraph.getSparseColumns();
+            float[] linkValues = signGraph.getSparseValues();
+            for(int row = 0 ; row < rowOffsets.length - 1 ; row++){
+                for(int p = rowOffsets[row] ; p < rowOffsets[row + 1] ; p++){
+                    int inAt = inInsert[columns[p]]++;
+                    neighbors[inAt] = row;
+                    values[inAt] = linkValues[p];
+                }
+            }
+        }
+    }
+
+    /**
+     * Greedy coloring of nodes visited in the given order, where linked nodes get different colors,
+     * each node takes the smallest color not taken by its neighbors
+     * @param order order of nodes to be colored
+     * @return colors[node] in [0, maximum degree]
+     */
+    public int[] color(int[] order){
+        int nodeCount = getNodeCount();
+        int[] colors = Util.initArray(nodeCount, -1);
+        // takenBy[c] = node means color c is taken by a neighbor of node
+        int[] takenBy = Util.initArray(nodeCount + 1, -1);
+        for(int node : order){
+            int end = offsets[node + 1];
+            for(int n = offsets[node] ; n < end ; n++){
+                int neighborColor = colors[neighbors[n]];
+                if(neighborColor >= 0) takenBy[neighborColor] = node;
+            }
+            int color = 0;
+            while(takenBy[color] == node) color++;
+            colors[node] = color;
+        }
+        return colors;
+    }
+
+    /**
+     * Position of the first out-link of the node
+     * @param node
+     * @return
+     */
+    public int getStart(int node){
+        return offsets[node];
+    }
+
+    /**
+     * Position of the first in-link of the node, which is after its out-links,
+     * equal to {@link #getEnd(int)} for a symmetric graph
+     * @param node
+     * @return
+     */
+    public int getInStart(int node){
+        return inStarts[node];
+    }
+
+    /**
+     * Position after the last in-link of the node
+     * @param node
+     * @return
+     */
+    public int getEnd(int node){
+        return offsets[node + 1];
+    }
+
+    public int[] getNeighbors() {
+        return neighbors;
+    }
+
+    public float[] getValues() {
+        return values;
+    }
+
+    public boolean isSymmetric() {
+        return isSymmetric;
+    }
+
+    public int getNodeCount(){
+        return inStarts.length;
+    }
+}
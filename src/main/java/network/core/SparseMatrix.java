@@ -1,22 +1,34 @@
 package network.core;
 
-import cern.colt.map.OpenIntIntHashMap;
+import network.utils.IdMap;
+import network.utils.LongFloatHashMap;
+
+import java.util.Arrays;
 
 /**
  * Sparse column matrix
+ * stored as compressed sparse rows: cells of row r are placed in
+ * [rowOffsets[r], rowOffsets[r + 1]) of columnIndices and sparseValues,
+ * the (row, column, value) list can be released after construction
+ * and is rebuilt from the sparse rows only when it is asked for
  */
 public class SparseMatrix extends ListMatrix {
 
     /**
-     * Matrix values per non-null cell
+     * Matrix values per non-null cell, row after row
      */
-    float[][] sparseValues;
+    float[] sparseValues;
 
+    /**
+     * Column indices per non-null cell, row after row
+     */
+    int[] columnIndices;
 
     /**
-     * Column indices per row
+     * Position of the first cell of each row in columnIndices and sparseValues,
+     * rowOffsets[rowIdRange] is the number of cells
      */
-    int[][] columnIndices;
+    int[] rowOffsets;
 
     public SparseMatrix(){
 
@@ -29,7 +41,13 @@ public class SparseMatrix extends ListMatrix {
 
     public SparseMatrix(ListMatrix listMatrix, boolean buildSparseData){
         super(listMatrix);
-        if(buildSparseData) {
+        if(listMatrix instanceof SparseMatrix && super.getRows() == null){
+            // list of the input has been released, its sparse rows are the only data
+            SparseMatrix sparseMatrix = (SparseMatrix) listMatrix;
+            this.sparseValues = sparseMatrix.sparseValues;
+            this.columnIndices = sparseMatrix.columnIndices;
+            this.rowOffsets = sparseMatrix.rowOffsets;
+        }else if(buildSparseData) {
             buildSparseData();
         }
     }
@@ -38,51 +56,275 @@ public class SparseMatrix extends ListMatrix {
         super(sparseMatrix);
         this.sparseValues = sparseMatrix.sparseValues;
         this.columnIndices = sparseMatrix.columnIndices;
+        this.rowOffsets = sparseMatrix.rowOffsets;
     }
 
 
 
+    /**
+     * Initialize with compressed sparse rows of normalized node ids shared by rows and columns,
+     * the (row, column, value) list is not built
+     * @param rowOffsets cells of row r are placed in [rowOffsets[r], rowOffsets[r + 1])
+     * @param columnIndices column index per cell, sorted per row
+     * @param values value per cell
+     * @param toRaw maps normalized id to raw id
+     * @param isUnique whether (row, column)s are unique
+     * @return
+     */
+    public SparseMatrix init(int[] rowOffsets, int[] columnIndices, float[] values,
+                             int[] toRaw, boolean isUnique){
+        this.rowOffsets = rowOffsets;
+        this.columnIndices = columnIndices;
+        this.sparseValues = values;
+        IdMap[] toNormal = new IdMap[2];
+        toNormal[ROW] = Util.inverse(toRaw);
+        toNormal[COL] = toNormal[ROW].clone();
+        initSharedIds(toRaw.length);
+        setMaps(toNormal, new int[][]{toRaw, toRaw.clone()});
+        setStatus(true, isUnique, true, true, MODE_NOT_CLONE);
+        return this;
+    }
+
+    /**
+     * Initialize with compressed sparse rows of normalized node ids shared by rows and columns,
+     * whose values may have zeros (e.g. a re-used buffer of values), rows and columns are counted
+     * only over the non-zero cells as if the zero cells were not in the matrix,
+     * the (row, column, value) list is not built
+     * @param rowOffsets cells of row r are placed in [rowOffsets[r], rowOffsets[r + 1])
+     * @param columnIndices column index per cell, sorted per row
+     * @param values value per cell
+     * @return
+     */
+    public SparseMatrix init(int[] rowOffsets, int[] columnIndices, float[] values){
+        this.rowOffsets = rowOffsets;
+        this.columnIndices = columnIndices;
+        this.sparseValues = values;
+        int rowIdRange = rowOffsets.length - 1;
+        boolean[] isCounted = new boolean[rowIdRange];
+        int nodeCount = 0;
+        for(int r = 0 ; r < rowIdRange ; r++){
+            for(int p = rowOffsets[r] ; p < rowOffsets[r + 1] ; p++){
+                if(values[p] == 0) continue;
+                if(!isCounted[r]){
+                    isCounted[r] = true;
+                    nodeCount++;
+                }
+                if(!isCounted[columnIndices[p]]){
+                    isCounted[columnIndices[p]] = true;
+                    nodeCount++;
+                }
+            }
+        }
+        // ids range over all the rows, while the count is of ids with a non-zero cell
+        initSharedIds(rowIdRange);
+        this.rowCount = this.columnCount = nodeCount;
+        setStatus(true, true, true, true, MODE_NOT_CLONE);
+        return this;
+    }
+
     /**
      * Build the sparse data structure based on the list of (row, column, value)
      * Assumption: there must be no duplicate (row, column) in the inputs
      * @return
      */
     protected void buildSparseData() {
-        if(getRows() == null) return;
+        if(super.getRows() == null) return;
         // Populate the sparse data structure with list data
-        int[] rows = getRows();
-        int[] columns = getColumns();
-        float[] values = getValues();
+        int[] rows = super.getRows();
+        int[] columns = super.getColumns();
+        float[] values = super.getValues();
         // buildSparseData the internal data structure based on normalized ids
         int rowIdRange = Math.max(0, getMaxRowId() + 1); // matrix may be empty
-        int[] rowSizes = new int[rowIdRange];
-        for(int rowId : rows){
-            rowSizes[rowId]++;
-        }
-        // create column index, sparse values, and occupied counter per row
-        this.columnIndices = new int[rowIdRange][];
-        this.sparseValues = new float[rowIdRange][];
-        int[] occupied = new int[rowIdRange];
+        // count the cells of each row, then shift the counts into row start positions
+        int[] rowOffsets = new int[rowIdRange + 1];
+        boolean isRowOrdered = true;
+        for(int p = 0 ; p < rows.length ; p++){
+            rowOffsets[rows[p] + 1]++;
+            if(p > 0 && rows[p] < rows[p - 1]){
+                isRowOrdered = false;
+            }
+        }
         for(int r = 0; r < rowIdRange ; r++){
-            int rowSize = rowSizes[r];
-            this.columnIndices[r] = new int[rowSize];
-            this.sparseValues[r] = new float[rowSize];
-            occupied[r] = 0;
+            rowOffsets[r + 1] += rowOffsets[r];
         }
-        for(int p = 0 ; p < rows.length ; p++){
-            int rowId = rows[p];
-            this.columnIndices[rowId][occupied[rowId]] = columns[p];
-            this.sparseValues[rowId][occupied[rowId]++] = values[p];
+        if(isRowOrdered){
+            // cells are already placed row after row, share the list arrays instead of copying
+            this.columnIndices = columns;
+            this.sparseValues = values;
+        }else {
+            // place each cell after the previously placed cells of its row
+            this.columnIndices = new int[rows.length];
+            this.sparseValues = new float[rows.length];
+            int[] occupied = Arrays.copyOf(rowOffsets, rowIdRange);
+            for (int p = 0; p < rows.length; p++) {
+                int insertAt = occupied[rows[p]]++;
+                this.columnIndices[insertAt] = columns[p];
+                this.sparseValues[insertAt] = values[p];
+            }
+        }
+        this.rowOffsets = rowOffsets;
+    }
+
+    /**
+     * Drop the (row, column, value) list so each cell is kept only in the sparse rows,
+     * the list is rebuilt from sparse rows (in row order) if it is asked for later
+     * @return
+     */
+    public SparseMatrix releaseList(){
+        if(rowOffsets == null) return this; // sparse rows are not built
+        setRows(null);
+        setColumns(null);
+        setValues(null);
+        return this;
+    }
+
+    /**
+     * Whether the (row, column, value) list is released and cells are only kept in sparse rows
+     * @return
+     */
+    public boolean isListReleased(){
+        return rowOffsets != null && super.getRows() == null;
+    }
+
+    /**
+     * Rebuild the released (row, column, value) list from sparse rows,
+     * columns and values are shared with the sparse rows,
+     * rows are set last since a null row list marks the list as released;
+     * the list is not synchronized, so a matrix used by concurrent threads must be restored before sharing it
+     * or each thread must use its own view, e.g. new Graph(graph)
+     */
+    private void restoreList(){
+        int[] rows = new int[columnIndices.length];
+        for(int r = 0 ; r < rowOffsets.length - 1 ; r++){
+            Arrays.fill(rows, rowOffsets[r], rowOffsets[r + 1], r);
+        }
+        setColumns(columnIndices);
+        setValues(sparseValues);
+        setRows(rows);
+    }
+
+    @Override
+    public int[] getRows() {
+        if(isListReleased()) restoreList();
+        return super.getRows();
+    }
+
+    @Override
+    public int[] getColumns() {
+        if(isListReleased()) restoreList();
+        return super.getColumns();
+    }
+
+    @Override
+    public float[] getValues() {
+        if(isListReleased()) restoreList();
+        return super.getValues();
+    }
+
+    @Override
+    protected float[] getCellValues() {
+        return isListReleased() ? sparseValues : super.getCellValues();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return isListReleased() ? getRowCount() <= 0 : super.isEmpty();
+    }
+
+    @Override
+    public int getCellCount() {
+        return isListReleased() ? columnIndices.length : super.getCellCount();
+    }
+
+    @Override
+    protected void transposeCells(int[] tRows, int[] tColumns) {
+        if(!isListReleased()){
+            super.transposeCells(tRows, tColumns);
+            return;
+        }
+        for(int r = 0 ; r < rowOffsets.length - 1 ; r++){
+            for(int p = rowOffsets[r] ; p < rowOffsets[r + 1] ; p++){
+                tRows[p] = columnIndices[p];
+                tColumns[p] = r;
+            }
+        }
+    }
+
+    @Override
+    protected void decomposeCells(int[] partition, int[][] rows, int[][] columns, float[][] values) {
+        if(!isListReleased()){
+            super.decomposeCells(partition, rows, columns, values);
+            return;
+        }
+        int[] occupied = new int[rows.length]; // No. pairs occupying positions per partitions
+        int rowIdRange = Math.min(rowOffsets.length - 1, partition.length);
+        for(int row = 0 ; row < rowIdRange ; row++){
+            int groupId = partition[row];
+            if(groupId < 0) continue;
+            for(int p = rowOffsets[row] ; p < rowOffsets[row + 1] ; p++){
+                int column = columnIndices[p];
+                if(groupId == partition[column]){
+                    int pos = occupied[groupId];
+                    rows[groupId][pos] = row;
+                    columns[groupId][pos] = column;
+                    values[groupId][pos] = sparseValues[p];
+                    occupied[groupId]++;
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void foldCells(int[] partition, IdMap partToFolded, int groupCount,
+                             LongFloatHashMap pairs) {
+        if(!isListReleased()){
+            super.foldCells(partition, partToFolded, groupCount, pairs);
+            return;
+        }
+        int rowIdRange = Math.min(rowOffsets.length - 1, partition.length);
+        for(int row = 0 ; row < rowIdRange ; row++){
+            int rowPartId = partition[row];
+            if(rowPartId < 0) continue; // row is discarded by the partition
+            int rowId = partToFolded.get(rowPartId);
+            for(int p = rowOffsets[row] ; p < rowOffsets[row + 1] ; p++){
+                int columnPartId = partition[columnIndices[p]];
+                if(columnPartId < 0){
+                    continue; // pair is discarded by the partition
+                }
+                int columnId = partToFolded.get(columnPartId);
+                long uniqueId = (long) groupCount * rowId + columnId;
+                pairs.add(uniqueId, sparseValues[p]);
+            }
+        }
+    }
+
+    @Override
+    protected void filterCells(float lowerBound, float upperBound,
+                               int[] subRows, int[] subColumns, float[] subValues) {
+        if(!isListReleased()){
+            super.filterCells(lowerBound, upperBound, subRows, subColumns, subValues);
+            return;
+        }
+        int insertAt = 0;
+        for(int r = 0 ; r < rowOffsets.length - 1 ; r++){
+            for(int p = rowOffsets[r] ; p < rowOffsets[r + 1] ; p++){
+                float value = sparseValues[p];
+                if(value > lowerBound && value < upperBound){
+                    subRows[insertAt] = r;
+                    subColumns[insertAt] = columnIndices[p];
+                    subValues[insertAt] = value;
+                    insertAt++;
+                }
+            }
         }
     }
 
     public float getValue(int row, int column){
         int rowId = getToNormal()[0].get(row);
         int columnId = getToNormal()[1].get(column);
-        int[] columns = columnIndices[rowId];
-        for(int c = 0 ; c < columns.length ; c++){
-            if(columns[c] == columnId){
-                return sparseValues[rowId][c];
+        for(int p = getRowStart(rowId), end = getRowEnd(rowId) ; p < end ; p++){
+            if(columnIndices[p] == columnId){
+                return sparseValues[p];
             }
         }
         return Integer.MIN_VALUE; // not found
@@ -105,7 +347,7 @@ public class SparseMatrix extends ListMatrix {
      * @return
      */
     @Override
-    public SparseMatrix[] decompose(int[] partition, OpenIntIntHashMap[] mapToNormal){
+    public SparseMatrix[] decompose(int[] partition, IdMap[] mapToNormal){
         ListMatrix[] decomposed = super.decompose(partition);
         SparseMatrix[] matrices = new SparseMatrix[decomposed.length];
         for(int m = 0 ; m < decomposed.length ; m++){
@@ -129,10 +371,9 @@ public class SparseMatrix extends ListMatrix {
      */
     public float[][] getFull(){
         float[][] matrix = new float[getRowCount()][getColumnCount()];
-        for(int r = 0 ; r < sparseValues.length ; r++){
-            int[] columns = columnIndices[r]; // columns of r-th row
-            for(int c = 0 ; c < sparseValues[r].length ; c++){
-                matrix[r][columns[c]] = sparseValues[r][c];
+        for(int r = 0 ; r < rowOffsets.length - 1 ; r++){
+            for(int p = rowOffsets[r] ; p < rowOffsets[r + 1] ; p++){
+                matrix[r][columnIndices[p]] = sparseValues[p];
             }
         }
         return matrix;
@@ -144,40 +385,72 @@ public class SparseMatrix extends ListMatrix {
         SparseMatrix clone = (SparseMatrix) new SparseMatrix().init(super.clone());
         clone.sparseValues = sparseValues;
         clone.columnIndices = columnIndices;
+        clone.rowOffsets = rowOffsets;
         return clone;
     }
 
     /**
-     * Get sparse cell values of given row id
+     * Position of the first cell of given row id in sparse columns and values,
+     * rows out of the matrix range are regarded as empty
+     * @param rowId
+     * @return
+     */
+    public int getRowStart(int rowId){
+        return rowId < rowOffsets.length - 1 ? rowOffsets[rowId] : 0;
+    }
+
+    /**
+     * Position after the last cell of given row id in sparse columns and values
+     * @param rowId
+     * @return
+     */
+    public int getRowEnd(int rowId){
+        return rowId < rowOffsets.length - 1 ? rowOffsets[rowId + 1] : 0;
+    }
+
+    /**
+     * Get a copy of sparse cell values of given row id,
+     * use {@link #getRowStart(int)} and {@link #getSparseValues()} to avoid the copy
      * @param rowId
      * @return
      */
     public float[] getValues(int rowId){
-        return rowId < sparseValues.length ? sparseValues[rowId] : null;
+        return rowId < rowOffsets.length - 1 ?
+                Arrays.copyOfRange(sparseValues, rowOffsets[rowId], rowOffsets[rowId + 1]) : null;
     }
 
     /**
-     * Get sparse cell values
+     * Get sparse cell values of all rows
      * @return
      */
-    public float[][] getSparseValues(){
+    public float[] getSparseValues(){
         return sparseValues;
     }
 
     /**
-     * Get column indices of given row id
+     * Get a copy of column indices of given row id,
+     * use {@link #getRowStart(int)} and {@link #getSparseColumns()} to avoid the copy
      * @param rowId
      * @return
      */
     public int[] getColumns(int rowId){
-        return rowId < columnIndices.length ? columnIndices[rowId] : null;
+        return rowId < rowOffsets.length - 1 ?
+                Arrays.copyOfRange(columnIndices, rowOffsets[rowId], rowOffsets[rowId + 1]) : null;
     }
 
     /**
-     * Get column indices
+     * Get column indices of all rows
      * @return
      */
-    public int[][] getSparseColumns(){
+    public int[] getSparseColumns(){
         return columnIndices;
     }
+
+    /**
+     * Get start position of each row in sparse columns and values
+     * @return
+     */
+    public int[] getRowOffsets(){
+        return rowOffsets;
+    }
 }
@@ -12,9 +12,6 @@ public class Statistics {
      */
     public static PartitionStatistics partition(int[] partition, ListMatrix matrix){
         PartitionStatistics statistics = new PartitionStatistics();
-        int[] rows = matrix.getRows();
-        int[] columns = matrix.getColumns();
-        float[] values = matrix.getValues();
         // Find partitions groupCount and initialize partitions size
         // when an entry is discarded, partitions "-1" exists in the input and must be excluded
         int hasDiscarded = Util.contains(-1, partition) ? 1 : 0;
@@ -29,29 +26,53 @@ public class Statistics {
         statistics.negativeCellValue = new double[statistics.maxGroupId + 1];
         statistics.size = arrayStatistics.frequency;
         // Calculate number of pairs per partitions
-        for(int p = 0 ; p < rows.length ; p++){
-            int rowGroupId = partition[rows[p]];
-            int columnGroupId = partition[columns[p]];
-            float value = values[p];
-            // Some rows/columns can be discarded with partitions = -1
-            // To include a pair, both ends must reside in the same partitions
-            if(rowGroupId < 0 || columnGroupId < 0){
-                statistics.discardedCellCount++;
-            } else if(rowGroupId == columnGroupId) {
-                statistics.cellCount[rowGroupId]++;
-                statistics.cellValue[rowGroupId] += value;
-                if(value > 0){
-                    statistics.positiveCellCount[rowGroupId]++;
-                    statistics.positiveCellValue[rowGroupId] += value;
-                } else if (value < 0){
-                    statistics.negativeCellCount[rowGroupId]++;
-                    statistics.negativeCellValue[rowGroupId] -=value;
+        if(matrix instanceof SparseMatrix && ((SparseMatrix) matrix).isListReleased()){
+            // traverse the sparse rows, since the list has been released
+            SparseMatrix sparseMatrix = (SparseMatrix) matrix;
+            int[] rowOffsets = sparseMatrix.getRowOffsets();
+            int[] columns = sparseMatrix.getSparseColumns();
+            float[] values = sparseMatrix.getSparseValues();
+            for(int row = 0 ; row < rowOffsets.length - 1 ; row++){
+                for(int p = rowOffsets[row] ; p < rowOffsets[row + 1] ; p++){
+                    addCell(statistics, partition[row], partition[columns[p]], values[p]);
                 }
             }
+        }else{
+            int[] rows = matrix.getRows();
+            int[] columns = matrix.getColumns();
+            float[] values = matrix.getValues();
+            for(int p = 0 ; p < rows.length ; p++){
+                addCell(statistics, partition[rows[p]], partition[columns[p]], values[p]);
+            }
         }
         return statistics;
     }
 
+    /**
+     * Add a (row, column, value) cell to the statistics of its partition
+     * @param statistics
+     * @param rowGroupId partition of the row
+     * @param columnGroupId partition of the column
+     * @param value
+     */
+    private static void addCell(PartitionStatistics statistics, int rowGroupId, int columnGroupId, float value){
+        // Some rows/columns can be discarded with partitions = -1
+        // To include a pair, both ends must reside in the same partitions
+        if(rowGroupId < 0 || columnGroupId < 0){
+            statistics.discardedCellCount++;
+        } else if(rowGroupId == columnGroupId) {
+            statistics.cellCount[rowGroupId]++;
+            statistics.cellValue[rowGroupId] += value;
+            if(value > 0){
+                statistics.positiveCellCount[rowGroupId]++;
+                statistics.positiveCellValue[rowGroupId] += value;
+            } else if (value < 0){
+                statistics.negativeCellCount[rowGroupId]++;
+                statistics.negativeCellValue[rowGroupId] -=value;
+            }
+        }
+    }
+
     /**
      * Number of unique values in all arrays, frequency of values, min and max of values
      * @param values
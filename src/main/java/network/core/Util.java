@@ -2,11 +2,21 @@ package network.core;
 
 import cern.colt.list.IntArrayList;
 import cern.colt.map.OpenIntIntHashMap;
+import network.utils.ArrayIdMap;
+import network.utils.HashIdMap;
+import network.utils.IdMap;
 
 import java.io.File;
+import java.util.BitSet;
 import java.util.Random;
 
 public class Util {
+
+    /**
+     * Id maps are array based when key range is at most this factor of the key count
+     */
+    public static final int DENSE_ID_FACTOR = 4;
+
     /**
      * Maximum of an integer in all given arrays
      * @param arrays
@@ -90,7 +100,7 @@ public class Util {
      * @param ids
      * @return
      */
-    public static OpenIntIntHashMap normalizeIds(int[] ids) {
+    public static IdMap normalizeIds(int[] ids) {
         int[][] idsArray = new int[1][ids.length];
         idsArray[0] = ids;
         return normalizeIds(idsArray);
@@ -152,11 +162,41 @@ public class Util {
      * @param ids
      * @return
      */
-    public static OpenIntIntHashMap normalizeIds(int[]... ids) {
-        int uniqueCount = Statistics.array(ids).uniqueCount;
-        OpenIntIntHashMap toNormal = new OpenIntIntHashMap(uniqueCount);
+    public static IdMap normalizeIds(int[]... ids) {
+        // Range of non-negative ids, negative ids are ignored
+        int minId = Integer.MAX_VALUE;
+        int maxId = Integer.MIN_VALUE;
+        long idCount = 0; // occurrences of ids, an upper bound of the unique ids
+        for (int[] id : ids) {
+            if (id == null) continue;
+            for (int rawId : id) {
+                if (rawId < 0) continue;
+                if (rawId < minId) minId = rawId;
+                if (rawId > maxId) maxId = rawId;
+            }
+            idCount += id.length;
+        }
+        if (maxId < 0) return new HashIdMap();
+        long range = (long) maxId - minId + 1;
+        // Occurrences bound the unique ids, if the range is dense enough for them
+        // the unique ids are counted on a bit set of the range (1/32 of the array map)
+        // before the array map is allocated
+        boolean isDense = false;
+        if (range <= DENSE_ID_FACTOR * idCount) {
+            BitSet isSeen = new BitSet((int) range);
+            for (int[] id : ids) {
+                if (id == null) continue;
+                for (int rawId : id) {
+                    if (rawId >= 0) isSeen.set(rawId - minId);
+                }
+            }
+            isDense = range <= (long) DENSE_ID_FACTOR * isSeen.cardinality();
+        }
+        IdMap toNormal = isDense ? new ArrayIdMap(minId, maxId)
+                : new HashIdMap((int) Math.min(idCount, 1 << 24));
         int normalizedId = 0;
         for (int[] id : ids) {
+            if (id == null) continue;
             for (int i = 0; i < id.length; i++) {
                 int rawId = id[i];
                 if (rawId >= 0 && !toNormal.containsKey(rawId)) {
@@ -167,13 +207,55 @@ public class Util {
         return toNormal;
     }
 
+    /**
+     * Map toRaw[i] to i for all i, toRaw values are assumed to be unique
+     * @param toRaw
+     * @return
+     */
+    public static IdMap inverse(int[] toRaw) {
+        return inverse(toRaw, 0, toRaw.length);
+    }
+
+    /**
+     * Map toRaw[i] to i for i in [from, to), toRaw values are assumed to be unique
+     * @param toRaw
+     * @param from
+     * @param to exclusive
+     * @return
+     */
+    public static IdMap inverse(int[] toRaw, int from, int to) {
+        int minId = Integer.MAX_VALUE;
+        int maxId = Integer.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            if (toRaw[i] < minId) minId = toRaw[i];
+            if (toRaw[i] > maxId) maxId = toRaw[i];
+        }
+        int count = Math.max(0, to - from);
+        IdMap toNormal = count > 0 && (long) maxId - minId + 1 <= (long) DENSE_ID_FACTOR * count
+                ? new ArrayIdMap(minId, maxId) : new HashIdMap(count);
+        for (int i = from; i < to; i++) {
+            toNormal.put(toRaw[i], i);
+        }
+        return toNormal;
+    }
+
     /**
      * Return a permutation of 0...size
      * Fisher-Yates shuffle, P(each permutation) = 1/(size!)
      * @param size
      */
     public static int[] permute(int size, int randomSeed){
-        int[] permutation = new int[size];
+        return permute(new int[size], size, randomSeed);
+    }
+
+    /**
+     * Fill the first size elements of permutation with a permutation of 0...size
+     * @param permutation buffer of at least size length
+     * @param size
+     * @param randomSeed
+     * @return permutation
+     */
+    public static int[] permute(int[] permutation, int size, int randomSeed){
         for(int p = 0; p < size ; p++){
             permutation[p] = p;
         }
@@ -0,0 +1,114 @@
+package network.extendedmapequation;
+
+import network.core.Util;
+
+import java.util.Arrays;
+
+/**
+ * Evaluates 5 evenly split resolutions of the interval, then narrows the interval
+ * to one step before and after the best resolution, so only 2 new resolutions
+ * are evaluated per halving: [1] [2] [3] -> [1] 4 [2] 5 [3]
+ */
+public class BracketSearch implements ResolutionSearch {
+
+    /**
+     * Number of resolutions chosen from the interval
+     */
+    private static final int COUNT = 5;
+
+    private float start;
+    private float length;
+    private float accuracy;
+
+    /**
+     * Resolutions of the current interval, and their description length (-1 if not evaluated)
+     */
+    private float[] resolutions;
+    private double[] mdl = Util.initArray(COUNT, -1.0);
+
+    /**
+     * Index of best resolution in the current interval
+     */
+    private int bestIndex = -1;
+    private double bestMdl = Double.POSITIVE_INFINITY;
+
+    private int evaluationCount;
+
+    /**
+     * @param start
+     * @param end
+     * @param accuracy search stops when the interval is not longer than this
+     */
+    public BracketSearch(float start, float end, float accuracy){
+        this.start = start;
+        this.length = end - start;
+        this.accuracy = accuracy;
+    }
+
+    @Override
+    public float[] next() {
+        if(length <= accuracy) return new float[0];
+        resolutions = Util.split(start, start + length, COUNT);
+        float[] pending = new float[COUNT];
+        int pendingCount = 0;
+        for(int r = 0 ; r < COUNT ; r++){
+            if(mdl[r] < 0) pending[pendingCount++] = resolutions[r];
+        }
+        return Arrays.copyOf(pending, pendingCount);
+    }
+
+    @Override
+    public void update(float[] evaluated, double[] evaluatedMdl) {
+        evaluationCount += evaluated.length;
+        for(int e = 0 ; e < evaluated.length ; e++){
+            int r = 0;
+            while(mdl[r] >= 0 || resolutions[r] != evaluated[e]) r++;
+            mdl[r] = evaluatedMdl[e];
+            if(mdl[r] < bestMdl){
+                bestMdl = mdl[r];
+                bestIndex = r;
+            }
+        }
+        if(bestIndex == 0) { // one interval ends was the best
+            length = resolutions[1] - start; // refine the first sub-interval
+            double secondMdl = mdl[1];
+            Arrays.fill(mdl, -1);
+            mdl[0] = bestMdl;
+            mdl[COUNT - 1] = secondMdl;
+        }else if (bestIndex == COUNT - 1){ // refine the last sub-interval
+            start = resolutions[COUNT - 2];
+            length = resolutions[COUNT - 1] - start;
+            double secondLastMdl = mdl[COUNT - 2];
+            Arrays.fill(mdl, -1);
+            mdl[0] = secondLastMdl;
+            mdl[COUNT - 1] = bestMdl;
+        } else { // best one is neither of both ends
+            // refine the solution from one step behind to one step after the best solution
+            start = resolutions[bestIndex - 1]; // start one step before best one
+            length = resolutions[bestIndex + 1] - start;
+            double firstMdl = mdl[bestIndex - 1];
+            double lastMdl = mdl[bestIndex + 1];
+            Arrays.fill(mdl, -1);
+            // replace the three evaluated resolutions again
+            bestIndex = COUNT / 2;
+            mdl[0] = firstMdl;
+            mdl[bestIndex] = bestMdl;
+            mdl[COUNT - 1] = lastMdl;
+        }
+    }
+
+    @Override
+    public float getStart() {
+        return start;
+    }
+
+    @Override
+    public float getEnd() {
+        return start + length;
+    }
+
+    @Override
+    public int getEvaluationCount() {
+        return evaluationCount;
+    }
+}
@@ -5,288 +5,255 @@ import network.core.*;
 import network.optimization.CPM;
 import network.optimization.CPMapParameters;
 import network.optimization.ObjectiveParameters;
+import network.utils.WorkerPool;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class CPMap {
 
     public static int[] detect(Graph graph, ObjectiveParameters CPMapParameters){
         CPMapParameters parameters = (CPMapParameters) CPMapParameters;
+        return detect(graph, parameters, newSearch(parameters));
+    }
+
+    /**
+     * Resolution search strategy of the parameters over its resolution interval
+     * @param parameters
+     * @return
+     */
+    public static ResolutionSearch newSearch(CPMapParameters parameters){
         float start = parameters.resolutionStart;
-        float length = parameters.resolutionEnd - start;
+        float end = parameters.resolutionEnd;
         float accuracy = parameters.resolutionAccuracy;
+        switch (parameters.search){
+            case CPMapParameters.SEARCH_GOLDEN:
+                return new GoldenSectionSearch(start, end, accuracy);
+            case CPMapParameters.SEARCH_LOG_SCAN:
+                return new LogScanSearch(start, end, accuracy);
+            default:
+                return new BracketSearch(start, end, accuracy);
+        }
+    }
+
+    /**
+     * Detect the partition of the resolution with minimum description length
+     * among the resolutions asked by the search strategy
+     * @param graph
+     * @param CPMapParameters
+     * @param search
+     * @return
+     */
+    public static int[] detect(Graph graph, ObjectiveParameters CPMapParameters, ResolutionSearch search){
+        CPMapParameters parameters = (CPMapParameters) CPMapParameters;
         int threadCount = parameters.threadCount;
-        // number of resolutions chosen from [start, start + length] to be evaluated
-        // only two (4 and 5) needs to be recalculated on each solution refinement:
-        // [1] [2] [3] -> [1] 4 [2] 5 [3]
-        int count = 5;
-        double[] mdl = Util.initArray(count, -1.0);// quality based on extended map equation
-        double[] hamil = Util.initArray(count, -1.0);// quality based on CPM
+        // Evaluated resolutions inside the search interval kept for warm start
+        TreeMap<Float, Evaluation> evaluated = new TreeMap<>();
         double bestMdl = Double.POSITIVE_INFINITY;
         float bestResolution = -1;
-        int bestIndex = -1; // index of best resolution in array
         int[] bestPartition = null;
-        CPM cpmDetector = (CPM) new CPM().setParams(parameters)
-                .setThreadCount(threadCount);
         SiGraph siGraph = new SiGraph(graph);
+        // Partition independent parts of the evaluation are shared by all resolutions
+        CPMapEvaluator evaluator = new CPMapEvaluator(graph);
+        // Resolutions of a batch are independent, so they are evaluated concurrently
+        // by the workers shared with the detection and stationary steps
+        WorkerPool pool = parameters.workerPool;
+        if(pool == null && threadCount > 1) pool = new WorkerPool(threadCount);
         Shared.log("CPMap started");
-        while(length > accuracy){
-            float[] resolutions = Util.split(start, start + length, count);
-            Shared.log("Search in [" + start + ", " + (start + length) + "]");
-            for(int r = 0 ; r < mdl.length ; r++){
-                if(mdl[r] >= 0) continue; // mdl has been calculated and compared before
-                parameters.resolution = resolutions[r];
-                Shared.log("---------------------------");
-                int[] partition = cpmDetector.setParams(parameters).detect(siGraph);
-                mdl[r] = CPMap.evaluate(graph, partition, parameters);
-                Shared.log(" Resolution: " + resolutions[r]);
-                Shared.log(" MDL: " + mdl[r]);
-                if(Shared.isVerbose()) {
-                    hamil[r] = cpmDetector.evaluate(graph, partition, parameters);
-                    Shared.log(" Hamiltonian(alpha="  + parameters.alpha + "): " + hamil[r]);
+        try {
+            float[] resolutions;
+            while((resolutions = search.next()).length > 0){
+                Shared.log("Search in [" + search.getStart() + ", " + search.getEnd() + "]");
+                if(parameters.warmStart){
+                    // Warm start goes from large to small resolutions,
+                    // since merging the finer groups of a larger resolution is easier than splitting
+                    Arrays.sort(resolutions);
+                    for(int r = 0 ; r < resolutions.length / 2 ; r++){
+                        float resolution = resolutions[r];
+                        resolutions[r] = resolutions[resolutions.length - 1 - r];
+                        resolutions[resolutions.length - 1 - r] = resolution;
+                    }
                 }
-                if(mdl[r] < bestMdl){
-                    bestPartition = partition;
-                    bestResolution = resolutions[r];
-                    bestMdl = mdl[r];
-                    bestIndex = r;
+                // Without warm start the partitions of a batch are evaluated together after the detections,
+                // so their stationary distributions are iterated in one pass over the links per step
+                boolean isBatchEvaluated = !parameters.warmStart && resolutions.length > 1;
+                // Threads are shared among the concurrent evaluations
+                int evaluationThreads = Math.max(1, threadCount / resolutions.length);
+                List<Future<Evaluation>> futures = new ArrayList<>(resolutions.length);
+                Evaluation[] evaluations = new Evaluation[resolutions.length];
+                for(int r = 0 ; r < resolutions.length ; r++){
+                    CPMapParameters resolutionParameters = parameters.clone();
+                    resolutionParameters.resolution = resolutions[r];
+                    resolutionParameters.threadCount = evaluationThreads;
+                    resolutionParameters.workerPool = pool;
+                    // Concurrent evaluations start from the evaluations of the previous batches only
+                    Evaluation nearest = parameters.warmStart ? nearestEvaluated(evaluated, resolutions[r]) : null;
+                    int[] initialPartition = nearest == null ? null : Util.normalizeValues(nearest.partition.clone());
+                    double[] seed = nearest == null ? null : nearest.stationary;
+                    if(pool != null && resolutions.length > 1){
+                        futures.add(pool.submit(() -> evaluate(evaluator, siGraph, initialPartition, seed,
+                                resolutionParameters, !isBatchEvaluated)));
+                    } else {
+                        futures.add(null);
+                        evaluations[r] = evaluate(evaluator, siGraph, initialPartition, seed,
+                                resolutionParameters, !isBatchEvaluated);
+                        evaluated.put(resolutions[r], evaluations[r]);
+                    }
                 }
+                for(int r = 0 ; r < resolutions.length ; r++){
+                    if(futures.get(r) != null) evaluations[r] = futures.get(r).get();
+                }
+                if(isBatchEvaluated){
+                    int[][] partitions = new int[resolutions.length][];
+                    for(int r = 0 ; r < resolutions.length ; r++){
+                        partitions[r] = evaluations[r].partition;
+                    }
+                    CPMapParameters batchParameters = parameters.clone();
+                    batchParameters.workerPool = pool;
+                    double[] batchMdl = evaluator.evaluate(partitions, batchParameters);
+                    for(int r = 0 ; r < resolutions.length ; r++){
+                        evaluations[r].mdl = batchMdl[r];
+                    }
+                }
+                double[] mdl = new double[resolutions.length];
+                for(int r = 0 ; r < resolutions.length ; r++){
+                    Evaluation evaluation = evaluations[r];
+                    int[] partition = evaluation.partition;
+                    parameters.resolution = resolutions[r];
+                    evaluated.put(resolutions[r], evaluation);
+                    mdl[r] = evaluation.mdl;
+                    Shared.log("---------------------------");
+                    Shared.log(" Resolution: " + resolutions[r]);
+                    Shared.log(" MDL: " + mdl[r]);
+                    if(Shared.isVerbose()){
+                        Shared.log(" Hamiltonian(alpha=" + parameters.alpha + "): " + evaluation.hamiltonian);
+                    }
+                    if(mdl[r] < bestMdl){
+                        bestPartition = partition;
+                        bestResolution = resolutions[r];
+                        bestMdl = mdl[r];
+                    }
+                }
+                search.update(resolutions, mdl);
+                // Evaluations out of the narrowed interval are not used anymore
+                evaluated.headMap(search.getStart(), false).clear();
+                evaluated.tailMap(search.getEnd(), false).clear();
             }
-            if(bestIndex == 0) { // one interval ends was the best
-                length = resolutions[1] - start; // refine the first sub-interval
-                double secondMdl = mdl[1];
-                Arrays.fill(mdl, -1);
-                mdl[0] = bestMdl;
-                mdl[mdl.length - 1] = secondMdl;
-            }else if (bestIndex == count - 1){
-                length = resolutions[1] - start;
-                double secondLastMdl = mdl[mdl.length - 2];
-                Arrays.fill(mdl, -1);
-                mdl[0] = secondLastMdl;
-                mdl[mdl.length - 1] = bestMdl;
-            } else { // best one is neither of both ends
-                // refine the solution from one step behind to one step after the best solution
-                start = resolutions[bestIndex - 1]; // start one step before best one
-                length = resolutions[bestIndex + 1] - start;
-                double firstMdl = mdl[bestIndex - 1];
-                double lastMdl = mdl[bestIndex + 1];
-                Arrays.fill(mdl, -1);
-                // replace the three evaluated resolutions again
-                bestIndex = count / 2;
-                mdl[0] = firstMdl;
-                mdl[bestIndex] = bestMdl;
-                mdl[count - 1] = lastMdl;
-            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        } finally {
+            if(pool != null && pool != parameters.workerPool) pool.close();
         }
         Shared.log("Best resolution: " + bestResolution);
         Shared.log("Best MDL: " + bestMdl);
+        Shared.log("Evaluated resolutions: " + search.getEvaluationCount());
         return bestPartition != null ? bestPartition : Util.ramp(graph.getNodeMaxId() + 1);
     }
 
-    public static double evaluate(Graph graph, int[] partition, ObjectiveParameters CPMapParameters) {
-        CPMapParameters parameters = (CPMapParameters) CPMapParameters;
-        CPMapStatistics statistics = reWeight(graph, partition);
-        // Teleport probabilities from each node to guarantee stationary state of G * p = p
-        int nodeIdRange = statistics.inWeight.length;
-        statistics.teleport = new double[nodeIdRange];
-        if(parameters.TELEPORT_TO_NODE || statistics.transition.isEmpty()){
-            double probability = 1.0f / nodeIdRange;
-            for(int nodeId = 0 ; nodeId < nodeIdRange ; nodeId++){
-                statistics.teleport[nodeId] = probability;
-            }
-        }else{
-            if(parameters.USE_RECORDED){
-                double totalInWeight = Util.sum(statistics.inWeight);
-                for(int nodeId = 0 ; nodeId < nodeIdRange ; nodeId++){
-                    statistics.teleport[nodeId] = statistics.inWeight[nodeId] / totalInWeight;
-                }
-            }else{
-                double totalOutWeight = Util.sum(statistics.outWeight);
-                for(int nodeId = 0 ; nodeId <  nodeIdRange; nodeId++){
-                    statistics.teleport[nodeId] = statistics.outWeight[nodeId] / totalOutWeight;
-                }
-            }
+    /**
+     * Detected partition of one resolution and its quality
+     */
+    private static class Evaluation {
+        int[] partition;
+        double mdl;
+        double hamiltonian = -1; // only calculated when verbose
+        double[] stationary; // kept for warm start only
+    }
+
+    /**
+     * Detect the partition of graph at the resolution of parameters and evaluate it,
+     * independent of other resolutions to be run concurrently
+     * @param evaluator evaluator of graph
+     * @param siGraph signed version of graph
+     * @param initialPartition partition to start the detection from, singletons if null
+     * @param seed distribution to start the stationary iterations from, uniform if null
+     * @param parameters
+     * @param isEvaluated if false, only the partition is detected and the description length is left to the caller
+     * @return
+     */
+    private static Evaluation evaluate(CPMapEvaluator evaluator, SiGraph siGraph, int[] initialPartition, double[] seed,
+                                       CPMapParameters parameters, boolean isEvaluated){
+        // Node sizes are set as attributes of the detected graph, and released lists of the type graphs
+        // are restored on demand, so each detection gets its own views of the type graphs
+        SiGraph detectedGraph = new SiGraph();
+        for(int typeId : new int[]{SiGraph.POSITIVE, SiGraph.NEGATIVE}){
+            Graph typeGraph = siGraph.getGraph(typeId);
+            detectedGraph.addGraph(typeId, typeGraph == null ? null : new Graph(typeGraph));
+        }
+        CPM cpmDetector = (CPM) new CPM().setParams(parameters)
+                .setThreadCount(parameters.threadCount).setWorkerPool(parameters.workerPool);
+        Evaluation evaluation = new Evaluation();
+        evaluation.partition = initialPartition == null ? cpmDetector.detect(detectedGraph)
+                : cpmDetector.detect(new MultiGraph[]{detectedGraph}, new int[][]{initialPartition})[0];
+        if(parameters.localMovingStatistics != null){
+            parameters.localMovingStatistics.add(cpmDetector.getLocalMovingStatistics());
         }
-        statistics = new Stationary(parameters.threadCount)
-                .visitProbabilities(statistics, partition, parameters.TAU);
-        // Calculate the description length of random step
-        // based visiting probabilities of nodes and groups
-        double descriptionLength;
-        if(parameters.USE_RECORDED){
-            descriptionLength = getDescriptionLength(
-                    statistics.nodeRecorded, statistics.groupRecorded, partition);
-        }else{
-            descriptionLength = getDescriptionLength(
-                    statistics.nodeUnRecorded, statistics.groupUnRecorded, partition);
+        if(isEvaluated){
+            Stationary stationary = newStationary(parameters).setSeed(seed);
+            evaluation.mdl = evaluator.evaluate(evaluation.partition, parameters, stationary);
+            if(parameters.warmStart) evaluation.stationary = stationary.getDistribution();
         }
-        return descriptionLength;
+        if(Shared.isVerbose()){
+            evaluation.hamiltonian = cpmDetector.evaluate(evaluator.getGraph(), evaluation.partition, parameters);
+        }
+        return evaluation;
+    }
+
+    /**
+     * Evaluation of the resolution nearest to the resolution, the larger one on a tie
+     * @param evaluated evaluation per evaluated resolution
+     * @param resolution
+     * @return null if no resolution is evaluated
+     */
+    private static Evaluation nearestEvaluated(TreeMap<Float, Evaluation> evaluated, float resolution){
+        Map.Entry<Float, Evaluation> lower = evaluated.floorEntry(resolution);
+        Map.Entry<Float, Evaluation> upper = evaluated.ceilingEntry(resolution);
+        if(lower == null) return upper == null ? null : upper.getValue();
+        if(upper == null) return lower.getValue();
+        return resolution - lower.getKey() < upper.getKey() - resolution ? lower.getValue() : upper.getValue();
+    }
+
+    public static double evaluate(Graph graph, int[] partition, ObjectiveParameters CPMapParameters) {
+        return evaluate(graph, partition, CPMapParameters, newStationary((CPMapParameters) CPMapParameters));
+    }
+
+    /**
+     * Stationary calculator configured by the parameters
+     * @param parameters
+     * @return
+     */
+    public static Stationary newStationary(CPMapParameters parameters){
+        return new Stationary(parameters.threadCount).setWorkerPool(parameters.workerPool)
+                .setTolerance(parameters.stationaryTolerance).setNorm(parameters.stationaryNorm)
+                .setMaxIterations(parameters.stationaryMaxIterations).setAitken(parameters.aitken);
     }
 
     /**
-     * Calculate discription length for given visiting probabilities and partitioning
-     * @param pNode
-     * @param pGroup
+     * Description length of the partition, using the stationary calculator
+     * @param graph
      * @param partition
+     * @param CPMapParameters
+     * @param stationary its distribution is available after the evaluation
      * @return
      */
-    private static double getDescriptionLength(
-            double[] pNode, double[] pGroup, int[] partition){
-        // Aggregate node visit probabilities based on their group ids
-        double[] pSum = Util.aggregate(pNode, partition);
-        double[] pTotal = Util.sum(pGroup, pSum, false);
-        double groupSum = Util.sum(pGroup);
-        // Avoid log(0) by replacing 0's with 1's resulting in log(1) = 0
-        if(groupSum == 0.0) groupSum = 1; // e.g. when there is no links and no teleportation
-        double distanceToZero = 0.00000000001; // 1 to 100 billion
-        Util.replace(pGroup, 0, 1, distanceToZero);
-        Util.replace(pTotal, 0, 1, distanceToZero);
-        Util.replace(pNode, 0, 1, distanceToZero);
-        // Description Length
-        double descriptionLength =
-                groupSum * Util.log2(groupSum)
-                - 2 * Util.dot(pGroup, Util.log2(pGroup))
-                + Util.dot(pTotal, Util.log2(pTotal))
-                - Util.dot(pNode, Util.log2(pNode));
-        return descriptionLength;
+    public static double evaluate(Graph graph, int[] partition, ObjectiveParameters CPMapParameters,
+                                  Stationary stationary) {
+        return new CPMapEvaluator(graph).evaluate(partition, (CPMapParameters) CPMapParameters, stationary);
     }
+
     /**
      * Re-weight the graph links based on the extended maps equation
      * @param graph
      * @param partition
      * @return re-weighted transition probability graph, negative teleport, in/out weight per nodeId
+     * @see CPMapEvaluator#reWeight(int[])
      */
     public static CPMapStatistics reWeight(Graph graph, int[] partition){
-        CPMapStatistics statistics = new CPMapStatistics();
-        float[][] weights = graph.getSparseValues();
-        Graph transition = graph.getTransitionProbability();
-        int nodeCount = transition.getNodeCount();
-        int groupRangeId = Util.max(partition) + 1;
-        /*
-            Queue of neighbor groups and their statistics for a specific nodeId
-            (groupId, positiveLink, negativeLink, outCoefficient, inCoefficient)
-            outCoefficient: positive external re-weight coefficients from nodeId to neighborGroupId
-            Node: this queue will be reset after processing each nodeId, for the next nodeId
-        */
-        double[][] groupQueue = new double[groupRangeId][];
-        int queueHead = 0; // Head of queue indicating the first empty cell of queue array to insert
-        /*
-            neighborGroupQueueIndex[ng] = q means group ng is a neighbor of current group g
-            and it is placed in position q of groupQueue
-         */
-        int[] neighborGroupQueueIndex = Util.initArray(groupRangeId, -1);
-        double[] inPositive = new double[nodeCount]; // node's positive weights inside its group
-        double[] inNegative = new double[nodeCount]; // node's negative weights inside its group
-        double[] totalPositive = new double[nodeCount]; // node's total positive weight
-        double[] backProbability = new double[nodeCount]; // backward probability of each node toward its group
-        double[] negativeTeleport = new double[nodeCount]; // negative teleport probability emitted from each node
-        double[] inWeight = new double[nodeCount]; // total weight toward nodeId after re-weight
-        double[] outWeight = new double[nodeCount]; // total weight from nodeId after re-weight
-        // inCoefficient: positive internal re-weight coefficients
-        double[] inCoefficient = new double[nodeCount];
-        // Use the transition weights for re-weighting and generation of re-weighted graph
-        float[][] reWeights = transition.getSparseValues();
-        for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
-            int groupId = partition[nodeId];
-            int[] neighbors = transition.getColumns(nodeId);
-            float[] neighborWeights = weights[nodeId];
-            for(int n  = 0 ; n < neighbors.length ; n++){
-                int neighborId = neighbors[n];
-                float weight = neighborWeights[n];
-                int neighborGroupId = partition[neighborId];
-                if(weight > 0) totalPositive[nodeId] += weight; // total positive weight from nodeId
-                if(groupId == neighborGroupId){ // link inside nodeId's group
-                    if(weight > 0) inPositive[nodeId] += weight;
-                    else inNegative[nodeId] -= weight;
-                }else{ // nodeId link toward neighbor groups
-                    // first time this neighbor is visited ?
-                    int neighborQueueIndex;
-                    if(neighborGroupQueueIndex[neighborGroupId] == -1){
-                        if(groupQueue[queueHead] == null) groupQueue[queueHead] = new double[4];
-                        groupQueue[queueHead][0] = neighborGroupId;
-                        neighborQueueIndex = neighborGroupQueueIndex[neighborGroupId] = queueHead;
-                        queueHead++;
-                    }else{
-                        neighborQueueIndex = neighborGroupQueueIndex[neighborGroupId];
-                    }
-                    if(weight > 0) groupQueue[neighborQueueIndex][1] += weight;
-                    else groupQueue[neighborQueueIndex][2] -= weight;
-                }
-            } // for nodeId's all neighbors
-            // Calculate backward probability of nodeId and outCoefficients of its neighbor groups
-            for(int queueIndex = 0 ; queueIndex < queueHead ; queueIndex++){
-                double[] neighborStatistics = groupQueue[queueIndex];
-                double positiveWeight = neighborStatistics[1];
-                double negativeWeight = neighborStatistics[2];
-                if(positiveWeight > 0){
-                    backProbability[nodeId] += Math.min(positiveWeight, negativeWeight) / totalPositive[nodeId];
-                    neighborStatistics[3] = Math.max(1 - negativeWeight / positiveWeight, 0);
-                }else{
-                    // node negative link toward neighbor group has coefficient 0
-                    neighborStatistics[3] = 0;
-                }
-            }
-            // Calculate negative teleport emitted from each node
-            negativeTeleport[nodeId] = backProbability[nodeId];
-            // This coefficient is used to re-weight each positive link of nodeId toward inside its group
-            if(inPositive[nodeId] > 0){
-                inCoefficient[nodeId] = (1 + totalPositive[nodeId]
-                        * backProbability[nodeId] / inPositive[nodeId])
-                        * Math.max(1 - inNegative[nodeId] / inPositive[nodeId], 0);
-                double internalProbability = inPositive[nodeId] / totalPositive[nodeId];
-                negativeTeleport[nodeId] += (1 - inCoefficient[nodeId]) * internalProbability;
-            }
-            // Re-weight the transition probability for (nodeId, neighborId) transitions
-            float[] reWeight = reWeights[nodeId];
-            for(int n = 0 ; n < neighbors.length ; n++){
-                float weight = reWeight[n]; // original probability (nodeId, neighborId)
-                if(weight <= 0) continue; // only positive weights are re-weighted
-                int neighborId = neighbors[n];
-                int neighborGroupId = partition[neighborId];
-                double probability;
-                if(groupId == neighborGroupId){ // internal positive
-                    probability = weight * inCoefficient[nodeId];
-                }else{ // external positive
-                    double outCoefficient = groupQueue[neighborGroupQueueIndex[neighborGroupId]][3];
-                    probability =  weight * outCoefficient;
-                }
-                reWeight[n] = (float) probability; // re-weighted probability (nodeId, neighborId)
-                double newWeight = probability * totalPositive[nodeId];
-                outWeight[nodeId] += newWeight;
-                inWeight[neighborId] += newWeight;
-            }
-            // Clear the data structures for tracking the neighbor groups of next node
-            for(int queueIndex = 0 ; queueIndex < queueHead ; queueIndex++){
-                neighborGroupQueueIndex[(int) groupQueue[queueIndex][0]] = -1;
-                for(int statisticsIndex = 0 ; statisticsIndex < 4 ; statisticsIndex++){
-                    groupQueue[queueIndex][statisticsIndex] = 0;
-                }
-            }
-            queueHead = 0; //reset queue header for next nodeId
-        } // for each node
-        // Total weight of negative teleports emitted
-        double totalNegativeTeleport = 0;
-        for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
-            //weight of  negative teleport from nodeId
-            double teleportWeight = totalPositive[nodeId] * negativeTeleport[nodeId];
-            if(teleportWeight > 0) {
-                totalNegativeTeleport += teleportWeight;
-                // Add negative teleport to out-weights of nodeId
-                outWeight[nodeId] += teleportWeight;
-            }
-        }
-        // Add negative teleports to in-weight of nodes
-        for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
-            inWeight[nodeId] += totalNegativeTeleport / nodeCount;
-        }
-        // remove zero weights from the re-weighted matrix (all negative and some positive weights)
-        ListMatrix transitionList = new ListMatrix()
-                .init(reWeights, transition.getSparseColumns(), true, graph.isNormalized());
-        statistics.negativeTeleport = negativeTeleport;
-        statistics.inWeight = inWeight;
-        statistics.outWeight = outWeight;
-        statistics.transition = new Graph(transitionList);
-        return statistics;
+        return new CPMapEvaluator(graph).reWeight(partition);
     }
-
-
 }
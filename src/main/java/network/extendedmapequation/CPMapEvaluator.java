@@ -0,0 +1,671 @@
+package network.extendedmapequation;
+
+import network.core.Graph;
+import network.core.ListMatrix;
+import network.core.Util;
+import network.optimization.CPMapParameters;
+import network.utils.WorkerPool;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Evaluates the description length of any number of partitions of one graph,
+ * transition probabilities, positive weight of nodes and the layout of re-weighted transitions
+ * do not depend on the partition, so they are calculated once per graph,
+ * each evaluation only writes the re-weighted transitions into a re-used buffer,
+ * partitions can be evaluated concurrently
+ */
+public class CPMapEvaluator {
+
+    /**
+     * Maximum number of partitions whose stationary distributions are iterated together,
+     * each partition of a block holds a re-weight buffer (a float per positive link),
+     * its float per positive link of the transposed transitions and 4 doubles per node
+     * of the interleaved vectors, so a block takes about K times the memory of one evaluation
+     */
+    public static final int MAX_BLOCK_SIZE = 8;
+
+    private Graph graph;
+
+    /**
+     * Transition probability of each cell of graph
+     */
+    private float[] probabilities;
+
+    /**
+     * Total positive weight of each node
+     */
+    private double[] totalPositive;
+
+    /**
+     * Layout of the re-weighted transitions, only links with positive transition probability
+     * may get a non-zero probability after re-weighting,
+     * links of node n are placed in [positiveOffsets[n], positiveOffsets[n + 1]) of positiveNeighbors
+     */
+    private int[] positiveOffsets;
+    private int[] positiveNeighbors;
+
+    /**
+     * Positive links toward node n are placed in [inOffsets[n], inOffsets[n + 1]) of inLinks
+     * as their positions in the positive links layout, ordered by the source node
+     */
+    private int[] inOffsets;
+    private int[] inLinks;
+
+    /**
+     * Re-weighted transition buffers of finished evaluations
+     */
+    private final ArrayDeque<float[]> buffers = new ArrayDeque<>();
+
+    /**
+     * Per positive link weight buffers of finished threaded re-weights,
+     * kept in double so the in-weights are summed exactly as in a single thread
+     */
+    private final ArrayDeque<double[]> linkWeightBuffers = new ArrayDeque<>();
+
+    /**
+     * Neighbor group queues of finished node ranges, re-used by the next ranges of any evaluation
+     */
+    private final ArrayDeque<GroupQueue> groupQueues = new ArrayDeque<>();
+
+    public CPMapEvaluator(Graph graph){
+        this.graph = graph;
+        Graph transition = graph.getTransitionProbability();
+        probabilities = transition.getSparseValues();
+        float[] weights = graph.getSparseValues();
+        int[] neighbors = graph.getSparseColumns();
+        int nodeCount = transition.getNodeCount();
+        totalPositive = new double[nodeCount];
+        positiveOffsets = new int[nodeCount + 1];
+        for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
+            int end = graph.getRowEnd(nodeId);
+            positiveOffsets[nodeId + 1] = positiveOffsets[nodeId];
+            for(int n = graph.getRowStart(nodeId) ; n < end ; n++){
+                if(weights[n] > 0) totalPositive[nodeId] += weights[n];
+                if(probabilities[n] > 0) positiveOffsets[nodeId + 1]++;
+            }
+        }
+        positiveNeighbors = new int[positiveOffsets[nodeCount]];
+        for(int nodeId = 0, p = 0 ; nodeId < nodeCount ; nodeId++){
+            int end = graph.getRowEnd(nodeId);
+            for(int n = graph.getRowStart(nodeId) ; n < end ; n++){
+                if(probabilities[n] > 0) positiveNeighbors[p++] = neighbors[n];
+            }
+        }
+    }
+
+    /**
+     * Description length of the partition
+     * @param partition
+     * @param parameters
+     * @return
+     */
+    public double evaluate(int[] partition, CPMapParameters parameters){
+        return evaluate(partition, parameters, CPMap.newStationary(parameters));
+    }
+
+    /**
+     * Description length of the partition, using the stationary calculator
+     * @param partition
+     * @param parameters
+     * @param stationary its distribution is available after the evaluation
+     * @return
+     */
+    public double evaluate(int[] partition, CPMapParameters parameters, Stationary stationary){
+        float[] reWeights = takeBuffer();
+        try {
+            CPMapStatistics statistics = reWeight(partition, reWeights,
+                    parameters.threadCount, parameters.workerPool);
+            setTeleport(statistics, parameters);
+            statistics = stationary.visitProbabilities(statistics, partition, parameters.TAU);
+            return getDescriptionLength(statistics, partition, parameters);
+        } finally {
+            putBuffer(reWeights);
+        }
+    }
+
+    /**
+     * Description length of each partition, stationary distributions of each block of
+     * at most {@link #MAX_BLOCK_SIZE} partitions are iterated together in one pass over the links per step
+     * @param partitions
+     * @param parameters
+     * @return
+     */
+    public double[] evaluate(int[][] partitions, CPMapParameters parameters){
+        double[] descriptionLengths = new double[partitions.length];
+        for(int from = 0 ; from < partitions.length ; from += MAX_BLOCK_SIZE){
+            int to = Math.min(partitions.length, from + MAX_BLOCK_SIZE);
+            float[] taus = new float[to - from];
+            Arrays.fill(taus, parameters.TAU);
+            double[] block = evaluate(Arrays.copyOfRange(partitions, from, to), taus,
+                    parameters, CPMap.newStationary(parameters));
+            System.arraycopy(block, 0, descriptionLengths, from, block.length);
+        }
+        return descriptionLengths;
+    }
+
+    /**
+     * Description length of each (partition, tau) pair, e.g. the same partition with different taus,
+     * stationary distributions of all the pairs are iterated together in one pass over the links per step,
+     * the pairs are one block, see {@link #MAX_BLOCK_SIZE} for its memory
+     * @param partitions
+     * @param taus tau per partition
+     * @param parameters
+     * @param stationary its iteration count per partition is available after the evaluation
+     * @return
+     */
+    public double[] evaluate(int[][] partitions, float[] taus, CPMapParameters parameters, Stationary stationary){
+        int K = partitions.length;
+        float[][] reWeights = new float[K][];
+        try {
+            CPMapStatistics[] statistics = new CPMapStatistics[K];
+            for(int k = 0 ; k < K ; k++){
+                reWeights[k] = takeBuffer();
+                statistics[k] = reWeight(partitions[k], reWeights[k],
+                        parameters.threadCount, parameters.workerPool);
+                setTeleport(statistics[k], parameters);
+            }
+            statistics = stationary.visitProbabilities(statistics, partitions, taus);
+            double[] descriptionLengths = new double[K];
+            for(int k = 0 ; k < K ; k++){
+                descriptionLengths[k] = getDescriptionLength(statistics[k], partitions[k], parameters);
+            }
+            return descriptionLengths;
+        } finally {
+            for(float[] buffer : reWeights){
+                if(buffer != null) putBuffer(buffer);
+            }
+        }
+    }
+
+    /**
+     * Teleport probabilities from each node to guarantee stationary state of G * p = p
+     * @param statistics
+     * @param parameters
+     */
+    private static void setTeleport(CPMapStatistics statistics, CPMapParameters parameters){
+        int nodeIdRange = statistics.inWeight.length;
+        statistics.teleport = new double[nodeIdRange];
+        if(parameters.TELEPORT_TO_NODE || statistics.transition.isEmpty()){
+            double probability = 1.0f / nodeIdRange;
+            for(int nodeId = 0 ; nodeId < nodeIdRange ; nodeId++){
+                statistics.teleport[nodeId] = probability;
+            }
+        }else{
+            if(parameters.USE_RECORDED){
+                double totalInWeight = Util.sum(statistics.inWeight);
+                for(int nodeId = 0 ; nodeId < nodeIdRange ; nodeId++){
+                    statistics.teleport[nodeId] = statistics.inWeight[nodeId] / totalInWeight;
+                }
+            }else{
+                double totalOutWeight = Util.sum(statistics.outWeight);
+                for(int nodeId = 0 ; nodeId <  nodeIdRange; nodeId++){
+                    statistics.teleport[nodeId] = statistics.outWeight[nodeId] / totalOutWeight;
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculate the description length of random step
+     * based visiting probabilities of nodes and groups
+     * @param statistics
+     * @param partition
+     * @param parameters
+     * @return
+     */
+    private static double getDescriptionLength(CPMapStatistics statistics, int[] partition,
+                                               CPMapParameters parameters){
+        if(parameters.USE_RECORDED){
+            return getDescriptionLength(statistics.nodeRecorded, statistics.groupRecorded, partition);
+        }else{
+            return getDescriptionLength(statistics.nodeUnRecorded, statistics.groupUnRecorded, partition);
+        }
+    }
+
+    /**
+     * Calculate discription length for given visiting probabilities and partitioning
+     * @param pNode
+     * @param pGroup
+     * @param partition
+     * @return
+     */
+    private static double getDescriptionLength(
+            double[] pNode, double[] pGroup, int[] partition){
+        // Aggregate node visit probabilities based on their group ids
+        double[] pSum = Util.aggregate(pNode, partition);
+        double[] pTotal = Util.sum(pGroup, pSum, false);
+        double groupSum = Util.sum(pGroup);
+        // Avoid log(0) by replacing 0's with 1's resulting in log(1) = 0
+        if(groupSum == 0.0) groupSum = 1; // e.g. when there is no links and no teleportation
+        double distanceToZero = 0.00000000001; // 1 to 100 billion
+        Util.replace(pGroup, 0, 1, distanceToZero);
+        Util.replace(pTotal, 0, 1, distanceToZero);
+        Util.replace(pNode, 0, 1, distanceToZero);
+        // Description Length
+        double descriptionLength =
+                groupSum * Util.log2(groupSum)
+                - 2 * Util.dot(pGroup, Util.log2(pGroup))
+                + Util.dot(pTotal, Util.log2(pTotal))
+                - Util.dot(pNode, Util.log2(pNode));
+        return descriptionLength;
+    }
+
+    /**
+     * Re-weight the graph links based on the extended maps equation
+     * @param partition
+     * @return re-weighted transition probability graph without zero links,
+     * negative teleport, in/out weight per nodeId
+     */
+    public CPMapStatistics reWeight(int[] partition){
+        return reWeight(partition, 1, null);
+    }
+
+    /**
+     * Re-weight the graph links based on the extended maps equation, nodes are re-weighted in parallel
+     * @param partition
+     * @param threadCount
+     * @param workerPool workers of the node ranges, threads are created per call if null
+     * @return re-weighted transition probability graph without zero links,
+     * negative teleport, in/out weight per nodeId
+     */
+    public CPMapStatistics reWeight(int[] partition, int threadCount, WorkerPool workerPool){
+        float[] reWeights = new float[positiveNeighbors.length];
+        CPMapStatistics statistics = reWeight(partition, reWeights, threadCount, workerPool);
+        // remove the links re-weighted to zero
+        statistics.transition = new Graph(new ListMatrix()
+                .init(positiveOffsets, positiveNeighbors, reWeights, true, graph.isNormalized()));
+        return statistics;
+    }
+
+    /**
+     * Re-weight the graph links based on the extended maps equation,
+     * nodes are split into ranges of almost equal number of links, each re-weighted by one worker
+     * with its own queue of neighbor groups, every per node output is written only by the worker of the node,
+     * weights toward nodes and the total negative teleport are summed in the order of nodes
+     * as in a single thread, so the result does not depend on the number of threads
+     * @param partition
+     * @param reWeights re-weighted transition probabilities are written here in the positive links layout
+     * @param threadCount
+     * @param workerPool workers of the ranges, threads are created per call if null
+     * @return re-weighted transition probability graph, negative teleport, in/out weight per nodeId
+     */
+    private CPMapStatistics reWeight(int[] partition, float[] reWeights, int threadCount, WorkerPool workerPool){
+        CPMapStatistics statistics = new CPMapStatistics();
+        int nodeCount = totalPositive.length;
+        int groupRangeId = Util.max(partition) + 1;
+        double[] negativeTeleport = new double[nodeCount]; // negative teleport probability emitted from each node
+        double[] inWeight = new double[nodeCount]; // total weight toward nodeId after re-weight
+        double[] outWeight = new double[nodeCount]; // total weight from nodeId after re-weight
+        int[] ranges = ranges(graph.getRowOffsets(), nodeCount, threadCount);
+        int rangeCount = ranges.length - 1;
+        if(rangeCount <= 1){
+            new RangeReWeight(partition, groupRangeId, reWeights, negativeTeleport, outWeight,
+                    inWeight, null, 0, nodeCount).run();
+        }else{
+            // Weight of each positive link after re-weight, summed toward the neighbors after all ranges are done
+            // every positive link is written by its range, so a re-used buffer needs no clearing
+            double[] linkWeights = takeLinkWeights();
+            try {
+                Runnable[] tasks = new Runnable[rangeCount];
+                for(int r = 0 ; r < rangeCount ; r++){
+                    tasks[r] = new RangeReWeight(partition, groupRangeId, reWeights, negativeTeleport, outWeight,
+                            null, linkWeights, ranges[r], ranges[r + 1]);
+                }
+                run(tasks, workerPool);
+                int[] inRanges = ranges(getInOffsets(), nodeCount, threadCount);
+                tasks = new Runnable[inRanges.length - 1];
+                for(int r = 0 ; r < tasks.length ; r++){
+                    tasks[r] = new InWeightSum(linkWeights, inWeight, inRanges[r], inRanges[r + 1]);
+                }
+                run(tasks, workerPool);
+            } finally {
+                putLinkWeights(linkWeights);
+            }
+        }
+        // Total weight of negative teleports emitted
+        double totalNegativeTeleport = 0;
+        for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
+            //weight of  negative teleport from nodeId
+            double teleportWeight = totalPositive[nodeId] * negativeTeleport[nodeId];
+            if(teleportWeight > 0) {
+                totalNegativeTeleport += teleportWeight;
+                // Add negative teleport to out-weights of nodeId
+                outWeight[nodeId] += teleportWeight;
+            }
+        }
+        // Add negative teleports to in-weight of nodes
+        for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
+            inWeight[nodeId] += totalNegativeTeleport / nodeCount;
+        }
+        // links re-weighted to zero are kept in the layout, but not counted as links
+        statistics.negativeTeleport = negativeTeleport;
+        statistics.inWeight = inWeight;
+        statistics.outWeight = outWeight;
+        statistics.transition = (Graph) new Graph().init(positiveOffsets, positiveNeighbors, reWeights);
+        return statistics;
+    }
+
+    /**
+     * Re-weights the links of a range of nodes
+     */
+    private class RangeReWeight implements Runnable {
+        private int[] partition;
+        private float[] reWeights;
+        private double[] negativeTeleport;
+        private double[] outWeight;
+        /**
+         * New weights are added to inWeight of the neighbors if set,
+         * otherwise written per positive link into linkWeights
+         */
+        private double[] inWeight;
+        private double[] linkWeights;
+        private int groupRangeId;
+        private int fromNode;
+        private int toNode;
+
+        private RangeReWeight(int[] partition, int groupRangeId, float[] reWeights, double[] negativeTeleport,
+                              double[] outWeight, double[] inWeight, double[] linkWeights, int fromNode, int toNode){
+            this.partition = partition;
+            this.reWeights = reWeights;
+            this.negativeTeleport = negativeTeleport;
+            this.outWeight = outWeight;
+            this.inWeight = inWeight;
+            this.linkWeights = linkWeights;
+            this.groupRangeId = groupRangeId;
+            this.fromNode = fromNode;
+            this.toNode = toNode;
+        }
+
+        @Override
+        public void run() {
+            // A node has at most one neighbor group per link
+            int maxDegree = 0;
+            for(int nodeId = fromNode ; nodeId < toNode ; nodeId++){
+                maxDegree = Math.max(maxDegree, graph.getRowEnd(nodeId) - graph.getRowStart(nodeId));
+            }
+            GroupQueue queue = takeGroupQueue(groupRangeId, maxDegree);
+            run(queue.groups, queue.queueIndex);
+            // the queue is cleared after each node, so it is not re-used if the range fails midway
+            putGroupQueue(queue);
+        }
+
+        /**
+         * @param groupQueue queue of neighbor groups and their statistics for a specific nodeId
+         *                   (groupId, positiveLink, negativeLink, outCoefficient)
+         *                   outCoefficient: positive external re-weight coefficients from nodeId to neighborGroupId
+         *                   Node: this queue will be reset after processing each nodeId, for the next nodeId
+         * @param neighborGroupQueueIndex neighborGroupQueueIndex[ng] = q means group ng is a neighbor
+         *                                of current group g and it is placed in position q of groupQueue
+         */
+        private void run(double[][] groupQueue, int[] neighborGroupQueueIndex) {
+            float[] weights = graph.getSparseValues();
+            int[] neighbors = graph.getSparseColumns();
+            int queueHead = 0; // Head of queue indicating the first empty cell of queue array to insert
+            for(int nodeId = fromNode ; nodeId < toNode ; nodeId++){
+                int groupId = partition[nodeId];
+                int start = graph.getRowStart(nodeId);
+                int end = graph.getRowEnd(nodeId);
+                double inPositive = 0; // node's positive weights inside its group
+                double inNegative = 0; // node's negative weights inside its group
+                double backProbability = 0; // backward probability of node toward its group
+                double inCoefficient = 0; // positive internal re-weight coefficient
+                for(int n  = start ; n < end ; n++){
+                    int neighborId = neighbors[n];
+                    float weight = weights[n];
+                    int neighborGroupId = partition[neighborId];
+                    if(groupId == neighborGroupId){ // link inside nodeId's group
+                        if(weight > 0) inPositive += weight;
+                        else inNegative -= weight;
+                    }else{ // nodeId link toward neighbor groups
+                        // first time this neighbor is visited ?
+                        int neighborQueueIndex;
+                        if(neighborGroupQueueIndex[neighborGroupId] == -1){
+                            if(groupQueue[queueHead] == null) groupQueue[queueHead] = new double[4];
+                            groupQueue[queueHead][0] = neighborGroupId;
+                            neighborQueueIndex = neighborGroupQueueIndex[neighborGroupId] = queueHead;
+                            queueHead++;
+                        }else{
+                            neighborQueueIndex = neighborGroupQueueIndex[neighborGroupId];
+                        }
+                        if(weight > 0) groupQueue[neighborQueueIndex][1] += weight;
+                        else groupQueue[neighborQueueIndex][2] -= weight;
+                    }
+                } // for nodeId's all neighbors
+                // Calculate backward probability of nodeId and outCoefficients of its neighbor groups
+                for(int queueIndex = 0 ; queueIndex < queueHead ; queueIndex++){
+                    double[] neighborStatistics = groupQueue[queueIndex];
+                    double positiveWeight = neighborStatistics[1];
+                    double negativeWeight = neighborStatistics[2];
+                    if(positiveWeight > 0){
+                        backProbability += Math.min(positiveWeight, negativeWeight) / totalPositive[nodeId];
+                        neighborStatistics[3] = Math.max(1 - negativeWeight / positiveWeight, 0);
+                    }else{
+                        // node negative link toward neighbor group has coefficient 0
+                        neighborStatistics[3] = 0;
+                    }
+                }
+                // Calculate negative teleport emitted from each node
+                negativeTeleport[nodeId] = backProbability;
+                // This coefficient is used to re-weight each positive link of nodeId toward inside its group
+                if(inPositive > 0){
+                    inCoefficient = (1 + totalPositive[nodeId] * backProbability / inPositive)
+                            * Math.max(1 - inNegative / inPositive, 0);
+                    double internalProbability = inPositive / totalPositive[nodeId];
+                    negativeTeleport[nodeId] += (1 - inCoefficient) * internalProbability;
+                }
+                // Re-weight the transition probability for (nodeId, neighborId) transitions
+                for(int n = start, p = positiveOffsets[nodeId] ; n < end ; n++){
+                    float weight = probabilities[n]; // original probability (nodeId, neighborId)
+                    if(weight <= 0) continue; // only positive weights are re-weighted
+                    int neighborId = neighbors[n];
+                    int neighborGroupId = partition[neighborId];
+                    double probability;
+                    if(groupId == neighborGroupId){ // internal positive
+                        probability = weight * inCoefficient;
+                    }else{ // external positive
+                        double outCoefficient = groupQueue[neighborGroupQueueIndex[neighborGroupId]][3];
+                        probability =  weight * outCoefficient;
+                    }
+                    double newWeight = probability * totalPositive[nodeId];
+                    outWeight[nodeId] += newWeight;
+                    if(inWeight != null){
+                        inWeight[neighborId] += newWeight;
+                    }else{
+                        linkWeights[p] = newWeight;
+                    }
+                    reWeights[p++] = (float) probability; // re-weighted probability (nodeId, neighborId)
+                }
+                // Clear the data structures for tracking the neighbor groups of next node
+                for(int queueIndex = 0 ; queueIndex < queueHead ; queueIndex++){
+                    neighborGroupQueueIndex[(int) groupQueue[queueIndex][0]] = -1;
+                    for(int statisticsIndex = 0 ; statisticsIndex < 4 ; statisticsIndex++){
+                        groupQueue[queueIndex][statisticsIndex] = 0;
+                    }
+                }
+                queueHead = 0; //reset queue header for next nodeId
+            } // for each node
+        }
+    }
+
+    /**
+     * Neighbor groups of a node and the queue index of each group,
+     * indices are all -1 between nodes, so they are kept for the next re-weights
+     */
+    private static class GroupQueue {
+        private double[][] groups = new double[0][];
+        private int[] queueIndex = new int[0];
+
+        /**
+         * Grow the queue for groupRangeId groups and nodes of at most maxDegree neighbor groups
+         * @param groupRangeId
+         * @param maxDegree
+         */
+        private void ensure(int groupRangeId, int maxDegree){
+            if(queueIndex.length < groupRangeId){
+                int length = queueIndex.length;
+                queueIndex = Arrays.copyOf(queueIndex, groupRangeId);
+                Arrays.fill(queueIndex, length, groupRangeId, -1);
+            }
+            if(groups.length < maxDegree){
+                groups = Arrays.copyOf(groups, maxDegree);
+            }
+        }
+    }
+
+    /**
+     * Group queue not used by other node ranges, grown for the partition and the range
+     * @param groupRangeId
+     * @param maxDegree
+     * @return
+     */
+    private GroupQueue takeGroupQueue(int groupRangeId, int maxDegree){
+        GroupQueue queue;
+        synchronized (groupQueues){
+            queue = groupQueues.poll();
+        }
+        if(queue == null) queue = new GroupQueue();
+        queue.ensure(groupRangeId, maxDegree);
+        return queue;
+    }
+
+    private void putGroupQueue(GroupQueue queue){
+        synchronized (groupQueues){
+            groupQueues.push(queue);
+        }
+    }
+
+    /**
+     * Sums the new weights of positive links toward each node of a range,
+     * in-links are added in the order of their source nodes as the single thread scatter does
+     */
+    private class InWeightSum implements Runnable {
+        private double[] linkWeights;
+        private double[] inWeight;
+        private int fromNode;
+        private int toNode;
+
+        private InWeightSum(double[] linkWeights, double[] inWeight, int fromNode, int toNode){
+            this.linkWeights = linkWeights;
+            this.inWeight = inWeight;
+            this.fromNode = fromNode;
+            this.toNode = toNode;
+        }
+
+        @Override
+        public void run() {
+            for(int nodeId = fromNode ; nodeId < toNode ; nodeId++){
+                double sum = 0;
+                int end = inOffsets[nodeId + 1];
+                for(int i = inOffsets[nodeId] ; i < end ; i++){
+                    sum += linkWeights[inLinks[i]];
+                }
+                inWeight[nodeId] = sum;
+            }
+        }
+    }
+
+    /**
+     * In-links of the positive links layout, built on the first parallel re-weight
+     * @return
+     */
+    private synchronized int[] getInOffsets(){
+        if(inOffsets == null){
+            int nodeCount = positiveOffsets.length - 1;
+            int[] offsets = new int[nodeCount + 1];
+            for(int p = 0 ; p < positiveNeighbors.length ; p++){
+                offsets[positiveNeighbors[p] + 1]++;
+            }
+            for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
+                offsets[nodeId + 1] += offsets[nodeId];
+            }
+            inLinks = new int[positiveNeighbors.length];
+            int[] occupied = Arrays.copyOf(offsets, nodeCount);
+            for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
+                for(int p = positiveOffsets[nodeId] ; p < positiveOffsets[nodeId + 1] ; p++){
+                    inLinks[occupied[positiveNeighbors[p]]++] = p;
+                }
+            }
+            inOffsets = offsets;
+        }
+        return inOffsets;
+    }
+
+    /**
+     * Split nodes into at most threadCount ranges of almost equal number of nodes plus links
+     * @param offsets links of node n are placed in [offsets[n], offsets[n + 1])
+     * @param nodeCount
+     * @param threadCount
+     * @return range r is [ranges[r], ranges[r + 1])
+     */
+    private static int[] ranges(int[] offsets, int nodeCount, int threadCount){
+        int rangeCount = Math.max(1, Math.min(threadCount, nodeCount));
+        long load = (long) nodeCount + offsets[nodeCount] - offsets[0];
+        int[] ranges = new int[rangeCount + 1];
+        int to = 0;
+        for(int r = 0 ; r < rangeCount ; r++){
+            long rangeEnd = load * (r + 1) / rangeCount;
+            while(to < nodeCount && (r == rangeCount - 1 || to + (long) offsets[to] - offsets[0] < rangeEnd)){
+                to++;
+            }
+            ranges[r + 1] = to;
+        }
+        return ranges;
+    }
+
+    /**
+     * Run the tasks on the workers of the pool, or on threads created for them if the pool is null
+     * @param tasks
+     * @param workerPool
+     */
+    private static void run(Runnable[] tasks, WorkerPool workerPool){
+        if(tasks.length == 1){
+            tasks[0].run();
+        }else if(workerPool != null){
+            workerPool.run(tasks);
+        }else{
+            try(WorkerPool pool = new WorkerPool(tasks.length)){
+                pool.run(tasks);
+            }
+        }
+    }
+
+    /**
+     * Buffer of re-weighted transitions not used by other evaluations
+     * @return
+     */
+    private float[] takeBuffer(){
+        synchronized (buffers){
+            float[] buffer = buffers.poll();
+            return buffer != null ? buffer : new float[positiveNeighbors.length];
+        }
+    }
+
+    private void putBuffer(float[] buffer){
+        synchronized (buffers){
+            buffers.push(buffer);
+        }
+    }
+
+    /**
+     * Per positive link weight buffer not used by other re-weights
+     * @return
+     */
+    private double[] takeLinkWeights(){
+        synchronized (linkWeightBuffers){
+            double[] buffer = linkWeightBuffers.poll();
+            return buffer != null ? buffer : new double[positiveNeighbors.length];
+        }
+    }
+
+    private void putLinkWeights(double[] buffer){
+        synchronized (linkWeightBuffers){
+            linkWeightBuffers.push(buffer);
+        }
+    }
+
+    public Graph getGraph() {
+        return graph;
+    }
+}
@@ -0,0 +1,85 @@
+package network.extendedmapequation;
+
+/**
+ * Golden-section search of the interval [a, b] with two inner resolutions c < d,
+ * the part beyond the worse inner resolution is cut, and the kept inner resolution is reused,
+ * so only 1 new resolution is evaluated per 0.618 shrink of the interval,
+ * description length is assumed to be unimodal over the interval
+ */
+public class GoldenSectionSearch implements ResolutionSearch {
+
+    /**
+     * 1 / golden ratio
+     */
+    private static final double INVERSE_PHI = (Math.sqrt(5) - 1) / 2;
+
+    private float a;
+    private float b;
+    private float c;
+    private float d;
+    private double mdlC = -1;
+    private double mdlD = -1;
+    private float accuracy;
+
+    private int evaluationCount;
+
+    /**
+     * @param start
+     * @param end
+     * @param accuracy search stops when the interval is not longer than this
+     */
+    public GoldenSectionSearch(float start, float end, float accuracy){
+        this.a = start;
+        this.b = end;
+        this.accuracy = accuracy;
+        this.c = (float) (b - INVERSE_PHI * (b - a));
+        this.d = (float) (a + INVERSE_PHI * (b - a));
+    }
+
+    @Override
+    public float[] next() {
+        if(b - a <= accuracy) return new float[0];
+        if(mdlC < 0 && mdlD < 0) return new float[]{c, d};
+        return mdlC < 0 ? new float[]{c} : new float[]{d};
+    }
+
+    @Override
+    public void update(float[] resolutions, double[] mdl) {
+        evaluationCount += resolutions.length;
+        for(int r = 0 ; r < resolutions.length ; r++){
+            if(resolutions[r] == c && mdlC < 0){
+                mdlC = mdl[r];
+            }else{
+                mdlD = mdl[r];
+            }
+        }
+        if(mdlC <= mdlD){ // minimum is in [a, d]
+            b = d;
+            d = c;
+            mdlD = mdlC;
+            c = (float) (b - INVERSE_PHI * (b - a));
+            mdlC = -1;
+        }else{ // minimum is in [c, b]
+            a = c;
+            c = d;
+            mdlC = mdlD;
+            d = (float) (a + INVERSE_PHI * (b - a));
+            mdlD = -1;
+        }
+    }
+
+    @Override
+    public float getStart() {
+        return a;
+    }
+
+    @Override
+    public float getEnd() {
+        return b;
+    }
+
+    @Override
+    public int getEvaluationCount() {
+        return evaluationCount;
+    }
+}
@@ -0,0 +1,94 @@
+package network.extendedmapequation;
+
+/**
+ * Coarse scan of resolutions evenly split in log-scale, as good resolutions of small and large graphs
+ * differ in orders of magnitude, followed by a golden-section search
+ * between the neighbors of the best scanned resolution
+ */
+public class LogScanSearch implements ResolutionSearch {
+
+    /**
+     * Default number of scanned resolutions
+     */
+    public static final int SCAN_COUNT = 6;
+
+    /**
+     * Scanned resolutions, and the best one after the scan
+     */
+    private float[] scan;
+    private int bestIndex = -1;
+    private double bestMdl = Double.POSITIVE_INFINITY;
+    private float accuracy;
+
+    /**
+     * Local refinement around the best scanned resolution, null during the scan
+     */
+    private GoldenSectionSearch refinement;
+
+    private int scanCount;
+
+    public LogScanSearch(float start, float end, float accuracy){
+        this(start, end, accuracy, SCAN_COUNT);
+    }
+
+    /**
+     * @param start a non-positive start is replaced with end / 1000 for the log-scale
+     * @param end
+     * @param accuracy search stops when the refined interval is not longer than this
+     * @param scanCount number of scanned resolutions
+     */
+    public LogScanSearch(float start, float end, float accuracy, int scanCount){
+        this.accuracy = accuracy;
+        double low = start > 0 ? start : end / 1000.0;
+        double ratio = Math.pow(end / low, 1.0 / Math.max(1, scanCount - 1));
+        scan = new float[scanCount];
+        for(int s = 0 ; s < scanCount ; s++){
+            scan[s] = (float) (low * Math.pow(ratio, s));
+        }
+        scan[0] = start; // keep the given interval ends exactly
+        scan[scanCount - 1] = end;
+    }
+
+    @Override
+    public float[] next() {
+        if(refinement == null) return scan.clone();
+        return refinement.next();
+    }
+
+    @Override
+    public void update(float[] resolutions, double[] mdl) {
+        if(refinement != null){
+            refinement.update(resolutions, mdl);
+            return;
+        }
+        scanCount = resolutions.length;
+        for(int r = 0 ; r < resolutions.length ; r++){
+            if(mdl[r] < bestMdl){
+                bestMdl = mdl[r];
+                for(int s = 0 ; s < scan.length ; s++){
+                    if(scan[s] == resolutions[r]) bestIndex = s;
+                }
+            }
+        }
+        bestIndex = Math.max(0, bestIndex);
+        // Refine between the scanned neighbors of the best resolution
+        float start = scan[Math.max(0, bestIndex - 1)];
+        float end = scan[Math.min(scan.length - 1, bestIndex + 1)];
+        refinement = new GoldenSectionSearch(start, end, accuracy);
+    }
+
+    @Override
+    public float getStart() {
+        return refinement != null ? refinement.getStart() : scan[0];
+    }
+
+    @Override
+    public float getEnd() {
+        return refinement != null ? refinement.getEnd() : scan[scan.length - 1];
+    }
+
+    @Override
+    public int getEvaluationCount() {
+        return scanCount + (refinement != null ? refinement.getEvaluationCount() : 0);
+    }
+}
@@ -1,11 +1,17 @@
 package network.extendedmapequation;
 
 import network.core.SparseMatrix;
-import network.core.Util;
+import network.utils.WorkerPool;
+
+import java.util.Arrays;
 
 /**
  * Calculates P * G matrix multiplication in parallel
- * where matrix G is row-based sparse
+ * where matrix G is row-based sparse,
+ * G is transposed once so each thread gathers the in-links of its own range of nodes
+ * and writes them into the shared result without per thread partial results,
+ * K distributions of K transitions sharing the same sparse rows can be multiplied together,
+ * value k of node n is placed at n * K + k, so one pass over the in-links serves all of them
  */
 public class ParallelStationary implements Runnable {
     /**
@@ -14,23 +20,63 @@ public class ParallelStationary implements Runnable {
     private int threadCount;
 
     /**
-     * Thread groupCount is set toRow one by default
+     * Worker threads shared by the session, threads are created per multiplication if null
+     */
+    private WorkerPool workerPool;
+
+    /**
+     * Transition matrices of the transposed in-links, k-th transition is identity if it is empty
+     */
+    private SparseMatrix[] transitions;
+    private boolean[] isIdentity;
+
+    /**
+     * Number of distributions multiplied together (K)
+     */
+    private int vectorCount;
+
+    /**
+     * In-links of node n are placed in [inOffsets[n], inOffsets[n + 1]) of inNeighbors
+     * ordered by the neighbor id, so the sums are added in the same order for any number of threads,
+     * probability of in-link i in k-th transition is placed at i * K + k of inProbabilities,
+     * which takes K floats per link on top of the transitions, see {@link CPMapEvaluator#MAX_BLOCK_SIZE}
      */
+    private int[] inOffsets;
+    private int[] inNeighbors;
+    private float[] inProbabilities;
 
     /**
-     * Transition matrix for multiplication
+     * One multiplier per range of nodes, kept for all the multiplications of the transition
      */
-    private SparseMatrix transition;
+    private ParallelStationary[] multipliers;
 
     /**
-     * Distribution vector containing visiting probability of each node
+     * Distribution vectors containing visiting probability of each node
      */
     private double[] distribution;
 
     /**
-     * Result of partial multiplication of distribution * transition
+     * Result of distribution * transition, each multiplier writes its own nodes
      */
     private double[] multiplication;
+
+    /**
+     * If teleport is set, the teleport step is applied on the multiplication:
+     * tau * teleport + (1 - tau) * multiplication + teleportShare
+     */
+    private double[] teleport;
+    private double[] negativeTeleport;
+    private double[] tau;
+    private double[] teleportShare;
+
+    /**
+     * Distance of multiplication to distribution in the norm,
+     * and sum of multiplication * negativeTeleport over the nodes of the multiplier
+     */
+    private int norm = Stationary.NORM_L2;
+    private double[] distance;
+    private double[] totalNegativeTeleport;
+
     /**
      * Multiply fromRow this row of transition
      */
@@ -45,9 +91,14 @@ public class ParallelStationary implements Runnable {
         setThreadCount(threadCount);
     }
 
-    public ParallelStationary(SparseMatrix transition, double[] distribution, int from, int to){
-        this.transition = transition;
-        this.distribution = distribution;
+    private ParallelStationary(ParallelStationary parent, int from, int to){
+        this.vectorCount = parent.vectorCount;
+        this.isIdentity = parent.isIdentity;
+        this.inOffsets = parent.inOffsets;
+        this.inNeighbors = parent.inNeighbors;
+        this.inProbabilities = parent.inProbabilities;
+        this.distance = new double[vectorCount];
+        this.totalNegativeTeleport = new double[vectorCount];
         this.fromRow = from;
         this.toRow = to;
     }
@@ -58,38 +109,154 @@ public class ParallelStationary implements Runnable {
         }else if(transition.isEmpty()){
             return distribution;
         }
-        // Parallel execution
-        Thread[] threads = new Thread[threadCount];
-        ParallelStationary[] multipliers = new ParallelStationary[threadCount];
-        // Number of rows per thread
-        int rowQuota = distribution.length / threadCount;
-        int[] rowInterval = new int[threadCount + 1];
-        rowInterval[0] = 0;
-        rowInterval[threadCount] = distribution.length;
-        for(int t = 1 ; t < threadCount ; t++){
-            rowInterval[t] = rowInterval[t - 1] + rowQuota;
+        double[] multiplication = new double[distribution.length];
+        step(transition, distribution, multiplication, null, null, 0, 0);
+        return multiplication;
+    }
+
+    /**
+     * One step of power iteration in a single parallel pass:
+     * next = tau * teleport + (1 - tau) * (distribution * transition + totalNegativeTeleport / N),
+     * the distance of next to distribution and the negative teleport of next
+     * are then available by {@link #getDistance()} and {@link #getTotalNegativeTeleport()}
+     * @param transition
+     * @param distribution
+     * @param next result of the step, must not be the distribution
+     * @param teleport teleport probability of each node, only multiplication if null
+     * @param negativeTeleport negative teleport probability emitted from each node
+     * @param tau
+     * @param totalNegativeTeleport sum of distribution * negativeTeleport
+     */
+    public void step(SparseMatrix transition, double[] distribution, double[] next, double[] teleport,
+                     double[] negativeTeleport, double tau, double totalNegativeTeleport){
+        step(new SparseMatrix[]{transition}, distribution, next, teleport,
+                negativeTeleport, new double[]{tau}, new double[]{totalNegativeTeleport});
+    }
+
+    /**
+     * One step of power iteration of K interleaved distributions in a single parallel pass,
+     * value k of node n is placed at n * K + k of the vectors,
+     * the distances and negative teleports per distribution are then available by
+     * {@link #getDistances()} and {@link #getTotalNegativeTeleports()}
+     * @param transitions transition of each distribution, non-empty ones must share
+     *                    the same row offsets and columns (e.g. re-weights of the same graph)
+     * @param distributions
+     * @param next result of the step, must not be the distributions
+     * @param teleports teleport probability of each node, only multiplication if null
+     * @param negativeTeleports negative teleport probability emitted from each node
+     * @param taus tau of each distribution
+     * @param totalNegativeTeleports sum of distribution * negativeTeleport of each distribution
+     */
+    public void step(SparseMatrix[] transitions, double[] distributions, double[] next, double[] teleports,
+                     double[] negativeTeleports, double[] taus, double[] totalNegativeTeleports){
+        int K = transitions.length;
+        int nodeCount = distributions.length / K;
+        if(!Arrays.equals(transitions, this.transitions) || multipliers == null
+                || inOffsets.length != nodeCount + 1){
+            setTransitions(transitions, nodeCount);
+        }
+        double[] teleportShares = new double[K];
+        for(int k = 0 ; k < K ; k++){
+            teleportShares[k] = ((1.0 - taus[k]) / nodeCount) * totalNegativeTeleports[k];
         }
-        for(int t = 0 ; t < threadCount ; t++){
-            ParallelStationary multiplier = new ParallelStationary(
-                    transition, distribution, rowInterval[t], rowInterval[t + 1]);
-            threads[t] = new Thread(multiplier);
-            multipliers[t] = multiplier;
+        for(ParallelStationary multiplier : multipliers){
+            multiplier.distribution = distributions;
+            multiplier.multiplication = next;
+            multiplier.teleport = teleports;
+            multiplier.negativeTeleport = negativeTeleports;
+            multiplier.tau = taus;
+            multiplier.teleportShare = teleportShares;
+            multiplier.norm = norm;
         }
-        for(Thread thread : threads){
-            thread.start();
+        if(multipliers.length == 1){
+            multipliers[0].run();
+        }else if(workerPool != null){
+            workerPool.run(multipliers);
+        }else{
+            try(WorkerPool pool = new WorkerPool(multipliers.length)){
+                pool.run(multipliers);
+            }
         }
-        // Accumulate the detected partitions
-        try {
-            double[] multiplication = new double[distribution.length];
-            for (int t = 0; t < threadCount; t++) {
-                threads[t].join(); // wait for this thread to finish its job
-                ParallelStationary multiplier = multipliers[t];
-                Util.sum(multiplication, multiplier.getMultiplication(), true);
+        // Accumulate the partial sums in the order of nodes
+        distance = new double[K];
+        this.totalNegativeTeleport = new double[K];
+        for(ParallelStationary multiplier : multipliers){
+            for(int k = 0 ; k < K ; k++){
+                distance[k] = norm == Stationary.NORM_MAX ? Math.max(distance[k], multiplier.distance[k])
+                        : distance[k] + multiplier.distance[k];
+                this.totalNegativeTeleport[k] += multiplier.totalNegativeTeleport[k];
+            }
+            multiplier.distribution = multiplier.multiplication = null;
+        }
+        if(norm == Stationary.NORM_L2){
+            for(int k = 0 ; k < K ; k++){
+                distance[k] = Math.sqrt(distance[k]);
             }
-            return multiplication;
-        }catch (InterruptedException e) {
-            e.printStackTrace();
-            return null;
+        }
+    }
+
+    /**
+     * Transpose the transitions into in-links of nodes, and split the nodes into
+     * ranges of almost equal number of in-links, one per thread
+     * @param transitions
+     * @param nodeCount number of nodes of the distribution
+     */
+    private void setTransitions(SparseMatrix[] transitions, int nodeCount){
+        this.transitions = transitions.clone();
+        vectorCount = transitions.length;
+        isIdentity = new boolean[vectorCount];
+        SparseMatrix layout = null; // sparse rows shared by the non-empty transitions
+        for(int k = 0 ; k < vectorCount ; k++){
+            isIdentity[k] = transitions[k].isEmpty();
+            if(isIdentity[k]) continue;
+            if(layout == null){
+                layout = transitions[k];
+            }else if(layout.getRowOffsets() != transitions[k].getRowOffsets()
+                    || layout.getSparseColumns() != transitions[k].getSparseColumns()){
+                throw new IllegalArgumentException("Transitions must share the same sparse rows");
+            }
+        }
+        inOffsets = new int[nodeCount + 1];
+        if(layout != null){
+            int[] neighbors = layout.getSparseColumns();
+            int rowCount = Math.min(nodeCount, layout.getRowOffsets().length - 1);
+            int cellCount = layout.getRowOffsets()[rowCount];
+            for(int n = 0 ; n < cellCount ; n++){
+                inOffsets[neighbors[n] + 1]++;
+            }
+            for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
+                inOffsets[nodeId + 1] += inOffsets[nodeId];
+            }
+            inNeighbors = new int[cellCount];
+            inProbabilities = new float[cellCount * vectorCount];
+            int[] occupied = new int[nodeCount];
+            System.arraycopy(inOffsets, 0, occupied, 0, nodeCount);
+            for(int nodeId = 0 ; nodeId < rowCount ; nodeId++){
+                int end = layout.getRowEnd(nodeId);
+                for(int n = layout.getRowStart(nodeId) ; n < end ; n++){
+                    int insertAt = occupied[neighbors[n]]++;
+                    inNeighbors[insertAt] = nodeId;
+                    for(int k = 0 ; k < vectorCount ; k++){
+                        if(!isIdentity[k]){
+                            inProbabilities[insertAt * vectorCount + k] = transitions[k].getSparseValues()[n];
+                        }
+                    }
+                }
+            }
+        }
+        // Each range gets an almost equal share of nodes plus in-links
+        int rangeCount = Math.max(1, Math.min(threadCount, nodeCount));
+        long load = (long) nodeCount + inOffsets[nodeCount];
+        multipliers = new ParallelStationary[rangeCount];
+        int from = 0;
+        for(int t = 0 ; t < rangeCount ; t++){
+            int to = from;
+            long rangeEnd = load * (t + 1) / rangeCount;
+            while(to < nodeCount && (t == rangeCount - 1 || to + (long) inOffsets[to] < rangeEnd)){
+                to++;
+            }
+            multipliers[t] = new ParallelStationary(this, from, to);
+            from = to;
         }
     }
 
@@ -98,12 +265,60 @@ public class ParallelStationary implements Runnable {
         return this;
     }
 
+    /**
+     * Multiply on the workers of the pool
+     * @param workerPool
+     * @return
+     */
+    public ParallelStationary setWorkerPool(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+        return this;
+    }
+
+    /**
+     * Norm of the distance between the step result and its distribution
+     * @param norm {@link Stationary#NORM_L2}, {@link Stationary#NORM_L1} or {@link Stationary#NORM_MAX}
+     * @return
+     */
+    public ParallelStationary setNorm(int norm) {
+        this.norm = norm;
+        return this;
+    }
+
     public int getThreadCount() {
         return threadCount;
     }
 
-    public double[] getMultiplication() {
-        return multiplication;
+    /**
+     * Distance of the last step result to its distribution in the norm
+     * @return
+     */
+    public double getDistance() {
+        return distance[0];
+    }
+
+    /**
+     * Sum of negative teleports emitted by the last step result
+     * @return
+     */
+    public double getTotalNegativeTeleport() {
+        return totalNegativeTeleport[0];
+    }
+
+    /**
+     * Distance of the last step result to its distribution in the norm, per distribution
+     * @return
+     */
+    public double[] getDistances() {
+        return distance;
+    }
+
+    /**
+     * Sum of negative teleports emitted by the last step result, per distribution
+     * @return
+     */
+    public double[] getTotalNegativeTeleports() {
+        return totalNegativeTeleport;
     }
 
     public int getFromRow() {
@@ -116,12 +331,40 @@ public class ParallelStationary implements Runnable {
 
     @Override
     public void run() {
-        this.multiplication = new double[transition.getMaxRowId() + 1];
+        int K = vectorCount;
+        double[] sum = new double[K];
+        for(int k = 0 ; k < K ; k++){
+            distance[k] = 0;
+            totalNegativeTeleport[k] = 0;
+        }
         for(int nodeId = fromRow; nodeId < toRow; nodeId++){
-            float[] transitionTo = transition.getValues(nodeId);
-            int[] neighbors = transition.getColumns(nodeId);
-            for(int n = 0 ; n < neighbors.length ; n++){
-                multiplication[neighbors[n]] += distribution[nodeId] * transitionTo[n];
+            for(int k = 0 ; k < K ; k++){
+                sum[k] = 0;
+            }
+            int end = inOffsets[nodeId + 1];
+            for(int n = inOffsets[nodeId] ; n < end ; n++){
+                int neighbor = inNeighbors[n] * K;
+                int link = n * K;
+                for(int k = 0 ; k < K ; k++){
+                    sum[k] += distribution[neighbor + k] * inProbabilities[link + k];
+                }
+            }
+            int node = nodeId * K;
+            for(int k = 0 ; k < K ; k++){
+                double probability = isIdentity[k] ? distribution[node + k] : sum[k];
+                if(teleport != null){
+                    probability = tau[k] * teleport[node + k] + (1.0 - tau[k]) * probability + teleportShare[k];
+                    double difference = Math.abs(probability - distribution[node + k]);
+                    if(norm == Stationary.NORM_L2){
+                        distance[k] += Math.pow(difference, 2);
+                    }else if(norm == Stationary.NORM_L1){
+                        distance[k] += difference;
+                    }else{
+                        distance[k] = Math.max(distance[k], difference);
+                    }
+                    totalNegativeTeleport[k] += probability * negativeTeleport[node + k];
+                }
+                multiplication[node + k] = probability;
             }
         }
     }
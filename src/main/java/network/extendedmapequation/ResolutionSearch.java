@@ -0,0 +1,40 @@
+package network.extendedmapequation;
+
+/**
+ * Strategy of searching the resolution with the minimum description length in CPMap,
+ * resolutions are asked in batches of independent evaluations, each batch is reported back
+ * before the next one is asked
+ */
+public interface ResolutionSearch {
+
+    /**
+     * Resolutions to be evaluated next
+     * @return empty when the search is finished
+     */
+    float[] next();
+
+    /**
+     * Report the description length of evaluated resolutions
+     * @param resolutions resolutions of the last batch, in the order of evaluation
+     * @param mdl description length per resolution
+     */
+    void update(float[] resolutions, double[] mdl);
+
+    /**
+     * Start of the interval the search is currently narrowed into
+     * @return
+     */
+    float getStart();
+
+    /**
+     * End of the interval the search is currently narrowed into
+     * @return
+     */
+    float getEnd();
+
+    /**
+     * Number of resolutions evaluated so far
+     * @return
+     */
+    int getEvaluationCount();
+}
@@ -3,18 +3,96 @@ package network.extendedmapequation;
 import network.Shared;
 import network.core.Graph;
 import network.core.Util;
+import network.utils.WorkerPool;
+
+import java.util.Arrays;
 
 public class Stationary {
 
+    /**
+     * Norms of the distance between two consecutive distributions
+     */
+    public static final int NORM_L2 = 0;
+    public static final int NORM_L1 = 1;
+    public static final int NORM_MAX = 2;
+
+    /**
+     * Name of each norm, indexed by the norm
+     */
+    public static final String[] NORM_NAMES = {"l2", "l1", "max"};
+
+    /**
+     * Default distance of two consecutive distributions to stop the iterations
+     */
+    public static final double TOLERANCE_DEFAULT = 0.0000000001;
+
+    /**
+     * Default cap of iterations, teleportation alone reaches the default tolerance
+     * in a few hundred iterations for the usual teleport probabilities
+     */
+    public static final int MAX_ITERATIONS_DEFAULT = 10000;
+
+    /**
+     * Aitken extrapolation is applied once per this number of iterations
+     */
+    private static final int AITKEN_PERIOD = 10;
+
     /**
      * Number of threads used for multi-thread multiplication
      */
     private int threadCount;
 
+    /**
+     * Iterations stop when distance of two consecutive distributions in the norm
+     * is not more than tolerance, or after maxIterations
+     */
+    private double tolerance = TOLERANCE_DEFAULT;
+    private int norm = NORM_L2;
+    private int maxIterations = MAX_ITERATIONS_DEFAULT;
+
+    /**
+     * Extrapolate each node probability from its last three iterations (Aitken delta-squared)
+     */
+    private boolean isAitken;
+
+    /**
+     * Distribution to start the iterations from instead of the uniform distribution,
+     * e.g. the stationary distribution of a similar transition matrix
+     */
+    private double[] seed;
+
+    /**
+     * Number of iterations and the distance of the last stationary calculation
+     */
+    private int iterationCount;
+    private double distance;
+    private double[] distribution;
+
+    /**
+     * Number of iterations and the distance per distribution of the last multi-vector calculation
+     */
+    private int[] iterationCounts;
+    private double[] distances;
+
+    /**
+     * Worker threads shared by the session, if null a pool is created per stationary calculation
+     */
+    private WorkerPool workerPool;
+
     public Stationary(int threadCount){
         this.threadCount = threadCount;
     }
 
+    /**
+     * Multiply on the workers of the pool
+     * @param workerPool
+     * @return
+     */
+    public Stationary setWorkerPool(WorkerPool workerPool){
+        this.workerPool = workerPool;
+        return this;
+    }
+
     /**
      * Calculate visit probabilities of nodes and group of nodes, add the calculations to statistics
      * @param statistics
@@ -24,7 +102,7 @@ public class Stationary {
      */
     public CPMapStatistics visitProbabilities(CPMapStatistics statistics, int[] partition, float tau){
         statistics.nodeRecorded = nodeRecorded(statistics.transition
-                , statistics.teleport, statistics.negativeTeleport, tau, 0.0000000001);
+                , statistics.teleport, statistics.negativeTeleport, tau, tolerance);
         statistics.nodeUnRecorded = nodeUnRecorded(statistics.transition,
                 statistics.nodeRecorded, statistics.negativeTeleport);
         statistics.groupRecorded = group(statistics, partition, tau, true);
@@ -32,6 +110,38 @@ public class Stationary {
         return statistics;
     }
 
+    /**
+     * Calculate visit probabilities of K statistics of the same graph together,
+     * transitions of the statistics are iterated in one pass per step if they share the same sparse rows
+     * @param statistics
+     * @param partitions partition of each statistics
+     * @param taus tau of each statistics
+     * @return
+     * @see #nodeRecorded(Graph[], double[][], double[][], double[], double)
+     */
+    public CPMapStatistics[] visitProbabilities(CPMapStatistics[] statistics, int[][] partitions, float[] taus){
+        int K = statistics.length;
+        Graph[] transitions = new Graph[K];
+        double[][] teleports = new double[K][];
+        double[][] negativeTeleports = new double[K][];
+        double[] doubleTaus = new double[K];
+        for(int k = 0 ; k < K ; k++){
+            transitions[k] = statistics[k].transition;
+            teleports[k] = statistics[k].teleport;
+            negativeTeleports[k] = statistics[k].negativeTeleport;
+            doubleTaus[k] = taus[k];
+        }
+        double[][] nodeRecorded = nodeRecorded(transitions, teleports, negativeTeleports, doubleTaus, tolerance);
+        for(int k = 0 ; k < K ; k++){
+            statistics[k].nodeRecorded = nodeRecorded[k];
+            statistics[k].nodeUnRecorded = nodeUnRecorded(statistics[k].transition,
+                    statistics[k].nodeRecorded, statistics[k].negativeTeleport);
+            statistics[k].groupRecorded = group(statistics[k], partitions[k], taus[k], true);
+            statistics[k].groupUnRecorded = group(statistics[k], partitions[k], taus[k], false);
+        }
+        return statistics;
+    }
+
     /**
      * Find the nodeUnRecorded stationary state of transition matrix, and writePartition it to statistics
      * this is achieved by post-processing of calculated recorded probabilities
@@ -46,10 +156,11 @@ public class Stationary {
         if (nodeCount == 0) return unrecorded;
 
         // Calculate P one step further without considering the teleportation
+        int[] neighbors = transitionMatrix.getSparseColumns();
+        float[] transitionToNeighbor = transitionMatrix.getSparseValues();
         for(int nodeId = 0 ; nodeId < recorded.length ; nodeId++){
-            int[] neighbors = transitionMatrix.getColumns(nodeId);
-            float[] transitionToNeighbor = transitionMatrix.getValues(nodeId);
-            for(int n = 0 ; n < neighbors.length ; n++){
+            int end = transitionMatrix.getRowEnd(nodeId);
+            for(int n = transitionMatrix.getRowStart(nodeId) ; n < end ; n++){
                 unrecorded[neighbors[n]] += recorded[nodeId] * transitionToNeighbor[n];
             }
         }
@@ -75,36 +186,332 @@ public class Stationary {
     public double[] nodeRecorded(Graph transitionMatrix, double[] teleport,
                                         double[] negativeTeleport, double tau, double minDistance){
         int nodeCount = teleport.length;
-        double[] Pt = Util.doubleArray(nodeCount, 1.0 / nodeCount); // distribution at t-th step
-        double[] Pt_1 = Pt.clone(); // distribution at (t-1)-th step
-        double distance = Integer.MAX_VALUE;
+        double[] Pt; // distribution at t-th step
+        if(seed != null && seed.length == nodeCount){
+            Pt = seed.clone();
+        }else{
+            Pt = Util.doubleArray(nodeCount, 1.0 / nodeCount);
+        }
+        double[] Pt_1 = new double[nodeCount]; // distribution at (t+1)-th step
+        double[] Pt_2 = isAitken ? new double[nodeCount] : null; // distribution at (t-1)-th step
+        distance = Integer.MAX_VALUE;
         int counter = 0; // number of iterations till convergence
-        ParallelStationary multiplier = new ParallelStationary(threadCount);
-        while(distance > minDistance){
-            double totalNegativeTeleport = 0;
-            // Calculate sum(P(n) * Ptele(n)) (used in part of calculations)
-            for(int nodeId = 0; nodeId < nodeCount ; nodeId++){
-                totalNegativeTeleport += Pt[nodeId] * negativeTeleport[nodeId];
-            }
-            // Multi-thread multiplication P(t - 1) * G
-            double[] multiply = multiplier.multiply(transitionMatrix, Pt);
-            // Update Pt to Pt+1, and calculate the distribution distance
-            distance = 0;
-            for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
-                Pt[nodeId] = tau * teleport[nodeId]
-                        + (1.0 - tau) * multiply[nodeId]
-                        + ((1.0 - tau) / nodeCount) * totalNegativeTeleport;
-                // distance of Pt to Pt_1
-                distance += Math.pow(Pt[nodeId] - Pt_1[nodeId], 2);
-                Pt_1[nodeId] = Pt[nodeId];
-            }
-            distance = Math.sqrt(distance);
+        // Workers are kept for all the iterations
+        WorkerPool pool = workerPool != null || threadCount <= 1 ? workerPool : new WorkerPool(threadCount);
+        ParallelStationary multiplier = new ParallelStationary(threadCount).setWorkerPool(pool).setNorm(norm);
+        // Calculate sum(P(n) * Ptele(n)) of the first step, next ones are summed along the multiplication
+        double totalNegativeTeleport = Util.dot(Pt, negativeTeleport);
+        while(distance > minDistance && counter < maxIterations){
+            // Multi-thread P(t + 1) = tau * teleport + (1 - tau) * (P(t) * G + negative teleports),
+            // and its distance to P(t) in the same pass
+            multiplier.step(transitionMatrix, Pt, Pt_1, teleport, negativeTeleport, tau, totalNegativeTeleport);
+            totalNegativeTeleport = multiplier.getTotalNegativeTeleport();
+            distance = multiplier.getDistance();
             counter++;
+            if(isAitken && counter % AITKEN_PERIOD == 0 && distance > minDistance){
+                extrapolate(Pt_2, Pt, Pt_1);
+                totalNegativeTeleport = Util.dot(Pt_1, negativeTeleport);
+            }
+            double[] swap = isAitken ? Pt_2 : Pt;
+            if(isAitken) Pt_2 = Pt;
+            Pt = Pt_1;
+            Pt_1 = swap;
         } // while convergence
-        Shared.log(counter + " iterations for calculating stationary distribution");
+        if(pool != workerPool) pool.close();
+        iterationCount = counter;
+        distribution = Pt;
+        if(distance > minDistance){
+            Shared.log("Stationary distribution did not converge in " + counter
+                    + " iterations, distance: " + distance);
+        }else{
+            Shared.log(counter + " iterations for calculating stationary distribution");
+        }
         return Pt;
     }
 
+    /**
+     * Find the nodeRecorded stationary states of K transition matrices of the same nodes together,
+     * distributions are interleaved (value k of node n at n * K + k) so each step
+     * passes over the shared links once for all the K distributions,
+     * each distribution is kept and removed from the next steps from the iteration it converges,
+     * iterations stop when all of them are converged; seed and Aitken extrapolation are not applied,
+     * transitions not sharing the same sparse rows are calculated one by one
+     * @param transitionMatrices
+     * @param teleports
+     * @param negativeTeleports
+     * @param taus
+     * @param minDistance minimum distance of two consecutive distributions to stop
+     * @return
+     */
+    public double[][] nodeRecorded(Graph[] transitionMatrices, double[][] teleports,
+                                   double[][] negativeTeleports, double[] taus, double minDistance){
+        int K = transitionMatrices.length;
+        double[][] converged = new double[K][];
+        iterationCounts = new int[K];
+        distances = new double[K];
+        if(!isSharedLayout(transitionMatrices)){
+            for(int k = 0 ; k < K ; k++){
+                converged[k] = nodeRecorded(transitionMatrices[k], teleports[k],
+                        negativeTeleports[k], taus[k], minDistance);
+                iterationCounts[k] = iterationCount;
+                distances[k] = distance;
+            }
+            return converged;
+        }
+        int nodeCount = K > 0 ? teleports[0].length : 0;
+        // Iterated distributions, lanes[a] is the distribution placed at a-th position of the vectors
+        int[] lanes = Util.ramp(K);
+        Graph[] transitions = transitionMatrices.clone();
+        double[] activeTaus = taus.clone();
+        double[] teleport = interleave(teleports);
+        double[] negativeTeleport = interleave(negativeTeleports);
+        double[] Pt = Util.doubleArray(nodeCount * K, 1.0 / nodeCount); // distributions at t-th step
+        double[] Pt_1 = new double[Pt.length]; // distributions at (t+1)-th step
+        // Calculate sum(P(n) * Ptele(n)) of the first step, next ones are summed along the multiplication
+        double[] uniform = Util.doubleArray(nodeCount, 1.0 / nodeCount);
+        double[] totalNegativeTeleports = new double[K];
+        for(int k = 0 ; k < K ; k++){
+            distances[k] = Integer.MAX_VALUE;
+            totalNegativeTeleports[k] = Util.dot(uniform, negativeTeleports[k]);
+        }
+        int counter = 0;
+        WorkerPool pool = workerPool != null || threadCount <= 1 ? workerPool : new WorkerPool(threadCount);
+        ParallelStationary multiplier = new ParallelStationary(threadCount).setWorkerPool(pool).setNorm(norm);
+        while(lanes.length > 0 && counter < maxIterations){
+            multiplier.step(transitions, Pt, Pt_1, teleport, negativeTeleport, activeTaus, totalNegativeTeleports);
+            totalNegativeTeleports = multiplier.getTotalNegativeTeleports();
+            counter++;
+            int[] kept = new int[lanes.length]; // positions of the distributions not converged yet
+            int keptCount = 0;
+            for(int a = 0 ; a < lanes.length ; a++){
+                int k = lanes[a];
+                distances[k] = multiplier.getDistances()[a];
+                iterationCounts[k] = counter;
+                // same condition as the single distribution iterations, so a NaN distance also stops
+                if(!(distances[k] > minDistance)){
+                    converged[k] = lane(Pt_1, a, lanes.length);
+                }else{
+                    kept[keptCount++] = a;
+                }
+            }
+            if(keptCount < lanes.length){
+                // Converged distributions are removed so the next steps only pass over the rest
+                kept = Arrays.copyOf(kept, keptCount);
+                Graph[] keptTransitions = new Graph[keptCount];
+                double[] keptTaus = new double[keptCount];
+                double[] keptTotals = new double[keptCount];
+                int[] keptLanes = new int[keptCount];
+                for(int a = 0 ; a < keptCount ; a++){
+                    keptTransitions[a] = transitions[kept[a]];
+                    keptTaus[a] = activeTaus[kept[a]];
+                    keptTotals[a] = totalNegativeTeleports[kept[a]];
+                    keptLanes[a] = lanes[kept[a]];
+                }
+                teleport = select(teleport, kept, lanes.length);
+                negativeTeleport = select(negativeTeleport, kept, lanes.length);
+                Pt_1 = select(Pt_1, kept, lanes.length);
+                Pt = new double[Pt_1.length];
+                transitions = keptTransitions;
+                activeTaus = keptTaus;
+                totalNegativeTeleports = keptTotals;
+                lanes = keptLanes;
+            }
+            double[] swap = Pt;
+            Pt = Pt_1;
+            Pt_1 = swap;
+        }
+        if(pool != workerPool) pool.close();
+        for(int a = 0 ; a < lanes.length ; a++){
+            converged[lanes[a]] = lane(Pt, a, lanes.length);
+        }
+        if(lanes.length > 0){
+            Shared.log(lanes.length + " of " + K + " stationary distributions did not converge in "
+                    + counter + " iterations");
+        }else{
+            Shared.log(counter + " iterations for calculating " + K + " stationary distributions");
+        }
+        return converged;
+    }
+
+    /**
+     * True if all the non-empty transitions have the same row offsets and columns
+     * @param transitionMatrices
+     * @return
+     */
+    private static boolean isSharedLayout(Graph[] transitionMatrices){
+        Graph layout = null;
+        for(Graph transition : transitionMatrices){
+            if(transition.isEmpty()) continue;
+            if(layout == null){
+                layout = transition;
+            }else if(layout.getRowOffsets() != transition.getRowOffsets()
+                    || layout.getSparseColumns() != transition.getSparseColumns()){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Interleave K vectors of the same length, value k of index i is placed at i * K + k
+     * @param vectors
+     * @return
+     */
+    private static double[] interleave(double[][] vectors){
+        int K = vectors.length;
+        double[] interleaved = new double[K > 0 ? vectors[0].length * K : 0];
+        for(int k = 0 ; k < K ; k++){
+            for(int i = 0 ; i < vectors[k].length ; i++){
+                interleaved[i * K + k] = vectors[k][i];
+            }
+        }
+        return interleaved;
+    }
+
+    /**
+     * Vector k of K interleaved vectors
+     * @param interleaved
+     * @param k
+     * @param K
+     * @return
+     */
+    private static double[] lane(double[] interleaved, int k, int K){
+        double[] vector = new double[interleaved.length / K];
+        for(int i = 0 ; i < vector.length ; i++){
+            vector[i] = interleaved[i * K + k];
+        }
+        return vector;
+    }
+
+    /**
+     * Vectors at the positions of K interleaved vectors, interleaved in the same order
+     * @param interleaved
+     * @param positions
+     * @param K
+     * @return
+     */
+    private static double[] select(double[] interleaved, int[] positions, int K){
+        int length = interleaved.length / K;
+        int selectedCount = positions.length;
+        double[] selected = new double[length * selectedCount];
+        for(int i = 0 ; i < length ; i++){
+            for(int a = 0 ; a < selectedCount ; a++){
+                selected[i * selectedCount + a] = interleaved[i * K + positions[a]];
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Replace the last distribution with its Aitken delta-squared extrapolation,
+     * the changes of consecutive distributions shrink by the ratio of the two largest eigenvalues,
+     * which is estimated from the last two changes, so the remaining changes sum to
+     * last change * ratio / (1 - ratio)
+     * @param first distribution of 2 steps before
+     * @param second distribution of 1 step before
+     * @param last
+     */
+    private static void extrapolate(double[] first, double[] second, double[] last){
+        double product = 0;
+        double firstNorm = 0;
+        for(int nodeId = 0 ; nodeId < last.length ; nodeId++){
+            double firstChange = second[nodeId] - first[nodeId];
+            product += (last[nodeId] - second[nodeId]) * firstChange;
+            firstNorm += firstChange * firstChange;
+        }
+        double ratio = firstNorm > 0 ? product / firstNorm : 0;
+        if(ratio <= 0 || ratio >= 1) return; // changes are not shrinking geometrically
+        double coefficient = ratio / (1 - ratio);
+        for(int nodeId = 0 ; nodeId < last.length ; nodeId++){
+            last[nodeId] = Math.max(0, last[nodeId] + (last[nodeId] - second[nodeId]) * coefficient);
+        }
+    }
+
+    /**
+     * Stop the iterations when the distance of two consecutive distributions in the norm
+     * is not more than tolerance
+     * @param tolerance
+     * @return
+     */
+    public Stationary setTolerance(double tolerance){
+        this.tolerance = tolerance;
+        return this;
+    }
+
+    /**
+     * @param norm {@link #NORM_L2}, {@link #NORM_L1} or {@link #NORM_MAX}
+     * @return
+     */
+    public Stationary setNorm(int norm){
+        this.norm = norm;
+        return this;
+    }
+
+    /**
+     * Stop the iterations after this number of iterations even if the distribution has not converged
+     * @param maxIterations
+     * @return
+     */
+    public Stationary setMaxIterations(int maxIterations){
+        this.maxIterations = maxIterations;
+        return this;
+    }
+
+    public Stationary setAitken(boolean isAitken){
+        this.isAitken = isAitken;
+        return this;
+    }
+
+    /**
+     * Start the iterations from this distribution, ignored if its length does not match the nodes
+     * @param seed
+     * @return
+     */
+    public Stationary setSeed(double[] seed){
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Number of iterations of the last stationary calculation
+     * @return
+     */
+    public int getIterationCount() {
+        return iterationCount;
+    }
+
+    /**
+     * Node recorded distribution of the last stationary calculation
+     * @return
+     */
+    public double[] getDistribution() {
+        return distribution;
+    }
+
+    /**
+     * Distance of the last two distributions of the last stationary calculation
+     * @return
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    /**
+     * Number of iterations till convergence of each distribution of the last multi-vector calculation
+     * @return
+     */
+    public int[] getIterationCounts() {
+        return iterationCounts;
+    }
+
+    /**
+     * Distance of the last two distributions of each distribution of the last multi-vector calculation
+     * @return
+     */
+    public double[] getDistances() {
+        return distances;
+    }
+
 
     /**
      * Calculate probability of entering or exiting the groups
@@ -126,11 +533,12 @@ public class Stationary {
         // probability of going from nodeId to groups other than its groupId
         double[] outProbability = new double[nodeCount];
         // Calculate probability of going from nodeId to groups other than its groupId
+        int[] neighbors = statistics.transition.getSparseColumns();
+        float[] probabilities = statistics.transition.getSparseValues();
         for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
             int groupId = partition[nodeId];
-            int[] neighbors = statistics.transition.getColumns(nodeId);
-            float[] probabilities = statistics.transition.getValues(nodeId);
-            for (int n = 0 ; n < neighbors.length ; n++){
+            int end = statistics.transition.getRowEnd(nodeId);
+            for (int n = statistics.transition.getRowStart(nodeId) ; n < end ; n++){
                 int neighborGroupId = partition[neighbors[n]];
                 if(groupId != neighborGroupId){
                     outProbability[nodeId] += probabilities[n];
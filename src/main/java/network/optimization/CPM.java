@@ -1,8 +1,12 @@
 package network.optimization;
 
+import network.Shared;
 import network.core.*;
 
-import static network.core.SiGraph.NEGATIVE;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
 import static network.core.SiGraph.POSITIVE;
 
 /**
@@ -10,8 +14,28 @@ import static network.core.SiGraph.POSITIVE;
  */
 public class CPM extends RosvallBergstrom {
 
+    /**
+     * Minimum number of nodes per thread for parallel local moving
+     */
+    public static final int PARALLEL_NODE_THRESHOLD = 1 << 10;
+
+    /**
+     * Maximum number of node visits of queue based local moving, as multiples of node count
+     */
+    public static final int MAX_QUEUE_PASSES = 100;
+
     private CPMParameters params;
 
+    /**
+     * Free workspaces shared by the detectors of one detection, released when the detection finishes
+     */
+    private ArrayDeque<CPMWorkspace> workspaces = new ArrayDeque<>();
+
+    /**
+     * Local moving work of the last detection, shared by the detectors of the detection
+     */
+    private LocalMovingStatistics localMovingStatistics = new LocalMovingStatistics();
+
     public CPM(){
         this.params = new CPMParameters();
     }
@@ -22,6 +46,17 @@ public class CPM extends RosvallBergstrom {
     }
 
     public int[][] detect(MultiGraph[] graphs){
+        return detect(graphs, null);
+    }
+
+    /**
+     * Detect the partition of each graph starting from the given partitions,
+     * e.g. the partitions detected at a nearby resolution
+     * @param graphs
+     * @param initialPartitions partition to start from per graph as a warm start, singletons if null
+     * @return
+     */
+    public int[][] detect(MultiGraph[] graphs, int[][] initialPartitions){
         if(params.alpha < 0 || params.alpha > 1 || params.resolution < 0){
             try {
                 throw new Exception("alpha must be [0, 1], and resolution > 0");
@@ -41,7 +76,14 @@ public class CPM extends RosvallBergstrom {
             }
             graph.setAttributes(nodeSizes);
         }
-        int[][] bestPartition = partition(graphs, params.refineCount);
+        localMovingStatistics = new LocalMovingStatistics();
+        int[][] bestPartition;
+        try {
+            bestPartition = partition(graphs, initialPartitions, params.refineCount);
+        } finally {
+            // buffers are sized by the largest graph, they must not outlive the detection
+            releaseWorkspaces();
+        }
         // Inside a group, place each positively connected component inside a separate new group
         for(int graphId = 0 ; graphId < graphs.length ; graphId++){
             Graph positiveSubGraph = graphs[graphId].getGraph(POSITIVE);
@@ -60,164 +102,503 @@ public class CPM extends RosvallBergstrom {
     }
 
     @Override
-    protected double greedy(MultiGraph graph, Graph transpose, int[] partition) {
+    protected double greedy(MultiGraph graph, SignedAdjacency adjacency, int[] partition) {
+        CPMWorkspace workspace = takeWorkspace();
+        try {
+            return greedy(graph, adjacency, partition, workspace);
+        } finally {
+            putWorkspace(workspace);
+        }
+    }
+
+    private double greedy(MultiGraph graph, SignedAdjacency adjacency, int[] partition,
+                          CPMWorkspace workspace) {
         int groupIdRange = Util.max(partition) + 1;
         int N = graph.getNodeCount();
-        // Queue of neighbor groups and their statistics (groupId, pCpK, pKCp, nCpK, nKCp)
-        double[][] groupQueue = new double[groupIdRange][];
-        int queueHead = 0; // Head of queue indicating the first empty cell of queue array to insert
-        // groupNeighbor[ng] = q >= 0 means group ng is a neighbor of current group g
-        // and it is placed in position q of queue
-        int[] neighborGroupQIndex = Util.initArray(groupIdRange, -1);
         // Number of nodes in each group (each node of a group may be a folded super-node)
-        int[] nodeCount = new int[groupIdRange];
-        float[][] nodeAttributes = graph.getAttributes();
+        // updated atomically since nodes may be moved concurrently
+        int[] nodeSizes = getNodeSizes(graph, partition.length, workspace);
+        AtomicIntegerArray nodeCount = workspace.getGroupSizes(groupIdRange);
         for(int n = 0 ; n < partition.length ; n++){
-            // Node groupCount of each super-node has been saved in the first attribute place by convention
-            // in detect function
-            nodeCount[partition[n]] += (int) nodeAttributes[n][0];
+            nodeCount.lazySet(partition[n], nodeCount.get(partition[n]) + nodeSizes[n]);
+        }
+        // One mover per thread, each with its own queue of neighbor groups
+        int threadCount = params.localMoving == CPMParameters.MOVE_SERIAL
+                || params.localMoving == CPMParameters.MOVE_QUEUE ? 1 : Math.max(1, getThreadCount());
+        if(params.localMoving == CPMParameters.MOVE_ASYNC){
+            threadCount = Math.max(1, Math.min(threadCount, partition.length / PARALLEL_NODE_THRESHOLD));
+        }
+        LocalMover[] movers = new LocalMover[threadCount];
+        for(int t = 0 ; t < threadCount ; t++){
+            movers[t] = new LocalMover(adjacency, partition, nodeSizes, nodeCount,
+                    workspace.getNeighborGroups(t, groupIdRange));
+        }
+        if(params.localMoving == CPMParameters.MOVE_QUEUE){
+            return -greedyQueue(adjacency, partition, movers[0], workspace);
+        }
+        if(params.localMoving == CPMParameters.MOVE_COLORED){
+            return -greedyColored(adjacency, partition, nodeSizes, nodeCount, movers);
         }
-        //----------------
-        // holds group CPM statistics of each node
-        CPMParameters pPositive = new CPMParameters();
-        CPMParameters pNegative = new CPMParameters();
         boolean hamImproved = true; // whether objective is improved during a pass or not
         double hamChange = 0; // total change of hamiltonian objective
         float movedNodes = N; // number of moved nodes into other groups (0 if groups stay the same)
+        int passes = 0;
+        long moves = 0;
         // At least 1% node movement is expected to redo the merge pass
         // Also it is found that a node may alternate between two neighbors infinitely!
         while (hamImproved && movedNodes > 1 && (movedNodes / N) >= 0.01){
-            int[] permute = Util.permute(partition.length, this.params.randomSeed); // nodes will be visited in random order
+            passes++;
+            // nodes will be visited in random order
+            int[] permute = Util.permute(workspace.getPermutation(partition.length),
+                    partition.length, this.params.randomSeed);
+            // Each thread moves a consecutive range of the permuted nodes
+            for(int t = 0 ; t < threadCount ; t++){
+                movers[t].setNodes(permute, (int) ((long) partition.length * t / threadCount),
+                        (int) ((long) partition.length * (t + 1) / threadCount));
+            }
+            run(movers);
             hamImproved = false;
             movedNodes = 0;
-            for(int k = 0 ; k < partition.length ; k++){
-                int nodeId = permute[k];
-                int groupId = partition[nodeId];
-                // Number of nodes if nodeId is a folded one
-                int nodeSize = (int) graph.getAttributes()[nodeId][0];
-                // Initialize parameters used in objective change calculation
-                pPositive.KC = pNegative.KC = 0;
-                pPositive.CK = pNegative.CK = 0;
-                pPositive.Kin = pNegative.Kin = 0;
-                pPositive.Kout = pNegative.Kout = 0;
-                pPositive.Kself = pNegative.Kself = 0;
-                pPositive.NC = pNegative.NC = nodeCount[groupId];
-                pPositive.Nk = pNegative.Nk = nodeSize;
-                pPositive.resolution = this.params.resolution;
-                pNegative.resolution = 0; // this is described in the paper
-                // Get outward-inward neighbor groups of nodeId
-                // For outward neighbors graph is used and for inward neighbors its transpose is used
-                // since the sparse data structure is row-based and best suited for column traverse
-                int outward = 0; // index of outward direction by convention
-                for(int direction = 0 ; direction < 2 ; direction++){
-                    Graph outOrIn = direction == outward ? graph : transpose;
-                    if(outOrIn.isEmpty()) continue; // no edge to process
-                    for(int sign = 0 ; sign < 2 ; sign++) {
-                        Graph posOrNeg = sign == POSITIVE ?
-                                graph.getGraph(POSITIVE) : graph.getGraph(NEGATIVE);
-                        if(posOrNeg == null || posOrNeg.isEmpty()) continue;
-                        int[] neighbors = posOrNeg.getColumns(nodeId);
-                        if(neighbors == null) continue;
-                        float[] linkValues = posOrNeg.getValues(nodeId);
-                        for (int n = 0; n < neighbors.length; n++) {
-                            int neighborId = neighbors[n];
-                            double linkValue = linkValues[n];
-                            int neighborGroupId = partition[neighborId];
-                            if (nodeId == neighborId) { // self loop (will be counted two times)
-                                if (linkValue > 0) pPositive.Kself = linkValue;
-                                else pNegative.Kself = -linkValue;
-                            }
-                            if (groupId == neighborGroupId) { // link inside the group
-                                if (direction == outward) { // from node to its group
-                                    if (linkValue > 0) pPositive.KC += linkValue;
-                                    else pNegative.KC -= linkValue;
-                                } else { // from group to node
-                                    if (linkValue > 0) pPositive.CK += linkValue;
-                                    else pNegative.CK -= linkValue;
-                                }
-                            } else { // link toward neighbor groups
-                                // first time this neighbor is visited ?
-                                int neighborQPosition;
-                                if (neighborGroupQIndex[neighborGroupId] == -1) {
-                                    if (groupQueue[queueHead] == null) groupQueue[queueHead] = new double[5];
-                                    groupQueue[queueHead][0] = neighborGroupId;
-                                    neighborQPosition = neighborGroupQIndex[neighborGroupId] = queueHead;
-                                    queueHead++;
-                                } else {
-                                    neighborQPosition = neighborGroupQIndex[neighborGroupId];
-                                }
-                                if (direction == outward) {  // from node to neighbor group
-                                    if (linkValue > 0) groupQueue[neighborQPosition][2] += linkValue;
-                                    else groupQueue[neighborQPosition][4] -= linkValue;
-                                } else { // neighbor group to node
-                                    if (linkValue > 0) groupQueue[neighborQPosition][1] += linkValue;
-                                    else groupQueue[neighborQPosition][3] -= linkValue;
-                                }
-                            }
-                            if (direction == outward) {
-                                if (linkValue > 0) pPositive.Kout += linkValue;
-                                else pNegative.Kout -= linkValue;
-                            } else {
-                                if (linkValue > 0) pPositive.Kin += linkValue;
-                                else pNegative.Kin -= linkValue;
-                            }
-                        } // neighbors of nodeId
-                    } // positive or negative sub-graph
-                } // graphs for inward or outward neighbors
-                /*
-                    In formulation of CPM object, each node set is considered in both its group
-                    and the group it wants to move into,
-                    so add the self-loop of node to its neighbor groups as well
-                 */
-                for(int queueIndex = 0 ; queueIndex < queueHead ; queueIndex++){
-                    // from node to neighbor groups
-                    groupQueue[queueIndex][2] += pPositive.Kself;
-                    groupQueue[queueIndex][4] += pNegative.Kself;
-                    // from neighbor group to node
-                    groupQueue[queueIndex][1] += pPositive.Kself;
-                    groupQueue[queueIndex][3] += pNegative.Kself;
+            for(LocalMover mover : movers){
+                // Hamiltonian is improved in this pass so a next pass is allowed
+                hamImproved |= mover.movedNodes > 0;
+                hamChange += mover.hamChange;
+                movedNodes += mover.movedNodes;
+            }
+            moves += (long) movedNodes;
+        }
+        logLocalMoving(partition.length, threadCount, passes, (long) passes * partition.length, moves);
+//        Shared.log(" dHamiltonian(" + this.resolution + "): " + hamChange);
+        return  - hamChange; // hamiltonian decrease is an improvement
+    }
+
+    /**
+     * Move the nodes taken from a queue of active nodes, initially all nodes in random order,
+     * when a node moves only its neighbors outside its new group become active again,
+     * so settled parts of the graph are not re-visited
+     * @param adjacency
+     * @param partition
+     * @param mover
+     * @param workspace
+     * @return change in hamiltonian (negative is improvement)
+     */
+    private double greedyQueue(SignedAdjacency adjacency, int[] partition, LocalMover mover,
+                               CPMWorkspace workspace){
+        int N = partition.length;
+        // Circular FIFO queue of active nodes, each node is queued at most once
+        int[] queue = Util.permute(workspace.getPermutation(N), N, this.params.randomSeed);
+        boolean[] isQueued = workspace.getIsQueued(N);
+        Arrays.fill(isQueued, 0, N, true);
+        int head = 0;
+        int queueSize = N;
+        int[] neighbors = adjacency.getNeighbors();
+        double hamChange = 0;
+        long visits = 0;
+        long moves = 0;
+        // a node may alternate between two groups infinitely due to floating point errors
+        long maxVisits = (long) MAX_QUEUE_PASSES * N;
+        while (queueSize > 0 && visits < maxVisits){
+            int nodeId = queue[head];
+            head = head + 1 == N ? 0 : head + 1;
+            queueSize--;
+            isQueued[nodeId] = false;
+            visits++;
+            double change = mover.move(nodeId);
+            if(change >= 0) continue;
+            hamChange += change;
+            moves++;
+            // Re-activate the neighbors that are not in the new group of node
+            int groupId = partition[nodeId];
+            int end = adjacency.getEnd(nodeId);
+            for(int n = adjacency.getStart(nodeId) ; n < end ; n++){
+                int neighborId = neighbors[n];
+                if(!isQueued[neighborId] && partition[neighborId] != groupId){
+                    int tail = head + queueSize;
+                    queue[tail >= N ? tail - N : tail] = neighborId;
+                    isQueued[neighborId] = true;
+                    queueSize++;
+                }
+            }
+        }
+        logLocalMoving(N, 1, (int) Math.ceil((double) visits / N), visits, moves);
+        return hamChange;
+    }
+
+    /**
+     * Add the amount of local moving work to the statistics of detection, and log it if verbose
+     * @param nodeCount
+     * @param threadCount largest number of movers that moved nodes concurrently
+     * @param passes number of passes over all nodes (visits / nodes for queue based moving)
+     * @param visits number of node visits
+     * @param moves number of node moves
+     */
+    private void logLocalMoving(int nodeCount, int threadCount, int passes, long visits, long moves){
+        localMovingStatistics.add(visits, moves, threadCount);
+        if(Shared.isVerbose()){
+            Shared.log(" Local moving (" + CPMParameters.MOVE_NAMES[params.localMoving] + "): "
+                    + nodeCount + " nodes, " + threadCount + " threads, " + passes + " passes, "
+                    + visits + " visits, " + moves + " moves");
+        }
+    }
+
+    /**
+     * Leiden refinement: inside each group, nodes that are still singletons are merged
+     * into the best positively linked sub-group of the same group,
+     * so each sub-group is a positively connected part of its group
+     * @param graph
+     * @param adjacency
+     * @param partition
+     * @return sub-group of each node, or null if refinement method is not Leiden
+     */
+    @Override
+    protected int[] refineGroups(MultiGraph graph, SignedAdjacency adjacency, int[] partition) {
+        if(params.refineMethod != CPMParameters.REFINE_LEIDEN) return null;
+        CPMWorkspace workspace = takeWorkspace();
+        try {
+            return refineGroups(graph, adjacency, partition, workspace);
+        } finally {
+            putWorkspace(workspace);
+        }
+    }
+
+    private int[] refineGroups(MultiGraph graph, SignedAdjacency adjacency, int[] partition,
+                               CPMWorkspace workspace) {
+        int N = partition.length;
+        int[] nodeSizes = getNodeSizes(graph, N, workspace);
+        // Each node starts as a singleton sub-group
+        int[] refinedPartition = Util.ramp(N);
+        AtomicIntegerArray subGroupSizes = workspace.getGroupSizes(N);
+        for(int nodeId = 0 ; nodeId < N ; nodeId++){
+            subGroupSizes.lazySet(nodeId, nodeSizes[nodeId]);
+        }
+        LocalMover mover = new LocalMover(adjacency, refinedPartition, nodeSizes, subGroupSizes,
+                workspace.getNeighborGroups(0, N));
+        mover.setBounds(partition);
+        int[] order = Util.permute(workspace.getPermutation(N), N, this.params.randomSeed);
+        for(int k = 0 ; k < N ; k++){
+            int nodeId = order[k];
+            // only singletons are merged, a sub-group that received nodes stays in place
+            if(subGroupSizes.get(refinedPartition[nodeId]) != nodeSizes[nodeId]) continue;
+            mover.move(nodeId);
+        }
+        return refinedPartition;
+    }
+
+    /**
+     * @return a free workspace of the detection, or a new one if all are in use
+     */
+    private CPMWorkspace takeWorkspace(){
+        synchronized (workspaces){
+            CPMWorkspace workspace = workspaces.poll();
+            return workspace != null ? workspace : new CPMWorkspace();
+        }
+    }
+
+    /**
+     * Return the workspace to be reused by the next greedy call of the detection
+     * @param workspace
+     */
+    private void putWorkspace(CPMWorkspace workspace){
+        synchronized (workspaces){
+            workspaces.push(workspace);
+        }
+    }
+
+    /**
+     * Drop the workspaces so their buffers are collected
+     */
+    private void releaseWorkspaces(){
+        synchronized (workspaces){
+            workspaces.clear();
+        }
+    }
+
+    /**
+     * Number of original nodes inside each (folded) node
+     * @param graph
+     * @param nodeCount
+     * @param workspace provider of the buffer
+     * @return
+     */
+    private int[] getNodeSizes(MultiGraph graph, int nodeCount, CPMWorkspace workspace){
+        int[] nodeSizes = workspace.getNodeSizes(nodeCount);
+        float[][] nodeAttributes = graph.getAttributes();
+        for(int n = 0 ; n < nodeCount ; n++){
+            // Node groupCount of each super-node has been saved in the first attribute place by convention
+            // in detect function
+            nodeSizes[n] = (int) nodeAttributes[n][0];
+        }
+        return nodeSizes;
+    }
+
+    /**
+     * Move the nodes color by color, nodes of one color share no link
+     * so they are moved concurrently without affecting each other's neighbor groups,
+     * moves of a color are decided on the group sizes before that color
+     * and applied afterwards in order, so the result does not depend on the number of threads
+     * @param adjacency
+     * @param partition
+     * @param nodeSizes
+     * @param nodeCount
+     * @param movers
+     * @return change in hamiltonian (negative is improvement)
+     */
+    private double greedyColored(SignedAdjacency adjacency, int[] partition, int[] nodeSizes,
+                                 AtomicIntegerArray nodeCount, LocalMover[] movers){
+        int N = partition.length;
+        // Nodes of each color placed consecutively, ordered as visited by coloring
+        int[] order = Util.permute(N, this.params.randomSeed);
+        int[] colors = adjacency.color(order);
+        int colorCount = Util.max(colors) + 1;
+        int[] colorOffsets = new int[colorCount + 1];
+        for(int color : colors){
+            colorOffsets[color + 1]++;
+        }
+        for(int color = 0 ; color < colorCount ; color++){
+            colorOffsets[color + 1] += colorOffsets[color];
+        }
+        int[] colorNodes = new int[N];
+        int[] insertAt = colorOffsets.clone();
+        for(int nodeId : order){
+            colorNodes[insertAt[colors[nodeId]]++] = nodeId;
+        }
+        // Decided group and hamiltonian change of each node, applied after its color is processed
+        int[] targets = new int[N];
+        double[] changes = new double[N];
+        for(LocalMover mover : movers){
+            mover.setTargets(targets, changes);
+        }
+        double hamChange = 0;
+        float movedNodes = N;
+        int passes = 0;
+        long moves = 0;
+        int maxThreadCount = 1;
+        while (movedNodes > 1 && (movedNodes / N) >= 0.01){
+            passes++;
+            movedNodes = 0;
+            for(int color = 0 ; color < colorCount ; color++){
+                int from = colorOffsets[color];
+                int to = colorOffsets[color + 1];
+                int threadCount = Math.max(1, Math.min(movers.length, (to - from) / PARALLEL_NODE_THRESHOLD));
+                maxThreadCount = Math.max(maxThreadCount, threadCount);
+                LocalMover[] colorMovers = new LocalMover[threadCount];
+                for(int t = 0 ; t < threadCount ; t++){
+                    colorMovers[t] = movers[t];
+                    colorMovers[t].setNodes(colorNodes, from + (int) ((long) (to - from) * t / threadCount),
+                            from + (int) ((long) (to - from) * (t + 1) / threadCount));
                 }
-                // Hamiltonian objective change due to movement of nodeId to neighbor groups
-                double bestChange = 0;
-                int bestNeighborGroupId = -1;
-                for(int queueIndex = 0 ; queueIndex < queueHead ; queueIndex++){
-                    int neighborGroupId = (int) groupQueue[queueIndex][0];
-                    pPositive.CpK = groupQueue[queueIndex][1];
-                    pPositive.KCp = groupQueue[queueIndex][2];
-                    pNegative.CpK = groupQueue[queueIndex][3];
-                    pNegative.KCp = groupQueue[queueIndex][4];
-                    // add node sub-node groupCount to neighbor group temporarily for local change calculation
-                    pPositive.NCp = pNegative.NCp = nodeCount[neighborGroupId] + nodeSize;
-                    double pChange = localChange(pPositive);
-                    double nChange = localChange(pNegative);
-                    double change = this.params.alpha * pChange - (1 - this.params.alpha) * nChange;
-                    if(change < bestChange){
-                        bestChange = change;
-                        bestNeighborGroupId = neighborGroupId;
+                run(colorMovers);
+                for(int k = from ; k < to ; k++){
+                    int nodeId = colorNodes[k];
+                    if(changes[nodeId] < 0){
+                        int groupId = partition[nodeId];
+                        partition[nodeId] = targets[nodeId];
+                        nodeCount.addAndGet(groupId, -nodeSizes[nodeId]);
+                        nodeCount.addAndGet(targets[nodeId], nodeSizes[nodeId]);
+                        hamChange += changes[nodeId];
+                        movedNodes++;
                     }
                 }
-                // If a better neighbor group is found, move the node to that group
-                if (bestChange < 0){
-                    partition[nodeId] = bestNeighborGroupId;
-                    nodeCount[groupId] -= nodeSize;
-                    nodeCount[bestNeighborGroupId] += nodeSize;
-                    // Hamiltonian is improved in this pass so a next pass is allowed
-                    hamImproved = true;
-                    hamChange += bestChange;
+            }
+            moves += (long) movedNodes;
+        }
+        logLocalMoving(N, maxThreadCount, passes, (long) passes * N, moves);
+        return hamChange;
+    }
+
+    /**
+     * Greedily moves a range of nodes into their best neighbor groups,
+     * movers of different threads share the partition and group sizes
+     * but each has its own statistics of neighbor groups
+     */
+    private class LocalMover implements Runnable {
+        private SignedAdjacency adjacency;
+        private int[] partition;
+        private int[] nodeSizes;
+        private AtomicIntegerArray nodeCount;
+        // Statistics of neighbor groups of the node being moved (pCpK, pKCp, nCpK, nKCp)
+        private CPMWorkspace.NeighborGroups groups;
+        // holds group CPM statistics of each node
+        private CPMParameters pPositive = new CPMParameters();
+        private CPMParameters pNegative = new CPMParameters();
+        // nodes[from...to - 1] are moved by this mover
+        private int[] nodes;
+        private int from;
+        private int to;
+        // change of hamiltonian and number of moved nodes during the last run
+        private double hamChange;
+        private int movedNodes;
+        // if set, best group and change of each node are recorded here instead of moving the node
+        private int[] targets;
+        private double[] changes;
+        // if set, a node is only moved into groups of neighbors with the same bound,
+        // with at least a positive link between them
+        private int[] bounds;
+
+        private LocalMover(SignedAdjacency adjacency, int[] partition, int[] nodeSizes,
+                           AtomicIntegerArray nodeCount, CPMWorkspace.NeighborGroups groups){
+            this.adjacency = adjacency;
+            this.partition = partition;
+            this.nodeSizes = nodeSizes;
+            this.nodeCount = nodeCount;
+            this.groups = groups;
+        }
+
+        private void setNodes(int[] nodes, int from, int to){
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+        }
+
+        private void setTargets(int[] targets, double[] changes){
+            this.targets = targets;
+            this.changes = changes;
+        }
+
+        private void setBounds(int[] bounds){
+            this.bounds = bounds;
+        }
+
+        @Override
+        public void run() {
+            hamChange = 0;
+            movedNodes = 0;
+            for(int k = from ; k < to ; k++){
+                double change = move(nodes[k]);
+                if(change < 0){
+                    hamChange += change;
                     movedNodes++;
                 }
-                // Clear the data structures for tracking the neighbor groups of next node
-                for(int queueIndex = 0 ; queueIndex < queueHead ; queueIndex++){
-                    neighborGroupQIndex[(int) groupQueue[queueIndex][0]] = -1;
-                    for(int statisticsIndex = 0 ; statisticsIndex < 5 ; statisticsIndex++){
-                        groupQueue[queueIndex][statisticsIndex] = 0;
+            }
+        }
+
+        /**
+         * Move the node into its best neighbor group if any
+         * @param nodeId
+         * @return change in hamiltonian, negative if node is moved
+         */
+        private double move(int nodeId){
+            double[] pCpK = groups.pCpK;
+            double[] pKCp = groups.pKCp;
+            double[] nCpK = groups.nCpK;
+            double[] nKCp = groups.nKCp;
+            int groupId = partition[nodeId];
+            // Number of nodes if nodeId is a folded one
+            int nodeSize = nodeSizes[nodeId];
+            // Initialize parameters used in objective change calculation
+            pPositive.KC = pNegative.KC = 0;
+            pPositive.CK = pNegative.CK = 0;
+            pPositive.Kin = pNegative.Kin = 0;
+            pPositive.Kout = pNegative.Kout = 0;
+            pPositive.Kself = pNegative.Kself = 0;
+            pPositive.NC = pNegative.NC = nodeCount.get(groupId);
+            pPositive.Nk = pNegative.Nk = nodeSize;
+            pPositive.resolution = params.resolution;
+            pNegative.resolution = 0; // this is described in the paper
+            // Get outward-inward neighbor groups of nodeId
+            // out-links are followed by in-links of nodeId, both signs merged in one range,
+            // for a symmetric graph only out-links are stored and each one is an in-link as well
+            boolean isSymmetric = adjacency.isSymmetric();
+            int[] neighbors = adjacency.getNeighbors();
+            float[] linkValues = adjacency.getValues();
+            int inStart = adjacency.getInStart(nodeId);
+            int end = adjacency.getEnd(nodeId);
+            for (int n = adjacency.getStart(nodeId); n < end; n++) {
+                boolean isOutward = n < inStart;
+                boolean isInward = isSymmetric || !isOutward;
+                int neighborId = neighbors[n];
+                if (bounds != null && bounds[neighborId] != bounds[nodeId]) continue;
+                double linkValue = linkValues[n];
+                int neighborGroupId = partition[neighborId];
+                if (nodeId == neighborId) { // self loop (will be counted two times)
+                    if (linkValue > 0) pPositive.Kself = linkValue;
+                    else pNegative.Kself = -linkValue;
+                }
+                if (groupId == neighborGroupId) { // link inside the group
+                    if (isOutward) { // from node to its group
+                        if (linkValue > 0) pPositive.KC += linkValue;
+                        else pNegative.KC -= linkValue;
+                    }
+                    if (isInward) { // from group to node
+                        if (linkValue > 0) pPositive.CK += linkValue;
+                        else pNegative.CK -= linkValue;
+                    }
+                } else { // link toward neighbor groups
+                    groups.touch(neighborGroupId);
+                    if (isOutward) {  // from node to neighbor group
+                        if (linkValue > 0) pKCp[neighborGroupId] += linkValue;
+                        else nKCp[neighborGroupId] -= linkValue;
+                    }
+                    if (isInward) { // neighbor group to node
+                        if (linkValue > 0) pCpK[neighborGroupId] += linkValue;
+                        else nCpK[neighborGroupId] -= linkValue;
                     }
                 }
-                queueHead = 0; //reset queue header for next nodeId
-            } // for each node of graph
+                if (isOutward) {
+                    if (linkValue > 0) pPositive.Kout += linkValue;
+                    else pNegative.Kout -= linkValue;
+                }
+                if (isInward) {
+                    if (linkValue > 0) pPositive.Kin += linkValue;
+                    else pNegative.Kin -= linkValue;
+                }
+            } // neighbors of nodeId
+            /*
+                In formulation of CPM object, each node set is considered in both its group
+                and the group it wants to move into,
+                so add the self-loop of node to its neighbor groups as well
+             */
+            int[] touchedGroups = groups.touchedGroups;
+            int touchedCount = groups.touchedCount;
+            for(int t = 0 ; t < touchedCount ; t++){
+                int neighborGroupId = touchedGroups[t];
+                // from node to neighbor groups
+                pKCp[neighborGroupId] += pPositive.Kself;
+                nKCp[neighborGroupId] += pNegative.Kself;
+                // from neighbor group to node
+                pCpK[neighborGroupId] += pPositive.Kself;
+                nCpK[neighborGroupId] += pNegative.Kself;
+            }
+            // Hamiltonian objective change due to movement of nodeId to neighbor groups
+            double bestChange = 0;
+            int bestNeighborGroupId = -1;
+            for(int t = 0 ; t < touchedCount ; t++){
+                int neighborGroupId = touchedGroups[t];
+                if (bounds != null && pCpK[neighborGroupId] + pKCp[neighborGroupId] <= 2 * pPositive.Kself) {
+                    continue; // no positive link toward the neighbor group
+                }
+                pPositive.CpK = pCpK[neighborGroupId];
+                pPositive.KCp = pKCp[neighborGroupId];
+                pNegative.CpK = nCpK[neighborGroupId];
+                pNegative.KCp = nKCp[neighborGroupId];
+                // add node sub-node groupCount to neighbor group temporarily for local change calculation
+                pPositive.NCp = pNegative.NCp = nodeCount.get(neighborGroupId) + nodeSize;
+                double pChange = localChange(pPositive);
+                double nChange = localChange(pNegative);
+                double change = params.alpha * pChange - (1 - params.alpha) * nChange;
+                if(change < bestChange){
+                    bestChange = change;
+                    bestNeighborGroupId = neighborGroupId;
+                }
+            }
+            // If a better neighbor group is found, move the node to that group
+            if(targets != null){
+                targets[nodeId] = bestNeighborGroupId;
+                changes[nodeId] = bestChange;
+            }else if (bestChange < 0){
+                partition[nodeId] = bestNeighborGroupId;
+                nodeCount.addAndGet(groupId, -nodeSize);
+                nodeCount.addAndGet(bestNeighborGroupId, nodeSize);
+            }
+            // Clear the data structures for tracking the neighbor groups of next node
+            groups.clear();
+            return bestChange;
         }
-//        Shared.log(" dHamiltonian(" + this.resolution + "): " + hamChange);
-        return  - hamChange; // hamiltonian decrease is an improvement
+    }
+
+    @Override
+    protected boolean isRecursiveRefine() {
+        return params.refineMethod == CPMParameters.REFINE_RECURSIVE;
     }
 
     @Override
@@ -246,11 +627,35 @@ public class CPM extends RosvallBergstrom {
         return hamiltonian;
     }
 
+    @Override
+    protected boolean isWarmStart() {
+        return params.warmStart;
+    }
+
+    @Override
+    protected CPM newWarmStartInstance() {
+        CPM cpm = newInstance();
+        cpm.params.warmStart = true;
+        return cpm;
+    }
+
     @Override
     public CPM newInstance() {
-        return (CPM) new CPM()
+        CPM cpm = (CPM) new CPM()
                 .setParams(this.params.clone())
-                .setThreadCount(getThreadCount());
+                .setThreadCount(getThreadCount())
+                .setWorkerPool(getWorkerPool());
+        // sub-detections reuse the workspaces of this detection and add to its statistics
+        cpm.workspaces = workspaces;
+        cpm.localMovingStatistics = localMovingStatistics;
+        return cpm;
+    }
+
+    /**
+     * @return local moving work of the last detection
+     */
+    public LocalMovingStatistics getLocalMovingStatistics() {
+        return localMovingStatistics;
     }
 
     public CPM setParams(CPMParameters params){
@@ -1,6 +1,34 @@
 package network.optimization;
 
 public class CPMParameters extends ObjectiveParameters {
+
+    /**
+     * Local moving modes: one node at a time, nodes of each thread moved concurrently,
+     * nodes of each color (non-adjacent nodes) moved concurrently with a deterministic result,
+     * or one node at a time taken from a queue of nodes whose neighborhood has changed
+     */
+    public static final int MOVE_SERIAL = 0;
+    public static final int MOVE_ASYNC = 1;
+    public static final int MOVE_COLORED = 2;
+    public static final int MOVE_QUEUE = 3;
+
+    /**
+     * Name of each local moving mode, indexed by the mode
+     */
+    public static final String[] MOVE_NAMES = {"serial", "async", "colored", "queue"};
+
+    /**
+     * Refinement methods: recursive sub-module movement of Rosvall-Bergstrom after detection,
+     * or Leiden refinement of groups before each folding
+     */
+    public static final int REFINE_RECURSIVE = 0;
+    public static final int REFINE_LEIDEN = 1;
+
+    /**
+     * Name of each refinement method, indexed by the method
+     */
+    public static final String[] REFINE_NAMES = {"recursive", "leiden"};
+
     public double KC; // weight from node set K to group C, where group(K) = C
     public double  CK;
     public double KCp; // weight from node set K to group Cp, where group(K) <> C
@@ -26,6 +54,23 @@ public class CPMParameters extends ObjectiveParameters {
      */
     public int randomSeed;
 
+    /**
+     * Local moving mode of greedy optimization, {@link #MOVE_SERIAL}, {@link #MOVE_ASYNC},
+     * {@link #MOVE_COLORED} or {@link #MOVE_QUEUE}
+     */
+    public int localMoving;
+
+    /**
+     * Refinement method, {@link #REFINE_RECURSIVE} or {@link #REFINE_LEIDEN}
+     */
+    public int refineMethod;
+
+    /**
+     * Whether the detection starts from given partitions of e.g. a nearby resolution,
+     * a warm start is folded even if local moving does not improve it
+     */
+    public boolean warmStart;
+
     public CPMParameters(){
         this.alpha = 0.5; // same weight for negative and positive edges
         this.randomSeed = -1;   // seed will be selected randomly
@@ -36,8 +81,26 @@ public class CPMParameters extends ObjectiveParameters {
         return this;
     }
 
+    public CPMParameters setLocalMoving(int localMoving) {
+        this.localMoving = localMoving;
+        return this;
+    }
+
+    public CPMParameters setRefineMethod(int refineMethod) {
+        this.refineMethod = refineMethod;
+        return this;
+    }
+
     public CPMParameters clone(){
-        CPMParameters parameters = new CPMParameters();
+        return copyTo(new CPMParameters());
+    }
+
+    /**
+     * Copy the parameters into the given parameters
+     * @param parameters
+     * @return parameters
+     */
+    protected CPMParameters copyTo(CPMParameters parameters){
         parameters.KC = KC;
         parameters.CK = CK;
         parameters.KCp = KCp;
@@ -55,6 +118,9 @@ public class CPMParameters extends ObjectiveParameters {
         parameters.alpha = alpha;
         parameters.refineCount = refineCount;
         parameters.randomSeed = randomSeed;
+        parameters.localMoving = localMoving;
+        parameters.refineMethod = refineMethod;
+        parameters.warmStart = warmStart;
         return parameters;
     }
 }
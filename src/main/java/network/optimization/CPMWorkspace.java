@@ -0,0 +1,151 @@
+package network.optimization;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Buffers of CPM local moving that are reused across levels and sub-graphs of a detection,
+ * buffers only grow when a larger graph is processed, so repeated greedy calls
+ * (e.g. on many small sub-graphs during refinement) do not allocate per call,
+ * a workspace is used by one greedy call at a time and is dropped when its detection finishes
+ */
+class CPMWorkspace {
+
+    /**
+     * Number of original nodes inside each node
+     */
+    private int[] nodeSizes = new int[0];
+
+    /**
+     * Number of original nodes inside each group
+     */
+    private AtomicIntegerArray groupSizes = new AtomicIntegerArray(0);
+
+    /**
+     * Order of visiting nodes, and the circular queue of active nodes
+     */
+    private int[] permutation = new int[0];
+    private boolean[] isQueued = new boolean[0];
+
+    /**
+     * Neighbor group statistics, one per mover thread
+     */
+    private NeighborGroups[] neighborGroups = new NeighborGroups[0];
+
+    /**
+     * @param nodeCount
+     * @return buffer of at least nodeCount length
+     */
+    int[] getNodeSizes(int nodeCount){
+        if(nodeSizes.length < nodeCount){
+            nodeSizes = new int[nodeCount];
+        }
+        return nodeSizes;
+    }
+
+    /**
+     * @param groupCount
+     * @return buffer of at least groupCount length with zero sizes for the first groupCount groups
+     */
+    AtomicIntegerArray getGroupSizes(int groupCount){
+        if(groupSizes.length() < groupCount){
+            groupSizes = new AtomicIntegerArray(groupCount);
+        }else{
+            for(int g = 0 ; g < groupCount ; g++){
+                groupSizes.lazySet(g, 0);
+            }
+        }
+        return groupSizes;
+    }
+
+    /**
+     * @param nodeCount
+     * @return buffer of at least nodeCount length
+     */
+    int[] getPermutation(int nodeCount){
+        if(permutation.length < nodeCount){
+            permutation = new int[nodeCount];
+        }
+        return permutation;
+    }
+
+    /**
+     * @param nodeCount
+     * @return buffer of at least nodeCount length
+     */
+    boolean[] getIsQueued(int nodeCount){
+        if(isQueued.length < nodeCount){
+            isQueued = new boolean[nodeCount];
+        }
+        return isQueued;
+    }
+
+    /**
+     * @param index index of mover
+     * @param groupCount
+     * @return cleared statistics of at least groupCount groups
+     */
+    NeighborGroups getNeighborGroups(int index, int groupCount){
+        if(neighborGroups.length <= index){
+            NeighborGroups[] grown = new NeighborGroups[index + 1];
+            System.arraycopy(neighborGroups, 0, grown, 0, neighborGroups.length);
+            neighborGroups = grown;
+        }
+        if(neighborGroups[index] == null || neighborGroups[index].isTouched.length < groupCount){
+            neighborGroups[index] = new NeighborGroups(groupCount);
+        }
+        return neighborGroups[index];
+    }
+
+    /**
+     * Statistics of the neighbor groups of one node as flat arrays indexed by group id,
+     * touched groups are listed in the order of being visited, and cleared after the node is processed
+     */
+    static class NeighborGroups {
+        /**
+         * Positive and negative weight from group to node, and from node to group
+         */
+        final double[] pCpK;
+        final double[] pKCp;
+        final double[] nCpK;
+        final double[] nKCp;
+
+        /**
+         * Groups visited as neighbors of the current node
+         */
+        final int[] touchedGroups;
+        final boolean[] isTouched;
+        int touchedCount;
+
+        private NeighborGroups(int groupCount){
+            pCpK = new double[groupCount];
+            pKCp = new double[groupCount];
+            nCpK = new double[groupCount];
+            nKCp = new double[groupCount];
+            touchedGroups = new int[groupCount];
+            isTouched = new boolean[groupCount];
+        }
+
+        /**
+         * Add the group to touched groups if not touched before
+         * @param groupId
+         */
+        void touch(int groupId){
+            if(!isTouched[groupId]){
+                isTouched[groupId] = true;
+                touchedGroups[touchedCount++] = groupId;
+            }
+        }
+
+        /**
+         * Reset the statistics of touched groups
+         */
+        void clear(){
+            for(int t = 0 ; t < touchedCount ; t++){
+                int groupId = touchedGroups[t];
+                isTouched[groupId] = false;
+                pCpK[groupId] = pKCp[groupId] = nCpK[groupId] = nKCp[groupId] = 0;
+            }
+            touchedCount = 0;
+        }
+    }
+}
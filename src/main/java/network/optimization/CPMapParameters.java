@@ -1,10 +1,25 @@
 package network.optimization;
 
+import network.utils.WorkerPool;
+
 /**
  * Parameters for the (CPM + Signed Map Equation) community detection
  */
 public class CPMapParameters extends CPMParameters {
 
+    /**
+     * Resolution search strategies: 5 evenly split resolutions narrowed around the best one,
+     * golden-section search, or a log-scale scan followed by golden-section search around the best one
+     */
+    public static final int SEARCH_BRACKET = 0;
+    public static final int SEARCH_GOLDEN = 1;
+    public static final int SEARCH_LOG_SCAN = 2;
+
+    /**
+     * Name of each search strategy, indexed by the strategy
+     */
+    public static final String[] SEARCH_NAMES = {"bracket", "golden", "log-scan"};
+
     /**
      * Probability of choosing to teleport instead of following the transition probability matrix
      * to guarantee convergence of G * p = p
@@ -42,6 +57,42 @@ public class CPMapParameters extends CPMParameters {
      */
     public float resolutionAccuracy;
 
+    /**
+     * Start the detection of each resolution from the partition of the nearest evaluated resolution
+     * instead of singletons, and its stationary distribution from the nearest distribution instead of uniform
+     */
+    public boolean warmStart;
+
+    /**
+     * Resolution search strategy, {@link #SEARCH_BRACKET}, {@link #SEARCH_GOLDEN} or {@link #SEARCH_LOG_SCAN}
+     */
+    public int search;
+
+    /**
+     * Stationary distribution iterations stop when the distance of two consecutive distributions
+     * in the norm (0: L2, 1: L1, 2: max) is not more than the tolerance, or after the max iterations,
+     * defaults are the same as the stationary distribution defaults
+     */
+    public double stationaryTolerance = 0.0000000001;
+    public int stationaryNorm;
+    public int stationaryMaxIterations = 10000;
+
+    /**
+     * Accelerate the stationary distribution iterations by Aitken extrapolation
+     */
+    public boolean aitken;
+
+    /**
+     * Worker threads shared by the detections and evaluations of all resolutions,
+     * CPMap creates its own pool for the search if null
+     */
+    public WorkerPool workerPool;
+
+    /**
+     * Local moving work of the detections of all resolutions is added here if not null
+     */
+    public LocalMovingStatistics localMovingStatistics;
+
     /**
      * Constructor
      * @param tau
@@ -73,4 +124,60 @@ public class CPMapParameters extends CPMParameters {
         this.threadCount = threadCount;
         this.randomSeed = randomSeed;
     }
+
+    @Override
+    public CPMapParameters clone(){
+        CPMapParameters parameters = new CPMapParameters(TAU, TELEPORT_TO_NODE, USE_RECORDED,
+                resolutionAccuracy, resolutionStart, resolutionEnd, refineCount, threadCount, randomSeed);
+        copyTo(parameters);
+        parameters.warmStart = warmStart;
+        parameters.search = search;
+        parameters.workerPool = workerPool;
+        parameters.stationaryTolerance = stationaryTolerance;
+        parameters.stationaryNorm = stationaryNorm;
+        parameters.stationaryMaxIterations = stationaryMaxIterations;
+        parameters.aitken = aitken;
+        parameters.localMovingStatistics = localMovingStatistics;
+        return parameters;
+    }
+
+    public CPMapParameters setSearch(int search) {
+        this.search = search;
+        return this;
+    }
+
+    public CPMapParameters setStationaryTolerance(double stationaryTolerance) {
+        this.stationaryTolerance = stationaryTolerance;
+        return this;
+    }
+
+    public CPMapParameters setStationaryNorm(int stationaryNorm) {
+        this.stationaryNorm = stationaryNorm;
+        return this;
+    }
+
+    public CPMapParameters setStationaryMaxIterations(int stationaryMaxIterations) {
+        this.stationaryMaxIterations = stationaryMaxIterations;
+        return this;
+    }
+
+    public CPMapParameters setAitken(boolean aitken) {
+        this.aitken = aitken;
+        return this;
+    }
+
+    public CPMapParameters setWorkerPool(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+        return this;
+    }
+
+    public CPMapParameters setLocalMovingStatistics(LocalMovingStatistics localMovingStatistics) {
+        this.localMovingStatistics = localMovingStatistics;
+        return this;
+    }
+
+    public CPMapParameters setWarmStart(boolean warmStart) {
+        this.warmStart = warmStart;
+        return this;
+    }
 }
@@ -0,0 +1,30 @@
+package network.optimization;
+
+/**
+ * Amount of local moving work of a detection, summed over all its levels and sub-detections
+ */
+public class LocalMovingStatistics {
+    public long visits; // number of node visits
+    public long moves; // number of node moves into other groups
+    public int maxThreadCount; // largest number of movers that moved nodes of a graph concurrently
+
+    /**
+     * Add the work of one local moving
+     * @param visits
+     * @param moves
+     * @param threadCount number of concurrent movers
+     */
+    synchronized void add(long visits, long moves, int threadCount){
+        this.visits += visits;
+        this.moves += moves;
+        this.maxThreadCount = Math.max(maxThreadCount, threadCount);
+    }
+
+    /**
+     * Add the work of another detection
+     * @param statistics
+     */
+    public void add(LocalMovingStatistics statistics){
+        add(statistics.visits, statistics.moves, statistics.maxThreadCount);
+    }
+}
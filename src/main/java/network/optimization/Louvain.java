@@ -56,30 +56,54 @@ abstract public class Louvain implements Runnable{
          */
         int[] partition = initialPartition.clone();
         if(partition.length == 1) return partition;
-        Graph transpose = graph.transpose(true);
-        double improvement = greedy(graph, transpose, partition);
-        if(improvement <= 0.0 || foldCount == 0.0){
+        // A warm start with merged nodes is folded even if not improved,
+        // so its groups are still merged further in the folded levels
+        boolean isGrouped = isWarmStart() && Statistics.array(partition).uniqueCount < partition.length;
+        // Out and in neighbors of all nodes, built once per level
+        SignedAdjacency adjacency = new SignedAdjacency(graph);
+        double improvement = greedy(graph, adjacency, partition);
+        if((improvement <= 0.0 && !isGrouped) || foldCount == 0.0){
             // No further improvement was made by coarse-grain
             // or no further coarse-grain is needed
             return partition;
         }
         // Rebuild the network of communities:
-        // Fold negative & positive sub-graphs separately according to partition
-        MultiGraph foldedGraph = graph.fold(partition);
+        // Fold negative & positive sub-graphs separately according to partition,
+        // or according to its refinement into sub-groups if any
+        int[] refinedPartition = refineGroups(graph, adjacency, partition);
+        int[] foldPartition = refinedPartition != null ? refinedPartition : partition;
+        MultiGraph foldedGraph = graph.fold(foldPartition);
         // At least 1% decrease in network size is expected
         double sizeRatio = (double) foldedGraph.getNodeCount() / graph.getNodeCount();
+        if(sizeRatio > 0.99 && refinedPartition != null){
+            // refinement has barely merged any node, fold the groups instead
+            refinedPartition = null;
+            foldPartition = partition;
+            foldedGraph = graph.fold(partition);
+            sizeRatio = (double) foldedGraph.getNodeCount() / graph.getNodeCount();
+        }
         if(sizeRatio > 0.99 || foldedGraph.getNodeCount() <= 1){
             return partition;
         }
+        int[] foldedToGroup = foldedGraph.getToRaw()[ROW];
+        // Folded nodes start as singletons, or inside the group of their sub-group if refined
+        int[] foldedInitialPartition = Util.ramp(foldedGraph.getNodeMaxId() + 1);
+        if(refinedPartition != null){
+            int[] subGroupToGroup = new int[partition.length];
+            for(int nodeId = 0 ; nodeId < partition.length ; nodeId++){
+                subGroupToGroup[refinedPartition[nodeId]] = partition[nodeId];
+            }
+            for(int foldedNodeId = 0 ; foldedNodeId < foldedToGroup.length ; foldedNodeId++){
+                foldedInitialPartition[foldedNodeId] = subGroupToGroup[foldedToGroup[foldedNodeId]];
+            }
+        }
         // Recursive detect optimization, partition the network of groups
-        int[] foldedPartition = detect(foldedGraph,
-                Util.ramp(foldedGraph.getNodeMaxId() + 1), foldCount - 1);
+        int[] foldedPartition = detect(foldedGraph, foldedInitialPartition, foldCount - 1);
         /*
          * Node with groupId = g in the current level gets groupId = maps[g] after coarsening
          * e.g. a node x is in group 10, group 10 is node 0 in folded graph
          * node 0 gets super-group 4, so node x is in group 4
          */
-        int[] foldedToGroup = foldedGraph.getToRaw()[ROW];
         OpenIntIntHashMap groupToSuperGroup = new OpenIntIntHashMap(foldedGraph.getNodeCount());
         for(int foldedNodeId = 0 ; foldedNodeId < foldedPartition.length ; foldedNodeId++){
             // groupId of folded nodes before being folded-normalized into a super node
@@ -89,7 +113,7 @@ abstract public class Louvain implements Runnable{
         // Change group id of node x with the corresponding super group of group id
         int[] superPartition = new int[partition.length];
         for(int nodeId = 0 ; nodeId < partition.length ; nodeId++){
-            superPartition[nodeId] = groupToSuperGroup.get(partition[nodeId]);
+            superPartition[nodeId] = groupToSuperGroup.get(foldPartition[nodeId]);
         }
         return superPartition; // detected partition
     }
@@ -98,11 +122,32 @@ abstract public class Louvain implements Runnable{
      * Greedy optimization per folding that is used in detect,
      * Greedily moves nodes into best neighbor communities until convergence
      * @param graph
-     * @param transpose transpose of graph for faster traverse on columns
+     * @param adjacency out and in neighbors of each node of graph for a single scan per node
      * @param partition this is the initial partition, changes are applied on this
      * @return improvement in objective function
      */
-    abstract protected double greedy(MultiGraph graph, Graph transpose, int[] partition);
+    abstract protected double greedy(MultiGraph graph, SignedAdjacency adjacency, int[] partition);
+
+    /**
+     * Whether the initial partition is a warm start (e.g. the partition of a nearby resolution),
+     * otherwise an initial partition that is not improved by local moving is returned as it is
+     * @return
+     */
+    protected boolean isWarmStart(){
+        return false;
+    }
+
+    /**
+     * Refine the groups of partition into sub-groups before folding,
+     * folded nodes are then the sub-groups, starting inside their groups
+     * @param graph
+     * @param adjacency
+     * @param partition
+     * @return sub-group of each node, or null if groups are folded as they are
+     */
+    protected int[] refineGroups(MultiGraph graph, SignedAdjacency adjacency, int[] partition){
+        return null;
+    }
 
     /**
      * Local change in the objective function by moving nodes between groups
@@ -4,6 +4,7 @@ import network.core.MultiGraph;
 import network.core.Util;
 import network.utils.Entry;
 import network.utils.MultiRunnable;
+import network.utils.WorkerPool;
 
 import java.util.PriorityQueue;
 
@@ -17,6 +18,11 @@ abstract public class ParallelLouvain extends Louvain {
      */
     private int threadCount;
 
+    /**
+     * Worker threads shared by the detection session, threads are created per call if null
+     */
+    private WorkerPool workerPool;
+
     /**
      * Thread groupCount is set to one by default
      */
@@ -48,13 +54,10 @@ abstract public class ParallelLouvain extends Louvain {
         // Parallel execution
         int threadCount = Math.min(graphs.length, getThreadCount()); // no more than no. graphs
         MultiRunnable[] workers = new MultiRunnable[threadCount]; // one worker per thread
-        Thread[] threads = new Thread[threadCount];
         // threadLoad is used to balance work load based on graph sizes
         PriorityQueue<Entry> threadLoad = new PriorityQueue<>(threadCount);
         for(int t = 0 ; t < threadCount ; t++){
             workers[t] = new MultiRunnable();
-            threads[t] = new Thread(workers[t], "Louvain " + t);
-            threads[t].setPriority(Thread.MAX_PRIORITY);
             threadLoad.add(new Entry(t, 0)); // each thread is initialized with zero load
         }
         // Assign each louvain detector to a worker
@@ -63,7 +66,9 @@ abstract public class ParallelLouvain extends Louvain {
             partitions[g] = initialPartitions[g]; // as the default answer if no detection is carried out
             if(graphs[g] == null || graphs[g].isEmpty()) continue; // no edge to detect
             // set the graphId for detector to distinguish it when the partitions are detected
-            Louvain detector = newInstance().init(graphs[g], initialPartitions[g], foldCount).setId(g);
+            // threads are already spent on separate graphs, so each graph is detected by one thread
+            Louvain detector = newInstance().setThreadCount(1)
+                    .init(graphs[g], initialPartitions[g], foldCount).setId(g);
             // Add the job to lightest thread load, then re-insert it into priority queue
             Entry load = threadLoad.poll();
             workers[load.getKey()].add(detector);
@@ -71,24 +76,33 @@ abstract public class ParallelLouvain extends Louvain {
         }
         // Run workers
 //        Shared.log("Run parallel detection");
-        for(Thread thread : threads){
-            thread.start();
-        }
+        run(workers);
         // Accumulate the detected partitions
-        try {
-            for (int workerId = 0; workerId < threadCount; workerId++) {
-                threads[workerId].join(); // wait for this worker to finish its job
-                MultiRunnable worker = workers[workerId];
-                int detectorCount = worker.size();
-                for(int index = 0 ; index < detectorCount ; index++){
-                    Louvain detector = (Louvain) worker.get(index);
-                    partitions[detector.getId()] = detector.getPartition();
-                }
+        for (int workerId = 0; workerId < threadCount; workerId++) {
+            MultiRunnable worker = workers[workerId];
+            int detectorCount = worker.size();
+            for(int index = 0 ; index < detectorCount ; index++){
+                Louvain detector = (Louvain) worker.get(index);
+                partitions[detector.getId()] = detector.getPartition();
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Run the tasks in parallel on the worker pool,
+     * or on a pool of {@link #getThreadCount()} threads created for this call if no pool is set
+     * @param tasks
+     */
+    protected void run(Runnable[] tasks){
+        if(tasks.length == 1){
+            tasks[0].run();
+        }else if(workerPool != null){
+            workerPool.run(tasks);
+        }else{
+            try(WorkerPool pool = new WorkerPool(tasks.length)){
+                pool.run(tasks);
             }
-            return partitions;
-        }catch (InterruptedException e) {
-            e.printStackTrace();
-            return null;
         }
     }
 
@@ -106,4 +120,13 @@ abstract public class ParallelLouvain extends Louvain {
     public int getThreadCount() {
         return threadCount;
     }
+
+    public ParallelLouvain setWorkerPool(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+        return this;
+    }
+
+    public WorkerPool getWorkerPool() {
+        return workerPool;
+    }
 }
@@ -33,14 +33,30 @@ abstract public class RosvallBergstrom extends ParallelLouvain {
      * @return
      */
     protected int[][] partition(MultiGraph[] graphs, int refineCount) {
+        return partition(graphs, null, refineCount);
+    }
+
+    /**
+     * Find the best partition for each graph via parallel detection starting from the given partitions
+     *
+     * @param graphs
+     * @param initialPartitions partition to start from per graph, singletons if null
+     * @param refineCount number of refinements after the first application of detect method
+     * @return
+     */
+    protected int[][] partition(MultiGraph[] graphs, int[][] initialPartitions, int refineCount) {
         ParallelLouvain detector = newInstance();
         Shared.log("Louvain algorithm started");
-        int[][] partition = detector.detect(graphs, 1000);
+        // refinements start from the detected partitions, they are not warm starts
+        int[][] partition = initialPartitions == null ? detector.detect(graphs, 1000)
+                : newWarmStartInstance().detect(graphs, initialPartitions, 1000);
         for (int graphId = 0; graphId < graphs.length; graphId++) {
             for (int r = 0; r < refineCount; r++) {
                 Shared.log("Refinement No. " + (r + 1) + " for graph size " + graphs[graphId].getNodeCount());
-                // Run the recursive submodule movement to improve the optimization
-                int[] refinedPartition = refine(graphs[graphId], partition[graphId]);
+                // Run the recursive submodule movement to improve the optimization,
+                // otherwise groups are refined per level during the detection itself
+                int[] refinedPartition = isRecursiveRefine() ?
+                        refine(graphs[graphId], partition[graphId]) : partition[graphId];
                 // Run single node movement upon refined partitions
                 partition[graphId] = detector.detect(graphs[graphId], refinedPartition, 1000);
             }
@@ -48,6 +64,23 @@ abstract public class RosvallBergstrom extends ParallelLouvain {
         return partition;
     }
 
+    /**
+     * Whether refinements are done by the recursive sub-module movement of {@link #refine(MultiGraph, int[])},
+     * otherwise the detection is repeated starting from the last partition
+     * @return
+     */
+    protected boolean isRecursiveRefine(){
+        return true;
+    }
+
+    /**
+     * Instantiate a detector that starts from given partitions, e.g. the partitions of a nearby resolution
+     * @return
+     */
+    protected ParallelLouvain newWarmStartInstance(){
+        return newInstance();
+    }
+
     protected int[] refine(MultiGraph graph, int[] initialPartition) {
         // Put each partition into a separate graph for isolated louvain community detection
         // Normalize the partition since decomposition assumes normalized partitions
@@ -0,0 +1,115 @@
+package network.utils;
+
+import java.util.Arrays;
+
+/**
+ * Id map backed by an array over the key range [minKey, maxKey],
+ * suitable when keys are (nearly) dense, lookup is a single array access
+ */
+public class ArrayIdMap implements IdMap {
+
+    /**
+     * Marks an absent key, this value can not be stored
+     */
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    /**
+     * values[key - offset] is the value of key
+     */
+    private int[] values;
+
+    private int offset;
+
+    private int size;
+
+    /**
+     * @param minKey smallest expected key
+     * @param maxKey largest expected key, table grows if keys out of [minKey, maxKey] are put
+     */
+    public ArrayIdMap(int minKey, int maxKey){
+        offset = minKey;
+        values = new int[Math.max(0, maxKey - minKey + 1)];
+        Arrays.fill(values, EMPTY);
+    }
+
+    private ArrayIdMap(ArrayIdMap map){
+        offset = map.offset;
+        values = map.values.clone();
+        size = map.size;
+    }
+
+    @Override
+    public int get(int key) {
+        int index = key - offset;
+        if(index < 0 || index >= values.length) return 0;
+        int value = values[index];
+        return value == EMPTY ? 0 : value;
+    }
+
+    @Override
+    public void put(int key, int value) {
+        if(key < offset || key - offset >= values.length){
+            grow(key);
+        }
+        int index = key - offset;
+        if(values[index] == EMPTY){
+            size++;
+        }
+        values[index] = value;
+    }
+
+    @Override
+    public boolean containsKey(int key) {
+        int index = key - offset;
+        return index >= 0 && index < values.length && values[index] != EMPTY;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int[] keys() {
+        int[] keys = new int[size];
+        int insertAt = 0;
+        for(int index = 0 ; index < values.length ; index++){
+            if(values[index] != EMPTY){
+                keys[insertAt++] = index + offset;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Keys range + 1
+     * @return
+     */
+    public int getRange(){
+        return values.length;
+    }
+
+    @Override
+    public ArrayIdMap clone() {
+        return new ArrayIdMap(this);
+    }
+
+    /**
+     * Extend the key range to contain the key
+     * @param key
+     */
+    private void grow(int key){
+        if(values.length == 0){
+            offset = key;
+            values = new int[]{EMPTY};
+            return;
+        }
+        int newOffset = Math.min(offset, key);
+        int newMaxKey = Math.max(offset + values.length - 1, key);
+        int[] newValues = new int[newMaxKey - newOffset + 1];
+        Arrays.fill(newValues, EMPTY);
+        System.arraycopy(values, 0, newValues, offset - newOffset, values.length);
+        values = newValues;
+        offset = newOffset;
+    }
+}
@@ -0,0 +1,60 @@
+package network.utils;
+
+import cern.colt.list.IntArrayList;
+import cern.colt.map.OpenIntIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Id map backed by colt's hash map, suitable when keys are sparse over their range
+ */
+public class HashIdMap implements IdMap {
+
+    private OpenIntIntHashMap map;
+
+    public HashIdMap(){
+        map = new OpenIntIntHashMap();
+    }
+
+    /**
+     * @param expectedSize expected number of keys
+     */
+    public HashIdMap(int expectedSize){
+        map = new OpenIntIntHashMap(Math.max(expectedSize, 1));
+    }
+
+    private HashIdMap(OpenIntIntHashMap map){
+        this.map = map;
+    }
+
+    @Override
+    public int get(int key) {
+        return map.get(key);
+    }
+
+    @Override
+    public void put(int key, int value) {
+        map.put(key, value);
+    }
+
+    @Override
+    public boolean containsKey(int key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public int[] keys() {
+        IntArrayList keys = map.keys();
+        return Arrays.copyOf(keys.elements(), keys.size());
+    }
+
+    @Override
+    public HashIdMap clone() {
+        return new HashIdMap((OpenIntIntHashMap) map.clone());
+    }
+}
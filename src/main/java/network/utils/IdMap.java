@@ -0,0 +1,33 @@
+package network.utils;
+
+/**
+ * Maps raw (integer) ids to normalized ids,
+ * get returns 0 for absent keys similar to colt's OpenIntIntHashMap
+ */
+public interface IdMap {
+
+    /**
+     * Value of the key, 0 if key does not exist
+     * @param key
+     * @return
+     */
+    int get(int key);
+
+    void put(int key, int value);
+
+    boolean containsKey(int key);
+
+    /**
+     * Number of keys
+     * @return
+     */
+    int size();
+
+    /**
+     * Keys in no specific order
+     * @return
+     */
+    int[] keys();
+
+    IdMap clone();
+}
@@ -0,0 +1,206 @@
+package network.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing (linear probing) hash map from primitive long keys to float values,
+ * used instead of HashMap<Long, Float> to avoid boxing per entry
+ */
+public class LongFloatHashMap {
+
+    /**
+     * Marks an empty slot, the key equal to this value is kept outside the table
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private long[] keys;
+    private float[] values;
+
+    /**
+     * Whether the key equal to EMPTY exists, and its value
+     */
+    private boolean hasEmptyKey;
+    private float emptyKeyValue;
+
+    /**
+     * Number of keys
+     */
+    private int size;
+
+    /**
+     * Number of keys that triggers the table growth
+     */
+    private int resizeAt;
+
+    public LongFloatHashMap(){
+        this(16);
+    }
+
+    /**
+     * @param expectedSize expected number of keys
+     */
+    public LongFloatHashMap(int expectedSize){
+        allocate(tableSize(expectedSize));
+    }
+
+    /**
+     * Add the value to the value of key, key is inserted with the value if not exists
+     * @param key
+     * @param value
+     */
+    public void add(long key, float value){
+        if(key == EMPTY){
+            emptyKeyValue = hasEmptyKey ? emptyKeyValue + value : value;
+            if(!hasEmptyKey) size++;
+            hasEmptyKey = true;
+            return;
+        }
+        int slot = find(key);
+        if(keys[slot] == key){
+            values[slot] += value;
+        }else{
+            insert(slot, key, value);
+        }
+    }
+
+    /**
+     * Set the value of key
+     * @param key
+     * @param value
+     */
+    public void put(long key, float value){
+        if(key == EMPTY){
+            if(!hasEmptyKey) size++;
+            hasEmptyKey = true;
+            emptyKeyValue = value;
+            return;
+        }
+        int slot = find(key);
+        if(keys[slot] == key){
+            values[slot] = value;
+        }else{
+            insert(slot, key, value);
+        }
+    }
+
+    /**
+     * Value of the key, 0 if key does not exist
+     * @param key
+     * @return
+     */
+    public float get(long key){
+        if(key == EMPTY){
+            return hasEmptyKey ? emptyKeyValue : 0;
+        }
+        int slot = find(key);
+        return keys[slot] == key ? values[slot] : 0;
+    }
+
+    public boolean containsKey(long key){
+        return key == EMPTY ? hasEmptyKey : keys[find(key)] == key;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Keys in no specific order, aligned with {@link #values()}
+     * @return
+     */
+    public long[] keys(){
+        long[] existingKeys = new long[size];
+        int insertAt = 0;
+        for(long key : keys){
+            if(key != EMPTY){
+                existingKeys[insertAt++] = key;
+            }
+        }
+        if(hasEmptyKey){
+            existingKeys[insertAt] = EMPTY;
+        }
+        return existingKeys;
+    }
+
+    /**
+     * Values aligned with {@link #keys()}
+     * @return
+     */
+    public float[] values(){
+        float[] existingValues = new float[size];
+        int insertAt = 0;
+        for(int slot = 0 ; slot < keys.length ; slot++){
+            if(keys[slot] != EMPTY){
+                existingValues[insertAt++] = values[slot];
+            }
+        }
+        if(hasEmptyKey){
+            existingValues[insertAt] = emptyKeyValue;
+        }
+        return existingValues;
+    }
+
+    /**
+     * Remove all keys, table size is kept for reuse
+     */
+    public void clear(){
+        Arrays.fill(keys, EMPTY);
+        hasEmptyKey = false;
+        size = 0;
+    }
+
+    /**
+     * Slot of the key, or the empty slot where the key must be inserted
+     */
+    private int find(long key){
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while(keys[slot] != EMPTY && keys[slot] != key){
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void insert(int slot, long key, float value){
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        if(size > resizeAt){
+            long[] oldKeys = keys;
+            float[] oldValues = values;
+            allocate(2 * oldKeys.length);
+            for(int s = 0 ; s < oldKeys.length ; s++){
+                if(oldKeys[s] != EMPTY){
+                    int newSlot = find(oldKeys[s]);
+                    keys[newSlot] = oldKeys[s];
+                    values[newSlot] = oldValues[s];
+                }
+            }
+        }
+    }
+
+    private void allocate(int tableSize){
+        keys = new long[tableSize];
+        values = new float[tableSize];
+        Arrays.fill(keys, EMPTY);
+        resizeAt = (int) (tableSize * LOAD_FACTOR);
+    }
+
+    /**
+     * Power of two table size holding the expected keys under the load factor
+     */
+    static int tableSize(int expectedSize){
+        long size = (long) Math.ceil(Math.max(expectedSize, 4) / LOAD_FACTOR);
+        return (int) Math.min(1 << 30, Long.highestOneBit(size - 1) << 1);
+    }
+
+    /**
+     * Spread the bits of key over the table positions
+     */
+    static int hash(long key){
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
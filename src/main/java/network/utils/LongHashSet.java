@@ -0,0 +1,105 @@
+package network.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing (linear probing) hash set of primitive long keys,
+ * used instead of HashMap<Long, Boolean> to avoid boxing per entry
+ */
+public class LongHashSet {
+
+    /**
+     * Marks an empty slot, the key equal to this value is kept outside the table
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private long[] keys;
+
+    /**
+     * Whether the key equal to EMPTY exists
+     */
+    private boolean hasEmptyKey;
+
+    private int size;
+
+    /**
+     * Number of keys that triggers the table growth
+     */
+    private int resizeAt;
+
+    public LongHashSet(){
+        this(16);
+    }
+
+    /**
+     * @param expectedSize expected number of keys
+     */
+    public LongHashSet(int expectedSize){
+        allocate(LongFloatHashMap.tableSize(expectedSize));
+    }
+
+    /**
+     * Add the key
+     * @param key
+     * @return true if key did not exist before
+     */
+    public boolean add(long key){
+        if(key == EMPTY){
+            if(hasEmptyKey) return false;
+            hasEmptyKey = true;
+            size++;
+            return true;
+        }
+        int slot = find(key);
+        if(keys[slot] == key) return false;
+        keys[slot] = key;
+        size++;
+        if(size > resizeAt){
+            long[] oldKeys = keys;
+            allocate(2 * oldKeys.length);
+            for(long oldKey : oldKeys){
+                if(oldKey != EMPTY){
+                    keys[find(oldKey)] = oldKey;
+                }
+            }
+        }
+        return true;
+    }
+
+    public boolean contains(long key){
+        return key == EMPTY ? hasEmptyKey : keys[find(key)] == key;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Remove all keys, table size is kept for reuse
+     */
+    public void clear(){
+        Arrays.fill(keys, EMPTY);
+        hasEmptyKey = false;
+        size = 0;
+    }
+
+    /**
+     * Slot of the key, or the empty slot where the key must be inserted
+     */
+    private int find(long key){
+        int mask = keys.length - 1;
+        int slot = LongFloatHashMap.hash(key) & mask;
+        while(keys[slot] != EMPTY && keys[slot] != key){
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int tableSize){
+        keys = new long[tableSize];
+        Arrays.fill(keys, EMPTY);
+        resizeAt = (int) (tableSize * LOAD_FACTOR);
+    }
+}
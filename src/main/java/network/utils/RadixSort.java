@@ -0,0 +1,186 @@
+package network.utils;
+
+import network.core.Util;
+
+import java.util.Arrays;
+
+/**
+ * Stable least significant digit radix sort of unsigned long keys,
+ * keys are sorted along with the indices of their original positions,
+ * digits shared by all keys are skipped
+ */
+public class RadixSort {
+
+    /**
+     * Number of keys per thread below which sorting is done serially
+     */
+    public static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    /**
+     * Keys sorted (unsigned) ascending after sort
+     */
+    private long[] keys;
+
+    /**
+     * Sorted indices, indices[i] is the original position of i-th sorted key
+     */
+    private int[] indices;
+
+    /**
+     * Number of bits per digit
+     */
+    private int digitBits;
+
+    /**
+     * Keys and indices are moved back and forth between the main and these buffers
+     */
+    private long[] keyBuffer;
+    private int[] indexBuffer;
+
+    /**
+     * @param keys will be overwritten, use {@link #getKeys()} for the sorted keys
+     */
+    public RadixSort(long[] keys){
+        this.keys = keys;
+        indices = Util.ramp(keys.length);
+        // smaller digits for small inputs, to keep digit counters smaller than input
+        digitBits = keys.length < (1 << 16) ? 8 : 16;
+    }
+
+    public RadixSort sort(){
+        return sort(1);
+    }
+
+    /**
+     * Sort the keys, in parallel if there are enough keys per thread
+     * @param threadCount
+     * @return
+     */
+    public RadixSort sort(int threadCount){
+        int blockCount = Math.max(1, Math.min(threadCount, keys.length / PARALLEL_THRESHOLD));
+        int radix = 1 << digitBits;
+        int mask = radix - 1;
+        keyBuffer = new long[keys.length];
+        indexBuffer = new int[keys.length];
+        // Split keys into consecutive blocks, one block per thread
+        Block[] blocks = new Block[blockCount];
+        for(int b = 0 ; b < blockCount ; b++){
+            blocks[b] = new Block((int) ((long) keys.length * b / blockCount),
+                    (int) ((long) keys.length * (b + 1) / blockCount), radix);
+        }
+        for(int shift = 0 ; shift < Long.SIZE ; shift += digitBits){
+            // Count the digits per block
+            for(Block block : blocks){
+                block.shift = shift;
+                block.mask = mask;
+                block.isScatter = false;
+            }
+            run(blocks);
+            // Skip the digit if all keys share it
+            int firstDigit = (int) ((keys.length > 0 ? keys[0] : 0) >>> shift) & mask;
+            int firstDigitCount = 0;
+            for(Block block : blocks){
+                firstDigitCount += block.counts[firstDigit];
+            }
+            if(firstDigitCount == keys.length){
+                continue;
+            }
+            // Start position of each (digit, block), blocks keep their order per digit for stability
+            int position = 0;
+            for(int digit = 0 ; digit < radix ; digit++){
+                for(Block block : blocks){
+                    int count = block.counts[digit];
+                    block.counts[digit] = position;
+                    position += count;
+                }
+            }
+            for(Block block : blocks){
+                block.isScatter = true;
+            }
+            run(blocks);
+            // Scattered keys become the main keys for the next digit
+            long[] keysTemp = keys;
+            keys = keyBuffer;
+            keyBuffer = keysTemp;
+            int[] indicesTemp = indices;
+            indices = indexBuffer;
+            indexBuffer = indicesTemp;
+        }
+        keyBuffer = null;
+        indexBuffer = null;
+        return this;
+    }
+
+    /**
+     * Execute the blocks, each on a separate thread if there is more than one block
+     * @param blocks
+     */
+    private void run(Block[] blocks){
+        if(blocks.length == 1){
+            blocks[0].run();
+            return;
+        }
+        Thread[] threads = new Thread[blocks.length];
+        for(int t = 0 ; t < threads.length ; t++){
+            threads[t] = new Thread(blocks[t], "RadixSort " + t);
+            threads[t].start();
+        }
+        try {
+            for(Thread thread : threads){
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Range of keys counted and scattered by one thread
+     */
+    private class Block implements Runnable {
+        private int from;
+        private int to;
+        /**
+         * Number of keys per digit, or the next scatter position per digit
+         */
+        private int[] counts;
+        private int shift;
+        private int mask;
+        private boolean isScatter;
+
+        private Block(int from, int to, int radix){
+            this.from = from;
+            this.to = to;
+            this.counts = new int[radix];
+        }
+
+        @Override
+        public void run() {
+            if(isScatter){
+                for(int p = from ; p < to ; p++){
+                    long key = keys[p];
+                    int insertAt = counts[(int) (key >>> shift) & mask]++;
+                    keyBuffer[insertAt] = key;
+                    indexBuffer[insertAt] = indices[p];
+                }
+            }else{
+                Arrays.fill(counts, 0);
+                for(int p = from ; p < to ; p++){
+                    counts[(int) (keys[p] >>> shift) & mask]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Keys sorted ascending
+     * @return
+     */
+    public long[] getKeys() {
+        return keys;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+}
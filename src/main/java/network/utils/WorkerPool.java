@@ -0,0 +1,65 @@
+package network.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+
+/**
+ * Fixed number of worker threads shared by the parallel steps of a detection session
+ * (detection of graphs, local moving, stationary multiplication, evaluation of resolutions),
+ * so threads are not created per call, must be closed at the end of the session,
+ * a worker waiting for its parallel sub-tasks helps running them, so nested parallel steps do not dead-lock
+ */
+public class WorkerPool implements AutoCloseable {
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param threadCount number of worker threads
+     */
+    public WorkerPool(int threadCount){
+        pool = new ForkJoinPool(Math.max(1, threadCount));
+    }
+
+    /**
+     * Run the tasks in parallel and wait for all of them to finish
+     * @param tasks
+     */
+    public void run(Runnable... tasks){
+        if(tasks.length == 1){
+            tasks[0].run();
+            return;
+        }
+        ForkJoinTask<?>[] forkJoinTasks = new ForkJoinTask<?>[tasks.length];
+        for(int t = 0 ; t < tasks.length ; t++){
+            forkJoinTasks[t] = ForkJoinTask.adapt(tasks[t]);
+        }
+        if(ForkJoinTask.getPool() == pool){ // called from a worker of this pool
+            ForkJoinTask.invokeAll(forkJoinTasks);
+        }else{
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(forkJoinTasks)));
+        }
+    }
+
+    /**
+     * Submit the task to be run by a worker
+     * @param task
+     * @return
+     */
+    public <T> Future<T> submit(Callable<T> task){
+        return pool.submit(task);
+    }
+
+    public int getThreadCount(){
+        return pool.getParallelism();
+    }
+
+    /**
+     * Stop the workers after their submitted tasks are finished
+     */
+    @Override
+    public void close(){
+        pool.shutdown();
+    }
+}
@@ -1,12 +1,17 @@
+import network.core.ConnectedCoGroups;
 import network.core.Graph;
 import network.core.GraphIO;
 import network.core.ListMatrix;
 import network.core.SiGraph;
+import network.core.Statistics;
+import network.core.Util;
 import network.optimization.CPM;
 import network.optimization.CPMParameters;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Random;
+
 public class DetectionTest {
 
     @Test
@@ -63,4 +68,163 @@ public class DetectionTest {
         Assert.assertArrayEquals(expectedPartition, partitions[0]);
         Assert.assertArrayEquals(expectedPartition, partitions[1]);
     }
+
+    /**
+     * Asynchronous parallel local moving must move the nodes of a graph on multiple threads
+     * and reach a hamiltonian comparable to serial local moving
+     */
+    @Test
+    public void testAsyncLocalMoving() {
+        Graph graph = plantedGraph(64, 64, 8, 2, 0);
+        SiGraph siGraph = new SiGraph(graph);
+        CPMParameters parameters = new CPMParameters().setResolution(0.05f);
+        parameters.randomSeed = 1;
+        CPM serialDetector = new CPM().setParams(parameters.clone());
+        int[] serial = serialDetector.detect(siGraph);
+        Assert.assertEquals(1, serialDetector.getLocalMovingStatistics().maxThreadCount);
+        CPM asyncDetector = (CPM) new CPM()
+                .setParams(parameters.clone().setLocalMoving(CPMParameters.MOVE_ASYNC))
+                .setThreadCount(4);
+        int[] async = asyncDetector.detect(siGraph);
+        // 4096 nodes are enough for 4 movers of CPM.PARALLEL_NODE_THRESHOLD nodes
+        Assert.assertEquals(4, asyncDetector.getLocalMovingStatistics().maxThreadCount);
+        double serialHamiltonian = new CPM().evaluate(graph, serial, parameters);
+        double asyncHamiltonian = new CPM().evaluate(graph, async, parameters);
+        Assert.assertTrue(serialHamiltonian < 0);
+        Assert.assertEquals(serialHamiltonian, asyncHamiltonian, Math.abs(serialHamiltonian) * 0.05);
+    }
+
+    /**
+     * Queue based local moving must visit fewer nodes than the serial sweeps,
+     * deterministically for a given seed
+     */
+    @Test
+    public void testQueueLocalMoving() {
+        Graph graph = plantedGraph(64, 64, 8, 2, 0);
+        SiGraph siGraph = new SiGraph(graph);
+        CPMParameters parameters = new CPMParameters().setResolution(0.05f);
+        parameters.randomSeed = 1;
+        CPM serialDetector = new CPM().setParams(parameters.clone());
+        int[] serial = serialDetector.detect(siGraph);
+        CPMParameters queueParameters = parameters.clone().setLocalMoving(CPMParameters.MOVE_QUEUE);
+        CPM queueDetector = new CPM().setParams(queueParameters);
+        int[] queue = queueDetector.detect(siGraph);
+        Assert.assertArrayEquals(queue, new CPM().setParams(queueParameters.clone()).detect(siGraph));
+        long serialVisits = serialDetector.getLocalMovingStatistics().visits;
+        long queueVisits = queueDetector.getLocalMovingStatistics().visits;
+        Assert.assertTrue(queueVisits + " visits", queueVisits > 0 && queueVisits < serialVisits);
+        double serialHamiltonian = new CPM().evaluate(graph, serial, parameters);
+        double queueHamiltonian = new CPM().evaluate(graph, queue, parameters);
+        Assert.assertTrue(serialHamiltonian < 0);
+        Assert.assertEquals(serialHamiltonian, queueHamiltonian, Math.abs(serialHamiltonian) * 0.05);
+    }
+
+    /**
+     * Colored local moving must give the same partition for the same seed whatever the thread count
+     */
+    @Test
+    public void testColoredLocalMovingDeterminism() {
+        SiGraph siGraph = new SiGraph(plantedGraph(1024, 64, 3, 1, 0));
+        CPMParameters parameters = new CPMParameters().setResolution(0.05f)
+                .setLocalMoving(CPMParameters.MOVE_COLORED);
+        parameters.randomSeed = 1;
+        int[] expectedPartition = null;
+        for(int threadCount : new int[]{1, 4, 16}){
+            CPM detector = (CPM) new CPM().setParams(parameters.clone()).setThreadCount(threadCount);
+            int[] partition = detector.detect(siGraph);
+            if(expectedPartition == null){
+                expectedPartition = partition;
+            }
+            Assert.assertArrayEquals(expectedPartition, partition);
+        }
+        double hamiltonian = new CPM().evaluate(siGraph.getGraph(SiGraph.POSITIVE), expectedPartition, parameters);
+        Assert.assertTrue(hamiltonian < 0);
+    }
+
+    /**
+     * Leiden refinement must give positively connected groups by itself,
+     * i.e. before the split of groups into connected components at the end of CPM detection
+     */
+    @Test
+    public void testLeidenRefinement() throws Exception {
+        SiGraph triads = new SiGraph(GraphIO.readGraph("testCases/3triads.txt", true));
+        CPMParameters parameters = new CPMParameters().setResolution(0.05f)
+                .setRefineMethod(CPMParameters.REFINE_LEIDEN);
+        parameters.refineCount = 1;
+        Assert.assertArrayEquals(new int[]{0, 0, 0, 1, 1, 1, 2, 2, 2},
+                new CPM().setParams(parameters.clone()).detect(triads));
+
+        Graph graph = plantedGraph(64, 64, 8, 2, 0);
+        SiGraph siGraph = new SiGraph(graph);
+        int nodeCount = graph.getNodeCount();
+        float[][] nodeSizes = new float[nodeCount][1];
+        for(int n = 0 ; n < nodeCount ; n++){
+            nodeSizes[n][0] = 1;
+        }
+        siGraph.setAttributes(nodeSizes);
+        parameters.randomSeed = 1;
+        // Louvain detection without the connected components pass of CPM.detect
+        int[] leiden = new CPM().setParams(parameters.clone()).detect(siGraph, Util.ramp(nodeCount), 1000);
+        int[] components = new ConnectedCoGroups(siGraph.getGraph(SiGraph.POSITIVE), leiden)
+                .find().getComponents();
+        Assert.assertEquals(Statistics.array(leiden).uniqueCount, Statistics.array(components).uniqueCount);
+        double leidenHamiltonian = new CPM().evaluate(graph, Util.normalizeValues(leiden), parameters);
+        int[] recursive = new CPM().setParams(parameters.clone()
+                .setRefineMethod(CPMParameters.REFINE_RECURSIVE)).detect(siGraph);
+        double recursiveHamiltonian = new CPM().evaluate(graph, recursive, parameters);
+        Assert.assertEquals(recursiveHamiltonian, leidenHamiltonian, Math.abs(recursiveHamiltonian) * 0.05);
+    }
+
+    /**
+     * Skipping the in-links of a symmetric graph must not change the detected partition
+     */
+    @Test
+    public void testSymmetricLocalMoving() {
+        Graph graph = plantedGraph(64, 64, 8, 2, 0);
+        SiGraph symmetric = new SiGraph(graph);
+        Assert.assertTrue(symmetric.isSymmetric());
+        SiGraph directed = new SiGraph((Graph) new Graph(graph).setSymmetric(false));
+        Assert.assertFalse(directed.isSymmetric());
+        CPMParameters parameters = new CPMParameters().setResolution(0.05f);
+        parameters.randomSeed = 1;
+        Assert.assertArrayEquals(new CPM().setParams(parameters.clone()).detect(directed),
+                new CPM().setParams(parameters.clone()).detect(symmetric));
+    }
+
+    /**
+     * Symmetric signed graph of groupCount * groupSize nodes, each node has positive links
+     * to random nodes of its own group and negative links to random nodes of other groups
+     * @param groupCount
+     * @param groupSize
+     * @param positiveDegree positive links added per node
+     * @param negativeDegree negative links added per node
+     * @param seed
+     * @return
+     */
+    static Graph plantedGraph(int groupCount, int groupSize, int positiveDegree, int negativeDegree, int seed){
+        int nodeCount = groupCount * groupSize;
+        int linkCount = nodeCount * (positiveDegree + negativeDegree);
+        int[] rows = new int[linkCount];
+        int[] columns = new int[linkCount];
+        float[] values = new float[linkCount];
+        Random random = new Random(seed);
+        int link = 0;
+        for(int node = 0 ; node < nodeCount ; node++){
+            int group = node / groupSize;
+            for(int d = 0 ; d < positiveDegree + negativeDegree ; d++){
+                int neighbor;
+                do {
+                    neighbor = d < positiveDegree
+                            ? group * groupSize + random.nextInt(groupSize)
+                            : random.nextInt(nodeCount);
+                }while(neighbor == node || (d >= positiveDegree && neighbor / groupSize == group));
+                rows[link] = node;
+                columns[link] = neighbor;
+                values[link++] = d < positiveDegree ? 1 : -1;
+            }
+        }
+        ListMatrix listMatrix = new ListMatrix().init(rows, columns, values, true)
+                .symmetrize().sort().normalize();
+        return new Graph(listMatrix);
+    }
 }
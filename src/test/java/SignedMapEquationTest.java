@@ -1,9 +1,16 @@
 import network.core.*;
 import network.optimization.CPMapParameters;
+import network.optimization.LocalMovingStatistics;
+import network.extendedmapequation.BracketSearch;
 import network.extendedmapequation.CPMap;
+import network.extendedmapequation.CPMapEvaluator;
+import network.extendedmapequation.GoldenSectionSearch;
+import network.extendedmapequation.LogScanSearch;
+import network.extendedmapequation.ResolutionSearch;
 import network.extendedmapequation.ParallelStationary;
 import network.extendedmapequation.CPMapStatistics;
 import network.extendedmapequation.Stationary;
+import network.utils.WorkerPool;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -105,6 +112,81 @@ public class SignedMapEquationTest {
         Assert.assertEquals(0, minimumDescriptionLength, 0.0001);
     }
 
+    /**
+     * Warm started resolution search must start the later resolutions from the nearest evaluated partition,
+     * so fewer nodes are moved than in the search from singletons, for a comparable description length
+     */
+    @Test
+    public void testWarmStartDetection(){
+        Graph graph = DetectionTest.plantedGraph(32, 32, 6, 2, 0);
+        CPMapParameters parameters = new CPMapParameters(
+                0.15f, false, false, 0.01f, 0.01f, 0.2f, 0, 1, 12345);
+        LocalMovingStatistics coldStatistics = new LocalMovingStatistics();
+        int[] cold = CPMap.detect(graph, parameters.setLocalMovingStatistics(coldStatistics));
+        LocalMovingStatistics warmStatistics = new LocalMovingStatistics();
+        int[] warm = CPMap.detect(graph, parameters.clone().setWarmStart(true)
+                .setLocalMovingStatistics(warmStatistics));
+        Assert.assertTrue(warmStatistics.moves + " warm moves, " + coldStatistics.moves + " cold moves",
+                warmStatistics.moves < coldStatistics.moves / 2);
+        double coldMdl = CPMap.evaluate(graph, cold, parameters);
+        double warmMdl = CPMap.evaluate(graph, warm, parameters);
+        Assert.assertEquals(coldMdl, warmMdl, coldMdl * 0.02);
+    }
+
+    /**
+     * Concurrent evaluation of resolutions must find the same best partition as the serial search
+     */
+    @Test
+    public void testConcurrentResolutionSearch(){
+        Graph graph = DetectionTest.plantedGraph(32, 32, 6, 2, 0);
+        CPMapParameters parameters = new CPMapParameters(
+                0.15f, false, false, 0.01f, 0.01f, 0.2f, 0, 1, 12345);
+        int[] serial = CPMap.detect(graph, parameters);
+        CPMapParameters concurrentParameters = parameters.clone();
+        concurrentParameters.threadCount = 4;
+        int[] concurrent = CPMap.detect(graph, concurrentParameters);
+        Assert.assertArrayEquals(serial, concurrent);
+        Assert.assertEquals(4, concurrentParameters.threadCount);
+    }
+
+    /**
+     * Search strategies must narrow down to the minimum of a unimodal description length
+     */
+    @Test
+    public void testResolutionSearch(){
+        ResolutionSearch[] searches = {new BracketSearch(0, 1, 0.001f),
+                new GoldenSectionSearch(0, 1, 0.001f), new LogScanSearch(0.001f, 1, 0.001f)};
+        for(ResolutionSearch search : searches){
+            float[] resolutions;
+            while((resolutions = search.next()).length > 0){
+                double[] mdl = new double[resolutions.length];
+                for(int r = 0 ; r < resolutions.length ; r++){
+                    mdl[r] = Math.pow(resolutions[r] - 0.3, 2) + 1;
+                }
+                search.update(resolutions, mdl);
+            }
+            Assert.assertTrue(search.getStart() <= 0.3 && 0.3 <= search.getEnd());
+            Assert.assertTrue(search.getEnd() - search.getStart() <= 0.001);
+        }
+        // Golden-section search needs fewer evaluations for the same accuracy
+        Assert.assertTrue(searches[1].getEvaluationCount() < searches[0].getEvaluationCount());
+    }
+
+    /**
+     * All search strategies must find the same best partition of a planted graph
+     */
+    @Test
+    public void testResolutionSearchDetection(){
+        Graph graph = DetectionTest.plantedGraph(32, 32, 6, 2, 0);
+        CPMapParameters parameters = new CPMapParameters(
+                0.15f, false, false, 0.002f, 0.001f, 0.05f, 0, 1, 12345);
+        double bracketMdl = CPMap.evaluate(graph, CPMap.detect(graph, parameters), parameters);
+        for(int search : new int[]{CPMapParameters.SEARCH_GOLDEN, CPMapParameters.SEARCH_LOG_SCAN}){
+            int[] partition = CPMap.detect(graph, parameters.clone().setSearch(search));
+            Assert.assertEquals(bracketMdl, CPMap.evaluate(graph, partition, parameters), bracketMdl * 0.01);
+        }
+    }
+
     @Test
     public void testParallelStationaryCalculation(){
         int[] rows = {          0,   0,   0,   1,   1,   2};
@@ -118,4 +200,155 @@ public class SignedMapEquationTest {
         double[] expectedDist = {0.25, .3333, .4166};
         Assert.assertArrayEquals(expectedDist, nextDist, 0.0001);
     }
+
+    @Test
+    public void testParallelStationaryStep(){
+        Graph graph = DetectionTest.plantedGraph(8, 16, 4, 2, 0);
+        int nodeCount = graph.getNodeCount();
+        Graph transition = graph.getTransitionProbability();
+        double[] dist = new double[nodeCount];
+        double[] teleport = new double[nodeCount];
+        double[] negativeTeleport = new double[nodeCount];
+        for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
+            dist[nodeId] = (nodeId % 7 + 1.0) / (4.0 * nodeCount);
+            teleport[nodeId] = 1.0 / nodeCount;
+            negativeTeleport[nodeId] = nodeId % 3 / 10.0;
+        }
+        double totalNegativeTeleport = 0.05;
+        float tau = 0.15f;
+        // expected step by the multiplication followed by the teleport update
+        double[] multiplication = new ParallelStationary(1).multiply(transition, dist);
+        double[] expected = new double[nodeCount];
+        double distance = 0;
+        for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
+            expected[nodeId] = tau * teleport[nodeId] + (1.0 - tau) * multiplication[nodeId]
+                    + ((1.0 - tau) / nodeCount) * totalNegativeTeleport;
+            distance += Math.pow(expected[nodeId] - dist[nodeId], 2);
+        }
+        for(int threadCount = 1 ; threadCount <= 3 ; threadCount++){
+            ParallelStationary parallel = new ParallelStationary(threadCount);
+            double[] next = new double[nodeCount];
+            parallel.step(transition, dist, next, teleport, negativeTeleport, tau, totalNegativeTeleport);
+            Assert.assertArrayEquals(expected, next, 0);
+            Assert.assertEquals(Math.sqrt(distance), parallel.getDistance(), 1e-15);
+            Assert.assertEquals(Util.dot(expected, negativeTeleport), parallel.getTotalNegativeTeleport(), 1e-12);
+        }
+    }
+
+    @Test
+    public void testStationaryAcceleration(){
+        Graph graph = DetectionTest.plantedGraph(16, 32, 6, 2, 0);
+        int nodeCount = graph.getNodeCount();
+        int[] partition = new int[nodeCount];
+        int[] shifted = new int[nodeCount];
+        for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
+            partition[nodeId] = nodeId / 32;
+            shifted[nodeId] = (nodeId + 16) / 32 % 16;
+        }
+        CPMapParameters parameters = new CPMapParameters(0.15f, false, false, 0, 1, 1);
+        Stationary plain = CPMap.newStationary(parameters);
+        double mdl = CPMap.evaluate(graph, partition, parameters, plain);
+        // Aitken extrapolation converges to the same distribution in less iterations
+        Stationary aitken = CPMap.newStationary(parameters.clone().setAitken(true));
+        Assert.assertEquals(mdl, CPMap.evaluate(graph, partition, parameters, aitken), 1e-8);
+        Assert.assertArrayEquals(plain.getDistribution(), aitken.getDistribution(), 1e-9);
+        Assert.assertTrue(aitken.getIterationCount() + " " + plain.getIterationCount(), aitken.getIterationCount() < plain.getIterationCount());
+        // Seeded by the distribution of a similar partition
+        Stationary cold = CPMap.newStationary(parameters);
+        double shiftedMdl = CPMap.evaluate(graph, shifted, parameters, cold);
+        Stationary seeded = CPMap.newStationary(parameters).setSeed(plain.getDistribution());
+        Assert.assertEquals(shiftedMdl, CPMap.evaluate(graph, shifted, parameters, seeded), 1e-8);
+        Assert.assertTrue(seeded.getIterationCount() <= cold.getIterationCount());
+        // Iterations are stopped by the limit, or by a looser tolerance in the max norm
+        Stationary limited = CPMap.newStationary(parameters.clone().setStationaryMaxIterations(5));
+        CPMap.evaluate(graph, partition, parameters, limited);
+        Assert.assertEquals(5, limited.getIterationCount());
+        Stationary loose = CPMap.newStationary(parameters.clone()
+                .setStationaryTolerance(1e-6).setStationaryNorm(Stationary.NORM_MAX));
+        CPMap.evaluate(graph, partition, parameters, loose);
+        Assert.assertTrue(loose.getDistance() <= 1e-6);
+        Assert.assertTrue(loose.getIterationCount() < plain.getIterationCount());
+    }
+
+    /**
+     * Cached evaluations must give the description lengths of the evaluation before caching
+     */
+    @Test
+    public void testEvaluator(){
+        Graph graph = DetectionTest.plantedGraph(16, 8, 3, 6, 1);
+        int nodeCount = graph.getNodeCount();
+        CPMapParameters parameters = new CPMapParameters(0.15f, false, false, 0, 1, 1);
+        CPMapEvaluator evaluator = new CPMapEvaluator(graph);
+        int[] groupCounts = {1, 3, 16, nodeCount};
+        // description lengths of the partitions evaluated by re-weighting the whole graph per partition
+        double[] expected = {0.0, 12.744988723906822, 8.760849619634703, 8.958286258678758};
+        // evaluations re-use the buffer of the previous ones
+        for(int repeat = 0 ; repeat < 2 ; repeat++){
+            for(int g = 0 ; g < groupCounts.length ; g++){
+                int[] partition = new int[nodeCount];
+                for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
+                    partition[nodeId] = nodeId * 7 % groupCounts[g];
+                }
+                Assert.assertEquals(expected[g], evaluator.evaluate(partition, parameters), 0);
+            }
+        }
+    }
+
+    /**
+     * Stationary distributions of partitions and taus iterated together must match the ones iterated alone
+     */
+    @Test
+    public void testMultiVectorEvaluation(){
+        Graph graph = DetectionTest.plantedGraph(16, 8, 3, 6, 1);
+        int nodeCount = graph.getNodeCount();
+        CPMapParameters parameters = new CPMapParameters(0.15f, false, false, 0, 1, 1);
+        CPMapEvaluator evaluator = new CPMapEvaluator(graph);
+        int[] groupCounts = {1, 3, 16, nodeCount, 3};
+        float[] taus = {0.15f, 0.15f, 0.15f, 0.15f, 0.5f};
+        int[][] partitions = new int[groupCounts.length][nodeCount];
+        for(int k = 0 ; k < partitions.length ; k++){
+            for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
+                partitions[k][nodeId] = nodeId * 7 % groupCounts[k];
+            }
+        }
+        Stationary stationary = CPMap.newStationary(parameters);
+        double[] descriptionLengths = evaluator.evaluate(partitions, taus, parameters, stationary);
+        for(int k = 0 ; k < partitions.length ; k++){
+            CPMapParameters single = parameters.clone();
+            single.TAU = taus[k];
+            Stationary singleStationary = CPMap.newStationary(single);
+            Assert.assertEquals(evaluator.evaluate(partitions[k], single, singleStationary),
+                    descriptionLengths[k], 0);
+            Assert.assertEquals(singleStationary.getIterationCount(), stationary.getIterationCounts()[k]);
+        }
+    }
+
+    /**
+     * Re-weights of node ranges on multiple threads must match the single thread re-weights,
+     * also when the group queues of larger partitions are re-used
+     */
+    @Test
+    public void testParallelReWeight(){
+        Graph graph = DetectionTest.plantedGraph(16, 8, 3, 6, 1);
+        int nodeCount = graph.getNodeCount();
+        CPMapEvaluator evaluator = new CPMapEvaluator(graph);
+        for(int groupCount : new int[]{1, 3, 16, nodeCount, 3}){
+            int[] partition = new int[nodeCount];
+            for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
+                partition[nodeId] = nodeId * 7 % groupCount;
+            }
+            CPMapStatistics expected = evaluator.reWeight(partition);
+            for(int threadCount : new int[]{2, 3, 8}){
+                CPMapStatistics statistics;
+                try(WorkerPool workerPool = new WorkerPool(2)){
+                    statistics = evaluator.reWeight(partition, threadCount, workerPool);
+                }
+                Assert.assertArrayEquals(expected.transition.getSparseValues(),
+                        statistics.transition.getSparseValues(), 0);
+                Assert.assertArrayEquals(expected.negativeTeleport, statistics.negativeTeleport, 0);
+                Assert.assertArrayEquals(expected.inWeight, statistics.inWeight, 0);
+                Assert.assertArrayEquals(expected.outWeight, statistics.outWeight, 0);
+            }
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package network.cli;
+
+import network.core.Graph;
+import network.core.GraphIO;
+import network.optimization.CPMapParameters;
+import network.utils.WorkerPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+
+public class MDLTest {
+
+    /**
+     * Partitions evaluated concurrently must be reported in the order of files
+     * with the same description lengths as one worker
+     */
+    @Test
+    public void testEvaluatePartitions() throws Exception{
+        Graph graph = GraphIO.readGraph("testCases/infoMap.txt", true);
+        File[] partitionFiles = writePartitions(graph, 6, -1);
+        CPMapParameters parameters = new CPMapParameters(0.15f, false, false, 0, 1, 1);
+        String[][] expected;
+        try(WorkerPool workerPool = new WorkerPool(1)){
+            expected = MDL.evaluate(partitionFiles, graph, parameters, workerPool);
+        }
+        try(WorkerPool workerPool = new WorkerPool(4)){
+            String[][] evaluations = MDL.evaluate(partitionFiles, graph, parameters.clone(), workerPool);
+            Assert.assertEquals(partitionFiles.length, evaluations.length);
+            for(int p = 0 ; p < partitionFiles.length ; p++){
+                Assert.assertEquals(partitionFiles[p].getName(), evaluations[p][0]);
+                Assert.assertArrayEquals(expected[p], evaluations[p]);
+            }
+        }
+    }
+
+    /**
+     * Error of an invalid partition is reported by its file name
+     */
+    @Test
+    public void testEvaluateInvalidPartition() throws Exception{
+        Graph graph = GraphIO.readGraph("testCases/infoMap.txt", true);
+        File[] partitionFiles = writePartitions(graph, 6, 3);
+        CPMapParameters parameters = new CPMapParameters(0.15f, false, false, 0, 1, 1);
+        for(int threadCount : new int[]{1, 4}){
+            try(WorkerPool workerPool = new WorkerPool(threadCount)){
+                MDL.evaluate(partitionFiles, graph, parameters.clone(), workerPool);
+                Assert.fail("Invalid partition is not reported");
+            }catch (Exception e){
+                Assert.assertTrue(e.getMessage(), e.getMessage().startsWith(partitionFiles[3].getName() + ": "));
+            }
+        }
+    }
+
+    /**
+     * Write partitions of raw node ids into k groups for k = 1, 2, ...
+     * @param graph
+     * @param partitionCount
+     * @param invalidPartition this partition misses the assignment of its last node, none if -1
+     * @return partition files in the order of names
+     */
+    private static File[] writePartitions(Graph graph, int partitionCount, int invalidPartition) throws Exception{
+        File directory = Files.createTempDirectory("partitions").toFile();
+        directory.deleteOnExit();
+        int[] toRaw = graph.getToRaw()[0];
+        File[] partitionFiles = new File[partitionCount];
+        for(int p = 0 ; p < partitionCount ; p++){
+            partitionFiles[p] = new File(directory, "part-" + p + ".txt");
+            partitionFiles[p].deleteOnExit();
+            int nodeCount = p == invalidPartition ? toRaw.length - 1 : toRaw.length;
+            try(PrintWriter writer = new PrintWriter(partitionFiles[p])){
+                for(int nodeId = 0 ; nodeId < nodeCount ; nodeId++){
+                    writer.println(toRaw[nodeId] + "\t" + (toRaw[nodeId] % (p + 1)));
+                }
+            }
+        }
+        return partitionFiles;
+    }
+}
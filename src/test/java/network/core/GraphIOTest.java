@@ -4,6 +4,11 @@ import cern.colt.map.OpenIntIntHashMap;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
 public class GraphIOTest {
 
     @Test
@@ -17,6 +22,109 @@ public class GraphIOTest {
         Assert.assertArrayEquals(expectedValues, listMatrix.getValues(), .00001f);
     }
 
+    @Test
+    public void testReadTwoColumnListMatrix() throws Exception{
+        // Windows line endings, an empty line, and a line without weight
+        ListMatrix listMatrix = GraphIO.readListMatrix("testCases/edgeCase-TwoColumns.txt", false);
+        Assert.assertArrayEquals(new int[]{1, 3, 2}, listMatrix.getRows());
+        Assert.assertArrayEquals(new int[]{2, 1, 3}, listMatrix.getColumns());
+        Assert.assertArrayEquals(new float[]{1, 1, -0.5f}, listMatrix.getValues(), .00001f);
+    }
+
+    @Test
+    public void testReadListMatrixErrorLine() throws Exception{
+        File file = File.createTempFile("edges", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "# comment\n1 2 1\n2 3 1 4\n".getBytes());
+        try {
+            GraphIO.readListMatrix(file.getPath(), false);
+            Assert.fail("line with four tokens must be rejected");
+        }catch (Exception exp){
+            Assert.assertTrue(exp.getMessage().startsWith("Error at line 3."));
+        }
+        try {
+            new EdgeListReader().read(file.getPath(), 4);
+            Assert.fail("line with four tokens must be rejected in parallel reading");
+        }catch (Exception exp){
+            Assert.assertTrue(exp.getMessage().startsWith("Error at line 3."));
+        }
+    }
+
+    @Test
+    public void testParallelReadListMatrix() throws Exception{
+        // Chunks are much smaller than the file, edges must keep the serial order
+        ListMatrix serial = new EdgeListReader().read("testCases/infoMap.txt").getListMatrix(true);
+        ListMatrix parallel = new EdgeListReader().read("testCases/infoMap.txt", 16).getListMatrix(true);
+        Assert.assertArrayEquals(serial.getRows(), parallel.getRows());
+        Assert.assertArrayEquals(serial.getColumns(), parallel.getColumns());
+        Assert.assertArrayEquals(serial.getValues(), parallel.getValues(), 0f);
+    }
+
+    @Test
+    public void testBinaryGraph() throws Exception{
+        Graph graph = GraphIO.readGraph("testCases/infoMap.txt", true);
+        File file = File.createTempFile("graph", ".bin");
+        file.deleteOnExit();
+        GraphIO.writeBinaryGraph(graph, file.getPath());
+        Assert.assertTrue(GraphIO.isBinaryGraph(file.getPath()));
+        Assert.assertFalse(GraphIO.isBinaryGraph("testCases/infoMap.txt"));
+        Graph loaded = GraphIO.readGraph(file.getPath(), true);
+        Assert.assertEquals(graph.getNodeCount(), loaded.getNodeCount());
+        Assert.assertEquals(graph.getEdgeCount(), loaded.getEdgeCount());
+        Assert.assertArrayEquals(graph.getRowOffsets(), loaded.getRowOffsets());
+        Assert.assertArrayEquals(graph.getSparseColumns(), loaded.getSparseColumns());
+        Assert.assertArrayEquals(graph.getSparseValues(), loaded.getSparseValues(), 0f);
+        Assert.assertArrayEquals(graph.getToRaw()[0], loaded.getToRaw()[0]);
+        Assert.assertArrayEquals(graph.getRows(), loaded.getRows());
+        // Partitions are read based on raw ids of the loaded graph
+        Assert.assertArrayEquals(
+                GraphIO.readPartition("testCases/infoMapPartition.txt", graph.getToNormal()[0]),
+                GraphIO.readPartition("testCases/infoMapPartition.txt", loaded.getToNormal()[0]));
+        // Directed binary graph is symmetrized when a symmetric graph is asked for
+        GraphIO.writeBinaryGraph(GraphIO.readGraph("testCases/threeEdges.txt", false), file.getPath());
+        Graph symmetric = GraphIO.readGraph("testCases/threeEdges.txt", true);
+        Graph symmetrized = GraphIO.readGraph(file.getPath(), true);
+        // Normalized ids may differ, so links are compared by their raw ids
+        Assert.assertEquals(symmetric.getEdgeCount(), symmetrized.getEdgeCount());
+        Assert.assertEquals(rawLinks(symmetric), rawLinks(symmetrized));
+    }
+
+    /**
+     * Filtered graphs keep the raw ids of the removed nodes, only the nodes of the links are written
+     */
+    @Test
+    public void testFilteredBinaryGraph() throws Exception{
+        File file = File.createTempFile("graph", ".bin");
+        file.deleteOnExit();
+        // Third node has only negative links
+        Graph symmetric = new Graph(new ListMatrix().init(new int[]{10, 10, 20}, new int[]{20, 30, 30},
+                new float[]{1, -1, -1}, true).symmetrize().normalize());
+        Graph positive = symmetric.filter(0, Float.POSITIVE_INFINITY);
+        GraphIO.writeBinaryGraph(positive, file.getPath());
+        Graph loaded = GraphIO.readGraph(file.getPath(), true);
+        Assert.assertTrue(loaded.isSymmetric());
+        Assert.assertEquals(positive.getEdgeCount(), loaded.getEdgeCount());
+        Assert.assertEquals(rawLinks(positive), rawLinks(loaded));
+        // Second node only has an in-link after the filter
+        Graph directed = new Graph(new ListMatrix().init(new int[]{10, 20}, new int[]{20, 10},
+                new float[]{1, -1}, true).normalize());
+        Graph outward = directed.filter(0, Float.POSITIVE_INFINITY);
+        GraphIO.writeBinaryGraph(outward, file.getPath());
+        loaded = GraphIO.readGraph(file.getPath(), false);
+        Assert.assertFalse(loaded.isSymmetric());
+        Assert.assertEquals(rawLinks(outward), rawLinks(loaded));
+    }
+
+    private static Set<String> rawLinks(Graph graph){
+        Set<String> links = new HashSet<>();
+        int[] toRaw = graph.getToRaw()[0];
+        for(int p = 0 ; p < graph.getEdgeCount() ; p++){
+            links.add(toRaw[graph.getRows()[p]] + " " + toRaw[graph.getColumns()[p]]
+                    + " " + graph.getValues()[p]);
+        }
+        return links;
+    }
+
     @Test
     public void testReadPartition() throws Exception{
         Graph infoMap = GraphIO.readGraph("testCases/infoMap.txt", true);
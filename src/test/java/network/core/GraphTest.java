@@ -3,6 +3,8 @@ package network.core;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static network.core.SiGraph.NEGATIVE;
 import static network.core.SiGraph.POSITIVE;
 
@@ -12,8 +14,10 @@ public class GraphTest {
     public void testTransitionProbability() throws Exception{
         Graph graph = GraphIO.readGraph("testCases/triad.txt", true);
         Graph transition = graph.getTransitionProbability();
-        float[][] expectedWeights = {{0.25f, 0.75f}, {0.5f, 0.5f}, {0.75f, 0.25f}};
-        MyAssert.assertArrayEquals(expectedWeights, transition.getSparseValues());
+        // weights of node 0, 1, and 2 placed one after another
+        float[] expectedWeights = {0.25f, 0.75f, 0.5f, 0.5f, 0.75f, 0.25f};
+        Assert.assertArrayEquals(expectedWeights, transition.getSparseValues(), 0f);
+        Assert.assertArrayEquals(new float[]{0.5f, 0.5f}, transition.getValues(1), 0f);
     }
 
     @Test
@@ -55,14 +59,61 @@ public class GraphTest {
         // where 5 <-> 0, 6 <-> 1, 7 <-> 2
         // Check raw id of positive type (0) of partition '0'
         Assert.assertArrayEquals(new int[]{5, 6, 7}, foldedGraph.getToRaw()[0]);
-        Assert.assertArrayEquals(new int[]{1, 0}, foldedGraph.getGraph(NEG).getRows());
+        // Folded list is released and rebuilt from sparse rows in row order
+        Assert.assertTrue(foldedGraph.getGraph(NEG).isListReleased());
+        Assert.assertEquals(2, foldedGraph.getGraph(NEG).getEdgeCount());
+        Assert.assertArrayEquals(new int[]{0, 1}, foldedGraph.getGraph(NEG).getRows());
         Assert.assertArrayEquals(new int[]{1, 1}, foldedGraph.getGraph(NEG).getColumns());
-        Assert.assertArrayEquals(new float[]{-2f, -1f}, foldedGraph.getGraph(NEG).getValues(), 0.01f);
+        Assert.assertArrayEquals(new float[]{-1f, -2f}, foldedGraph.getGraph(NEG).getValues(), 0.01f);
         Assert.assertArrayEquals(new int[]{1}, foldedGraph.getGraph(POS).getRows());
         Assert.assertArrayEquals(new int[]{2}, foldedGraph.getGraph(POS).getColumns());
         Assert.assertArrayEquals(new float[]{1f}, foldedGraph.getGraph(POS).getValues(), 0.01f);
     }
 
+    @Test
+    public void testSignedAdjacency(){
+        int[] rows = {      0, 0, 1, 2};
+        int[] columns = {   0, 1, 2, 0};
+        float[] values = {  1, 2, 1, -1};
+        ListMatrix listMatrix = new ListMatrix().init(rows, columns, values, true);
+        SignedAdjacency adjacency = new SignedAdjacency(new SiGraph(new Graph(listMatrix)));
+        // node 0: out-links to 0 and 1, then in-links from 0 (positive) and 2 (negative)
+        int start = adjacency.getStart(0);
+        int end = adjacency.getEnd(0);
+        Assert.assertEquals(2, adjacency.getInStart(0) - start);
+        Assert.assertArrayEquals(new int[]{0, 1, 0, 2},
+                Arrays.copyOfRange(adjacency.getNeighbors(), start, end));
+        Assert.assertArrayEquals(new float[]{1, 2, 1, -1},
+                Arrays.copyOfRange(adjacency.getValues(), start, end), 0f);
+        // node 1: out-link to 2, in-link from 0
+        Assert.assertEquals(adjacency.getStart(1) + 1, adjacency.getInStart(1));
+        Assert.assertEquals(0, adjacency.getNeighbors()[adjacency.getInStart(1)]);
+        Assert.assertEquals(8, adjacency.getNeighbors().length);
+    }
+
+    @Test
+    public void testSymmetricAdjacency(){
+        int[] rows = {      0, 1, 2};
+        int[] columns = {   1, 2, 0};
+        float[] values = {  2, 1, -1};
+        ListMatrix listMatrix = new ListMatrix().init(rows, columns, values, true)
+                .symmetrize().sort().normalize();
+        SiGraph graph = new SiGraph(new Graph(listMatrix));
+        Assert.assertTrue(graph.isSymmetric());
+        // Symmetry is kept through folding
+        Assert.assertTrue(graph.fold(new int[]{0, 0, 1}).isSymmetric());
+        // In-links are not stored as they mirror out-links
+        SignedAdjacency adjacency = new SignedAdjacency(graph);
+        Assert.assertTrue(adjacency.isSymmetric());
+        Assert.assertEquals(6, adjacency.getNeighbors().length);
+        Assert.assertEquals(adjacency.getEnd(0), adjacency.getInStart(0));
+        Assert.assertArrayEquals(new int[]{1, 2},
+                Arrays.copyOfRange(adjacency.getNeighbors(), adjacency.getStart(0), adjacency.getEnd(0)));
+        // A directed graph is not symmetric
+        Assert.assertFalse(new SiGraph(new Graph(new ListMatrix()
+                .init(rows, columns, values, true))).isSymmetric());
+    }
+
     @Test
     public void testMultiGraphNormalizeKeepRawIds(){
         int[] rows = {      5,  5};
@@ -1,6 +1,7 @@
 package network.core;
 
-import cern.colt.map.OpenIntIntHashMap;
+import network.utils.HashIdMap;
+import network.utils.IdMap;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -24,6 +25,26 @@ public class ListMatrixTest {
         Assert.assertArrayEquals(expectedValues, uniqueList.getValues(), (float) 0.0001);
     }
 
+    @Test
+    public void testListMatrixSortDescending(){
+        int[] rows = {      1,  2,      2,      30, -4,     30};
+        int[] columns = {   10, 300,    100,    20, 5,      20};
+        float[] values = {  1,  2,      3,      5,  4,      6};
+        ListMatrix list = new ListMatrix().init(rows, columns, values, true);
+        ListMatrix sorted = list.sort(false, ListMatrix.MODE_CLONE);
+        Assert.assertArrayEquals(new int[]{30, 30, 2, 2, 1, -4}, sorted.getRows());
+        Assert.assertArrayEquals(new int[]{20, 20, 300, 100, 10, 5}, sorted.getColumns());
+        // duplicates keep their original order
+        Assert.assertArrayEquals(new float[]{5, 6, 2, 3, 1, 4}, sorted.getValues(), 0f);
+        Assert.assertFalse(sorted.isUnique());
+        Assert.assertArrayEquals("clone must not change the list", rows, list.getRows());
+        // the first of duplicates is kept
+        ListMatrix unique = list.sort(true, ListMatrix.MODE_REMOVE_DUPLICATE);
+        Assert.assertArrayEquals(new int[]{-4, 1, 2, 2, 30}, unique.getRows());
+        Assert.assertArrayEquals(new float[]{4, 1, 3, 2, 5}, unique.getValues(), 0f);
+        Assert.assertTrue(unique.isUnique());
+    }
+
     @Test
     public void testListMatrixNormalize(){
         int[] rows = {      3,  2,      2,      1000};
@@ -62,9 +83,9 @@ public class ListMatrixTest {
                 .normalize();
         // Then normalize to custom ids while keeping the old raw maps
         // meaning the final toRaw must be: 4 -> 0 -> 1, 5 -> 1 -> 2, 6 -> 2 -> 3
-        OpenIntIntHashMap[] toNormal = new OpenIntIntHashMap[2];
-        toNormal[0] = new OpenIntIntHashMap();
-        toNormal[1] = new OpenIntIntHashMap();
+        IdMap[] toNormal = new IdMap[2];
+        toNormal[0] = new HashIdMap();
+        toNormal[1] = new HashIdMap();
         toNormal[0].put(0, 4);
         toNormal[1].put(0, 4);
         toNormal[0].put(1, 5);
@@ -161,6 +182,18 @@ public class ListMatrixTest {
         Assert.assertArrayEquals(new float[]{   4, 1, 4, 6, 6,  1}, symmetric.getValues(), 0.01f);
     }
 
+    @Test
+    public void testSymmetricLargeIds(){
+        // In int arithmetic (idRange * row + column) of mirror (70000, 1) equals that of (8644, 14061)
+        int[] rows = {      1,      8644};
+        int[] columns = {   70000,  14061};
+        float[] values = {  1,      2};
+        ListMatrix symmetric = new ListMatrix().init(rows, columns, values, true)
+                .symmetrize().sort();
+        Assert.assertArrayEquals(new int[]{     1,      8644,   14061,  70000}, symmetric.getRows());
+        Assert.assertArrayEquals(new int[]{     70000,  14061,  8644,   1}, symmetric.getColumns());
+    }
+
     @Test
     public void testSparseInitialize(){
         int[][] columnIndices = {{0, 1}, {2, 4, 6}};
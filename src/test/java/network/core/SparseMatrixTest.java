@@ -21,5 +21,41 @@ public class SparseMatrixTest {
         // In shared mode: .sort.normalize leads to: 1 -> 0, 2 -> 1, 5 -> 2, 3 -> 3
         float[][] expectedFullShared = {{0, 2.0f, 0, 3.0f}, {0, 0, 4.0f, 0}, {1.0f, 0, 0, 0}, {0, 0, 0, 0}};
         MyAssert.assertArrayEquals(expectedFullShared, sparseMatrixShared.getFull(), 0.00001f);
+        // Cells are stored row after row, with row 3 having no cell
+        MyAssert.assertArrayEquals(new int[]{0, 2, 3, 4, 4}, sparseMatrixShared.getRowOffsets());
+        MyAssert.assertArrayEquals(new int[]{1, 3, 2, 0}, sparseMatrixShared.getSparseColumns());
+        MyAssert.assertArrayEquals(new int[]{2}, sparseMatrixShared.getColumns(1));
+        MyAssert.assertEquals(4, sparseMatrixShared.getRowStart(3));
+        MyAssert.assertEquals(4, sparseMatrixShared.getRowEnd(3));
+    }
+
+    @Test
+    public void testReleasedList(){
+        int[] rows = {      0,  0,  1,  2,  2};
+        int[] columns = {   1,  2,  2,  0,  1};
+        float[] values = {  1, -1,  2, -2,  3};
+        SparseMatrix kept = new SparseMatrix(new ListMatrix().init(rows, columns, values, true)
+                .sort().normalize(false));
+        SparseMatrix released = new SparseMatrix(new ListMatrix().init(rows, columns, values, true)
+                .sort().normalize(false)).releaseList();
+        // Sorted list is shared with sparse rows instead of being copied
+        MyAssert.assertTrue(kept.getSparseColumns() == kept.getColumns());
+        MyAssert.assertTrue(released.isListReleased());
+        MyAssert.assertEquals(5, released.getCellCount());
+        int[] partition = {0, 0, 1};
+        MyAssert.assertArrayEquals(Statistics.partition(partition, kept).cellValue,
+                Statistics.partition(partition, released).cellValue, 0.00001);
+        MyAssert.assertArrayEquals(kept.fold(partition).getValues(),
+                released.fold(partition).getValues(), 0.00001f);
+        MyAssert.assertArrayEquals(kept.decompose(partition)[0].getColumns(),
+                released.decompose(partition)[0].getColumns());
+        MyAssert.assertArrayEquals(kept.filter(0, Float.MAX_VALUE).getRows(),
+                released.filter(0, Float.MAX_VALUE).getRows());
+        MyAssert.assertArrayEquals(kept.transpose(true).getColumns(),
+                released.transpose(true).getColumns());
+        // Operations above work on sparse rows without rebuilding the list
+        MyAssert.assertTrue(released.isListReleased());
+        MyAssert.assertArrayEquals(rows, released.getRows());
+        MyAssert.assertFalse(released.isListReleased());
     }
 }
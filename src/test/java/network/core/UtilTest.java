@@ -1,44 +1,76 @@
 package network.core;
-import cern.colt.map.OpenIntIntHashMap;
-import network.utils.QuickSort;
+import network.utils.ArrayIdMap;
+import network.utils.HashIdMap;
+import network.utils.IdMap;
+import network.utils.LongFloatHashMap;
+import network.utils.LongHashSet;
+import network.utils.RadixSort;
 import org.junit.Assert;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+import java.util.Random;
+
 public class UtilTest {
 
     @Test
-    public void testQuickSort() {
-        int[] values = {100, 4, 3, 5, 1};
-        float[] auxiliaryValues = {100.0f, 1.0f, 2.0f, 3.0f, 4.0f};
-        int[] expectedSortedValues = {100, 1, 3, 4, 5};
-        int[] expectedIndices = {0, 4, 2, 1, 3};
-        int[] expectedValues = {100, 4, 3, 5, 1};
-        float[] expectedAuxiliaryValues = {100.0f, 4.0f, 2.0f, 1.0f, 3.0f};
-
-        QuickSort quickSort = new QuickSort(values);
-        // sort increasing (swap when smaller index is larger), skip the first element to test partial sorting
-        quickSort.sort(1, values.length - 1, false);
-        int[] sortedValues = quickSort.permute(values.clone()); // apply permutation on a copy of values
-        quickSort.permute(auxiliaryValues); // apply permutation on auxiliaryValues
-
-        Assert.assertArrayEquals(expectedIndices, quickSort.getIndices());
-        Assert.assertArrayEquals("values must not change by sort", expectedValues, values);
-        Assert.assertArrayEquals(expectedSortedValues, sortedValues);
-        Assert.assertArrayEquals("auxiliary values must change by permute",
-                expectedAuxiliaryValues, auxiliaryValues, 0.00001f);
+    public void testRadixSort() {
+        long[] keys = {5, -1, 3, 1L << 40, 3, 0};
+        RadixSort radixSort = new RadixSort(keys.clone()).sort();
+        // keys are sorted as unsigned values, equal keys keep their original order
+        Assert.assertArrayEquals(new long[]{0, 3, 3, 5, 1L << 40, -1}, radixSort.getKeys());
+        Assert.assertArrayEquals(new int[]{5, 2, 4, 0, 3, 1}, radixSort.getIndices());
+        // Parallel sort must give the same order as the serial sort
+        Random random = new Random(0);
+        long[] manyKeys = new long[4 * RadixSort.PARALLEL_THRESHOLD];
+        for(int k = 0 ; k < manyKeys.length ; k++){
+            manyKeys[k] = random.nextInt(1000) * (1L << 33) + random.nextInt(100);
+        }
+        RadixSort serial = new RadixSort(manyKeys.clone()).sort(1);
+        RadixSort parallel = new RadixSort(manyKeys.clone()).sort(4);
+        long[] sortedKeys = manyKeys.clone();
+        Arrays.sort(sortedKeys);
+        Assert.assertArrayEquals(sortedKeys, serial.getKeys());
+        Assert.assertArrayEquals(serial.getKeys(), parallel.getKeys());
+        Assert.assertArrayEquals(serial.getIndices(), parallel.getIndices());
+    }
 
-        // Repeated values: 1, 1, 3, 3, 4, 5, 5, 6
-        int[] repeated = {3, 4, 3, 1, 1, 5, 6, 5};
-        QuickSort moreQuickSort = new QuickSort(repeated);
-        repeated = moreQuickSort.sort(false).permute(repeated);
-        Assert.assertArrayEquals(new int[]{1, 1, 3, 3, 4, 5, 5, 6}, repeated);
+    @Test
+    public void testLongHashMaps() {
+        LongFloatHashMap map = new LongFloatHashMap(2);
+        LongHashSet set = new LongHashSet(2);
+        for(long key = -500 ; key < 500 ; key++){
+            map.add(key * (1L << 34), 1);
+            map.add(key * (1L << 34), 2);
+            Assert.assertTrue(set.add(key * (1L << 34)));
+            Assert.assertFalse(set.add(key * (1L << 34)));
+        }
+        map.put(Long.MIN_VALUE, 5);
+        Assert.assertTrue(set.add(Long.MIN_VALUE));
+        Assert.assertEquals(1001, map.size());
+        Assert.assertEquals(1001, set.size());
+        Assert.assertEquals(3, map.get(-7 * (1L << 34)), 0);
+        Assert.assertEquals(5, map.get(Long.MIN_VALUE), 0);
+        Assert.assertEquals(0, map.get(1), 0);
+        Assert.assertFalse(map.containsKey(1));
+        Assert.assertTrue(set.contains(Long.MIN_VALUE));
+        Assert.assertFalse(set.contains(1));
+        // keys and values are aligned
+        long[] keys = map.keys();
+        float[] values = map.values();
+        for(int k = 0 ; k < keys.length ; k++){
+            Assert.assertEquals(map.get(keys[k]), values[k], 0);
+        }
+        set.clear();
+        Assert.assertEquals(0, set.size());
+        Assert.assertFalse(set.contains(0));
     }
 
     @Test
     public void testNormalizeIds(){
         int[] ids1 = {0, 3, 5, 3, 3, 1, 1, 0};
         int[] ids2 = {1, 3, 3, 6};
-        OpenIntIntHashMap normalizedIds = Util.normalizeIds(ids1, ids2);
+        IdMap normalizedIds = Util.normalizeIds(ids1, ids2);
         // expected: 0 -> 0, 3 -> 1, 5 -> 2, 1 -> 3, 6 -> 4
         Assert.assertEquals(0, normalizedIds.get(0));
         Assert.assertEquals(1, normalizedIds.get(3));
@@ -48,6 +80,47 @@ public class UtilTest {
         Assert.assertEquals(0, normalizedIds.get(7));
     }
 
+    @Test
+    public void testNormalizeIdsAdaptive(){
+        // compact id range is mapped by array, sparse id range by hash
+        int[] denseIds = {5, 7, 6, 5, -1, 8};
+        int[] sparseIds = {3, 2000000000, 3, 1000};
+        IdMap denseMap = Util.normalizeIds(denseIds);
+        IdMap sparseMap = Util.normalizeIds(sparseIds);
+        Assert.assertTrue(denseMap instanceof ArrayIdMap);
+        Assert.assertTrue(sparseMap instanceof HashIdMap);
+        Assert.assertEquals(4, denseMap.size());
+        Assert.assertEquals(2, denseMap.get(6));
+        Assert.assertFalse(denseMap.containsKey(-1));
+        Assert.assertEquals(0, denseMap.get(100));
+        Assert.assertEquals(1, sparseMap.get(2000000000));
+        Assert.assertEquals(3, sparseMap.size());
+        // few unique ids repeated over many occurrences are too sparse for an array
+        int[] repeatedIds = new int[4000];
+        for(int i = 0 ; i < repeatedIds.length ; i++){
+            repeatedIds[i] = i % 2 == 0 ? 10 : 9000;
+        }
+        IdMap repeatedMap = Util.normalizeIds(repeatedIds, new int[]{5000});
+        Assert.assertTrue(repeatedMap instanceof HashIdMap);
+        Assert.assertEquals(3, repeatedMap.size());
+        Assert.assertEquals(1, repeatedMap.get(9000));
+        Assert.assertEquals(2, repeatedMap.get(5000));
+        // array map grows when a key out of its range is put
+        IdMap grown = denseMap.clone();
+        grown.put(2, 10);
+        Assert.assertEquals(10, grown.get(2));
+        Assert.assertEquals(3, grown.get(8));
+        Assert.assertEquals(5, grown.size());
+        Assert.assertEquals(4, denseMap.size());
+        int[] keys = grown.keys();
+        Arrays.sort(keys);
+        Assert.assertArrayEquals(new int[]{2, 5, 6, 7, 8}, keys);
+        // inverse of toRaw
+        IdMap inverse = Util.inverse(new int[]{40, 10, 30});
+        Assert.assertEquals(2, inverse.get(30));
+        Assert.assertEquals(0, inverse.get(40));
+    }
+
     @Test
     public void testNormalizeValues(){
         int[] values = {3, 5, 3, 3, 1, 1, -20};
@@ -0,0 +1,145 @@
+package network.optimization;
+
+import network.core.*;
+import network.utils.WorkerPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+public class CPMTest {
+
+    private static final float RESOLUTION = 0.05f;
+
+    /**
+     * Repeated greedy calls must reuse the workspace instead of allocating buffers per node or group
+     */
+    @Test
+    public void testGreedyWorkspaceAllocation() {
+        int nodeCount = 1 << 14;
+        SiGraph graph = ringGraph(nodeCount);
+        SignedAdjacency adjacency = new SignedAdjacency(graph);
+        CPM cpm = new CPM().setParams(new CPMParameters().setResolution(0.05f));
+        // first call grows the workspace of this thread
+        cpm.greedy(graph, adjacency, Util.ramp(nodeCount));
+        int[] partition = Util.ramp(nodeCount);
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        double improvement = cpm.greedy(graph, adjacency, partition);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        Assert.assertTrue(improvement > 0);
+        // an int per node would take 4 * nodeCount bytes
+        Assert.assertTrue("Allocated " + allocated + " bytes", allocated < nodeCount);
+    }
+
+    /**
+     * Detection of graphs on a shared pool with fewer workers than graphs
+     * must match the detection on threads created per call
+     */
+    @Test
+    public void testSharedWorkerPool() {
+        CPMParameters parameters = new CPMParameters().setResolution(0.05f);
+        parameters.randomSeed = 1;
+        int[][] expected = ((CPM) new CPM().setParams(parameters.clone()).setThreadCount(4))
+                .detect(ringGraphs(4));
+        try(WorkerPool workerPool = new WorkerPool(2)){
+            CPM cpm = (CPM) new CPM().setParams(parameters.clone())
+                    .setThreadCount(4).setWorkerPool(workerPool);
+            for(int repeat = 0 ; repeat < 2 ; repeat++){
+                int[][] partitions = cpm.detect(ringGraphs(4));
+                for(int g = 0 ; g < expected.length ; g++){
+                    Assert.assertArrayEquals(expected[g], partitions[g]);
+                }
+            }
+        }
+    }
+
+    /**
+     * A grouped initial partition that local moving does not improve is folded only as a warm start,
+     * otherwise (e.g. when a refinement restarts from the detected partition) it is kept as it is
+     */
+    @Test
+    public void testWarmStartFolding() {
+        int nodeCount = 64;
+        // pairs of consecutive nodes, merging two pairs needs folding since single moves do not improve
+        int[] pairs = new int[nodeCount];
+        for(int n = 0 ; n < nodeCount ; n++){
+            pairs[n] = n / 2;
+        }
+        CPMParameters parameters = new CPMParameters().setResolution(RESOLUTION);
+        parameters.randomSeed = 1;
+        SiGraph graph = cycleGraph(nodeCount);
+        int[] kept = new CPM().setParams(parameters.clone()).detect(graph, pairs, 1000);
+        Assert.assertArrayEquals(pairs, kept);
+        int[] warm = new CPM().setParams(parameters.clone())
+                .detect(new MultiGraph[]{cycleGraph(nodeCount)}, new int[][]{pairs})[0];
+        int warmGroupCount = Statistics.array(warm).uniqueCount;
+        Assert.assertTrue("Groups: " + warmGroupCount, warmGroupCount < nodeCount / 2);
+    }
+
+    /**
+     * Ring graphs of doubling sizes, detection sets the node sizes so each detection needs new graphs
+     * @param graphCount
+     * @return
+     */
+    private static MultiGraph[] ringGraphs(int graphCount){
+        MultiGraph[] graphs = new MultiGraph[graphCount];
+        for(int g = 0 ; g < graphCount ; g++){
+            graphs[g] = ringGraph(256 << g);
+        }
+        return graphs;
+    }
+
+    /**
+     * Each node is positively linked to its next node
+     * @param nodeCount
+     * @return
+     */
+    private static SiGraph cycleGraph(int nodeCount){
+        int[] rows = new int[nodeCount];
+        int[] columns = new int[nodeCount];
+        float[] values = new float[nodeCount];
+        for(int node = 0 ; node < nodeCount ; node++){
+            rows[node] = node;
+            columns[node] = (node + 1) % nodeCount;
+            values[node] = 1;
+        }
+        SiGraph graph = new SiGraph(new Graph(new ListMatrix().init(rows, columns, values, true)
+                .symmetrize().sort()));
+        float[][] nodeSizes = new float[nodeCount][1];
+        for(int n = 0 ; n < nodeCount ; n++){
+            nodeSizes[n][0] = 1;
+        }
+        graph.setAttributes(nodeSizes);
+        return graph;
+    }
+
+    /**
+     * Each node is positively linked to its next 3 nodes and negatively linked to its opposite node
+     * @param nodeCount
+     * @return
+     */
+    private static SiGraph ringGraph(int nodeCount){
+        int[] rows = new int[4 * nodeCount];
+        int[] columns = new int[rows.length];
+        float[] values = new float[rows.length];
+        for(int node = 0, link = 0 ; node < nodeCount ; node++){
+            for(int d = 1 ; d <= 4 ; d++, link++){
+                rows[link] = node;
+                columns[link] = d < 4 ? (node + d) % nodeCount : (node + nodeCount / 2) % nodeCount;
+                values[link] = d < 4 ? 1 : -1;
+            }
+        }
+        ListMatrix listMatrix = new ListMatrix().init(rows, columns, values, true)
+                .symmetrize().sort().normalize();
+        SiGraph graph = new SiGraph(new Graph(listMatrix));
+        float[][] nodeSizes = new float[nodeCount][1];
+        for(int n = 0 ; n < nodeCount ; n++){
+            nodeSizes[n][0] = 1;
+        }
+        graph.setAttributes(nodeSizes);
+        return graph;
+    }
+}